@@ -240,6 +240,122 @@ public class MyersDiff
     throw new DifferentiationFailedException("could not find a diff path");
   }
 
+  /**
+   * Computes the minimum diffpath that expresses de differences between the original and revised sequences of
+   * integers. This is the same algorithm as {@link #buildPath(Object[], Object[])} but the elements are compared with a
+   * single integer compare and the furthest reaching paths are kept in an array instead of a map.
+   *
+   * @param orig
+   *          The original sequence.
+   * @param rev
+   *          The revised sequence.
+   * @return A minimum {@link PathNode Path} accross the differences graph.
+   * @throws DifferentiationFailedException
+   *           if a diff path could not be found.
+   */
+  public PathNode buildPath(int[] orig,
+      int[] rev)
+      throws DifferentiationFailedException
+  {
+    int N;
+    int M;
+    int MAX;
+    int size;
+    int middle;
+    PathNode[] diagonal;
+    PathNode d_kminus;
+    PathNode d_kplus;
+    PathNode node;
+    int kmiddle;
+    PathNode prev;
+    int i;
+    int j;
+    long startTime;
+
+    if (orig == null)
+    {
+      throw new IllegalArgumentException("original sequence is null");
+    }
+
+    if (rev == null)
+    {
+      throw new IllegalArgumentException("revised sequence is null");
+    }
+
+    // these are local constants
+    N = orig.length;
+    M = rev.length;
+
+    MAX = N + M + 1;
+    size = 1 + 2 * MAX;
+    middle = (size + 1) / 2;
+    diagonal = new PathNode[size + 1];
+
+    startTime = System.currentTimeMillis();
+
+    diagonal[middle + 1] = new Snake(0,
+                                     -1,
+                                     null);
+    for (int d = 0; d < MAX; d++)
+    {
+      if (checkMaxTime && System.currentTimeMillis() - startTime > MAXTIME)
+      {
+        throw new org.jmeld.diff.MaxTimeExceededException("Algoritm is taking up to much time");
+      }
+
+      for (int k = -d; k <= d; k += 2)
+      {
+        kmiddle = middle + k;
+
+        d_kminus = diagonal[kmiddle - 1];
+        d_kplus = diagonal[kmiddle + 1];
+        if ((k == -d) || (k != d && d_kminus.i < d_kplus.i))
+        {
+          i = d_kplus.i;
+          prev = d_kplus;
+        }
+        else
+        {
+          i = d_kminus.i + 1;
+          prev = d_kminus;
+        }
+
+        diagonal[kmiddle - 1] = null;
+
+        j = i - k;
+
+        node = new DiffNode(i,
+                            j,
+                            prev);
+
+        while (i < N && j < M && orig[i] == rev[j])
+        {
+          i++;
+          j++;
+        }
+
+        if (i > node.i)
+        {
+          node = new Snake(i,
+                           j,
+                           node);
+        }
+
+        diagonal[kmiddle] = node;
+
+        if (i >= N && j >= M)
+        {
+          return node;
+        }
+      }
+
+      diagonal[middle + d - 1] = null;
+    }
+
+    // According to Myers, this cannot happen
+    throw new DifferentiationFailedException("could not find a diff path");
+  }
+
   private boolean isEmpty(Object o)
   {
     String s;
@@ -39,6 +39,7 @@ import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import org.apache.jmeld.tools.ant.taskdefs.condition.Os;
 import org.apache.jmeld.tools.ant.types.selectors.FileSelector;
+import org.apache.jmeld.tools.ant.types.selectors.GlobMatcher;
 import org.apache.jmeld.tools.ant.types.selectors.SelectorUtils;
 import org.apache.jmeld.tools.ant.types.selectors.TokenizedPath;
 import org.apache.jmeld.tools.ant.types.selectors.TokenizedPattern;
@@ -389,6 +390,37 @@ public class DirectoryScanner
    */
   private TokenizedPattern[] excludePatterns;
 
+  /**
+   * The include patterns that contain wildcards, compiled once per scan.
+   *
+   * <p>
+   * Gets lazily initialized on the first invocation of isIncluded or isExcluded
+   * and cleared at the end of the scan method (cleared in clearCaches, actually).
+   * </p>
+   */
+  private GlobMatcher includeMatcher;
+
+  /**
+   * The exclude patterns that contain wildcards, compiled once per scan.
+   *
+   * <p>
+   * Gets lazily initialized on the first invocation of isIncluded or isExcluded
+   * and cleared at the end of the scan method (cleared in clearCaches, actually).
+   * </p>
+   */
+  private GlobMatcher excludeMatcher;
+
+  /**
+   * The names of the files and directories that have been processed by
+   * processIncluded.
+   */
+  private final Set<String> processedNames = new HashSet<>();
+
+  /**
+   * Whether or not excluded subtrees are skipped without listing them.
+   */
+  private boolean pruneExcluded = false;
+
   /**
    * Have the non-pattern sets and pattern arrays for in- and excludes been
    * initialized?
@@ -724,6 +756,30 @@ public class DirectoryScanner
     this.followSymlinks = followSymlinks;
   }
 
+  /**
+   * Find out whether excluded subtrees are skipped during the scan.
+   *
+   * @return whether excluded subtrees are skipped.
+   */
+  public synchronized boolean isPruneExcluded()
+  {
+    return pruneExcluded;
+  }
+
+  /**
+   * Set whether or not excluded subtrees are skipped during the scan. A file or
+   * directory that is excluded and whose contents are all excluded (f.e. by the
+   * pattern <code>**&#47;target&#47;**</code>) is then never listed or stat'ed.
+   * It is not added to the excluded files or directories either, so only the
+   * included files and directories are complete.
+   *
+   * @param pruneExcluded whether or not excluded subtrees should be skipped.
+   */
+  public synchronized void setPruneExcluded(final boolean pruneExcluded)
+  {
+    this.pruneExcluded = pruneExcluded;
+  }
+
   /**
    * The maximum number of times a symbolic link may be followed during a scan.
    *
@@ -1118,6 +1174,7 @@ public class DirectoryScanner
     dirsDeselected = new VectorSet<>();
     everythingIncluded = (basedir != null);
     scannedDirs.clear();
+    processedNames.clear();
     notFollowedSymlinks.clear();
   }
 
@@ -1334,6 +1391,12 @@ public class DirectoryScanner
     {
       final String name = vpath + newFile;
       final TokenizedPath newPath = new TokenizedPath(path, newFile);
+      if (pruneExcluded && isExcluded(newPath) && contentsExcluded(newPath))
+      {
+        // Nothing in this subtree can be included.
+        everythingIncluded = false;
+        continue;
+      }
       final File file = new File(dir, newFile);
       final String[] children = file.list();
       if (children == null || (children.length == 0 && file.isFile()))
@@ -1441,7 +1504,7 @@ public class DirectoryScanner
       final List<FileNode> exc, final List<FileNode> des)
   {
     final String name = path.toString();
-    if (inc.contains(name) || exc.contains(name) || des.contains(name))
+    if (!processedNames.add(name))
     {
       return;
     }
@@ -1490,8 +1553,7 @@ public class DirectoryScanner
     {
       toMatch = toMatch.toUpperCase();
     }
-    return includeNonPatterns.containsKey(toMatch)
-        || Stream.of(includePatterns).anyMatch(p -> p.matchPath(path, isCaseSensitive()));
+    return includeNonPatterns.containsKey(toMatch) || includeMatcher.matchPath(path);
   }
 
   /**
@@ -1575,8 +1637,9 @@ public class DirectoryScanner
    */
   /* package */ boolean contentsExcluded(final TokenizedPath path)
   {
-    return Stream.of(excludePatterns).filter(p -> p.endsWith(SelectorUtils.DEEP_TREE_MATCH))
-        .map(TokenizedPattern::withoutLastToken).anyMatch(wlt -> wlt.matchPath(path, isCaseSensitive()));
+    ensureNonPatternSetsReady();
+
+    return excludeMatcher.matchContents(path);
   }
 
   /**
@@ -1607,8 +1670,7 @@ public class DirectoryScanner
     {
       toMatch = toMatch.toUpperCase();
     }
-    return excludeNonPatterns.containsKey(toMatch)
-        || Stream.of(excludePatterns).anyMatch(p -> p.matchPath(name, isCaseSensitive()));
+    return excludeNonPatterns.containsKey(toMatch) || excludeMatcher.matchPath(name);
   }
 
   /**
@@ -1876,6 +1938,8 @@ public class DirectoryScanner
     excludeNonPatterns.clear();
     includePatterns = null;
     excludePatterns = null;
+    includeMatcher = null;
+    excludeMatcher = null;
     areNonPatternSetsReady = false;
   }
 
@@ -1891,6 +1955,8 @@ public class DirectoryScanner
     {
       includePatterns = fillNonPatternSet(includeNonPatterns, includes);
       excludePatterns = fillNonPatternSet(excludeNonPatterns, excludes);
+      includeMatcher = new GlobMatcher(includePatterns, isCaseSensitive());
+      excludeMatcher = new GlobMatcher(excludePatterns, isCaseSensitive());
       areNonPatternSetsReady = true;
     }
   }
@@ -0,0 +1,232 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.apache.jmeld.tools.ant.types.selectors;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Matches a path against a set of patterns. The patterns are compiled once.
+ * <p>
+ * The patterns that are used most (<code>**&#47;name</code>,
+ * <code>**&#47;name&#47;**</code>, <code>**&#47;*.ext</code> and
+ * <code>**&#47;prefix*</code>) are looked up by the tokens of the path. That
+ * costs the same for 1 pattern as for 100 patterns. All other patterns are
+ * matched one by one with {@link TokenizedPattern#matchPath}. The result is
+ * always the same as matching every pattern with
+ * {@link TokenizedPattern#matchPath}.
+ * </p>
+ */
+public class GlobMatcher
+{
+  private final boolean isCaseSensitive;
+  // The pattern ** matches everything.
+  private boolean matchAll;
+  // **/name : the last token is name.
+  private final Set<String> names = new HashSet<>();
+  // **/name/** : a token is name.
+  private final Set<String> dirNames = new HashSet<>();
+  // **/*suffix : the last token ends with suffix.
+  private final List<String> suffixes = new ArrayList<>();
+  // **/prefix* : the last token starts with prefix.
+  private final List<String> prefixes = new ArrayList<>();
+  private final List<TokenizedPattern> others = new ArrayList<>();
+  // The patterns that end with ** without their last token.
+  private final List<TokenizedPattern> otherContents = new ArrayList<>();
+
+  /**
+   * @param patterns        the patterns to match.
+   * @param isCaseSensitive whether or not matching should be performed case
+   *                        sensitively.
+   */
+  public GlobMatcher(final TokenizedPattern[] patterns, final boolean isCaseSensitive)
+  {
+    this.isCaseSensitive = isCaseSensitive;
+
+    for (TokenizedPattern pattern : patterns)
+    {
+      compile(pattern);
+    }
+  }
+
+  private void compile(final TokenizedPattern pattern)
+  {
+    final String[] tokens = pattern.getTokens();
+    final String name;
+
+    if (tokens.length == 1 && tokens[0].equals(SelectorUtils.DEEP_TREE_MATCH))
+    {
+      matchAll = true;
+      otherContents.add(pattern.withoutLastToken());
+      return;
+    }
+
+    if (tokens.length >= 2 && tokens.length <= 3 && tokens[0].equals(SelectorUtils.DEEP_TREE_MATCH))
+    {
+      name = tokens[1];
+      if (tokens.length == 3)
+      {
+        if (tokens[2].equals(SelectorUtils.DEEP_TREE_MATCH) && !SelectorUtils.hasWildcards(name))
+        {
+          dirNames.add(fold(name));
+          return;
+        }
+      }
+      else if (!SelectorUtils.hasWildcards(name))
+      {
+        names.add(fold(name));
+        return;
+      }
+      else if (name.lastIndexOf('*') == 0 && name.indexOf('?') == -1)
+      {
+        suffixes.add(fold(name.substring(1)));
+        return;
+      }
+      else if (name.indexOf('*') == name.length() - 1 && name.indexOf('?') == -1)
+      {
+        prefixes.add(fold(name.substring(0, name.length() - 1)));
+        return;
+      }
+    }
+
+    others.add(pattern);
+    if (pattern.endsWith(SelectorUtils.DEEP_TREE_MATCH))
+    {
+      otherContents.add(pattern.withoutLastToken());
+    }
+  }
+
+  /**
+   * Tests whether or not a path matches at least one of the patterns.
+   *
+   * @param path The path to match. Must not be <code>null</code>.
+   * @return <code>true</code> when the path matches at least one pattern.
+   */
+  public boolean matchPath(final TokenizedPath path)
+  {
+    final String[] tokens = path.getTokens();
+    String last;
+
+    if (matchAll)
+    {
+      return true;
+    }
+
+    if (tokens.length > 0)
+    {
+      last = fold(tokens[tokens.length - 1]);
+      if (names.contains(last) || dirNames.contains(last))
+      {
+        return true;
+      }
+
+      for (String suffix : suffixes)
+      {
+        if (last.endsWith(suffix))
+        {
+          return true;
+        }
+      }
+
+      for (String prefix : prefixes)
+      {
+        if (last.startsWith(prefix))
+        {
+          return true;
+        }
+      }
+
+      if (!dirNames.isEmpty())
+      {
+        for (int i = 0; i < tokens.length - 1; i++)
+        {
+          if (dirNames.contains(fold(tokens[i])))
+          {
+            return true;
+          }
+        }
+      }
+    }
+
+    for (TokenizedPattern pattern : others)
+    {
+      if (pattern.matchPath(path, isCaseSensitive))
+      {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Tests whether or not all contents of a directory match at least one of the
+   * patterns that end with <code>**</code>.
+   *
+   * @param path The path of the directory. Must not be <code>null</code>.
+   * @return <code>true</code> when everything below the directory matches.
+   */
+  public boolean matchContents(final TokenizedPath path)
+  {
+    final String[] tokens = path.getTokens();
+
+    if (!dirNames.isEmpty())
+    {
+      // The pattern **/name/** without its last token is **/name.
+      if (tokens.length > 0 && dirNames.contains(fold(tokens[tokens.length - 1])))
+      {
+        return true;
+      }
+    }
+
+    for (TokenizedPattern pattern : otherContents)
+    {
+      if (pattern.matchPath(path, isCaseSensitive))
+      {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Fold the case of a token the same way as SelectorUtils compares characters
+   * that are not case sensitive.
+   */
+  private String fold(final String token)
+  {
+    final char[] chars;
+
+    if (isCaseSensitive)
+    {
+      return token;
+    }
+
+    chars = token.toCharArray();
+    for (int i = 0; i < chars.length; i++)
+    {
+      chars[i] = Character.toUpperCase(chars[i]);
+    }
+
+    return new String(chars);
+  }
+}
@@ -97,6 +97,11 @@ public class TokenizedPattern {
         return pattern;
     }
 
+    /* package */
+    String[] getTokens() {
+        return tokenizedPattern;
+    }
+
     /**
      * true if the original patterns are equal.
      *
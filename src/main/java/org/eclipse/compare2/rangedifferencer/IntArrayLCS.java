@@ -0,0 +1,63 @@
+/*******************************************************************************
+ * Copyright (c) 2006, 2011 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.compare2.rangedifferencer;
+
+/**
+ * A <code>RangeComparatorLCS</code> that compares the integer sequences directly instead of calling
+ * {@link IRangeComparator#rangesEqual(int, IRangeComparator, int)} for every probe of the LCS.
+ */
+/* package */ class IntArrayLCS
+    extends RangeComparatorLCS
+{
+  private final int[] ids1;
+  private final int[] ids2;
+
+  public static RangeDifference[] findDifferences(AbstractRangeDifferenceFactory factory,
+      IntArrayRangeComparator left,
+      IntArrayRangeComparator right)
+  {
+    IntArrayLCS lcs = new IntArrayLCS(left,
+                                      right);
+    lcs.longestCommonSubsequence();
+    return lcs.getDifferences(factory);
+  }
+
+  public IntArrayLCS(IntArrayRangeComparator comparator1,
+      IntArrayRangeComparator comparator2)
+  {
+    super(comparator1,
+          comparator2);
+    this.ids1 = comparator1.getIds();
+    this.ids2 = comparator2.getIds();
+  }
+
+  @Override
+  protected final int getLength1()
+  {
+    return this.ids1.length;
+  }
+
+  @Override
+  protected final int getLength2()
+  {
+    return this.ids2.length;
+  }
+
+  @Override
+  protected final boolean isRangeEqual(int i1,
+      int i2)
+  {
+    return this.ids1[i1] == this.ids2[i2];
+  }
+}
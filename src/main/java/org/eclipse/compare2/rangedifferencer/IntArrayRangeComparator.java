@@ -0,0 +1,57 @@
+/*******************************************************************************
+ * Copyright (c) 2000, 2011 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.compare2.rangedifferencer;
+
+/**
+ * An <code>IRangeComparator</code> on a sequence of integers. Two entities are equal if their integers are equal.
+ * Callers typically map the objects to compare onto unique integers first so the comparison is a single integer
+ * compare.
+ */
+public final class IntArrayRangeComparator
+    implements IRangeComparator
+{
+  private final int[] ids;
+
+  public IntArrayRangeComparator(int[] ids)
+  {
+    this.ids = ids;
+  }
+
+  int[] getIds()
+  {
+    return ids;
+  }
+
+  @Override
+  public int getRangeCount()
+  {
+    return ids.length;
+  }
+
+  @Override
+  public boolean rangesEqual(int thisIndex,
+      IRangeComparator other,
+      int otherIndex)
+  {
+    return ids[thisIndex] == ((IntArrayRangeComparator) other).ids[otherIndex];
+  }
+
+  @Override
+  public boolean skipRangeComparison(int length,
+      int maxLength,
+      IRangeComparator other)
+  {
+    return false;
+  }
+}
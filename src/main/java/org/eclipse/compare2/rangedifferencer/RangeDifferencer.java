@@ -97,6 +97,25 @@ public final class RangeDifferencer
                                               right);
   }
 
+  /**
+   * Finds the differences between two integer sequences. Two entities are equal if their integers are equal. The
+   * differences are returned as an array of <code>RangeDifference</code>s. If no differences are detected an empty
+   * array is returned.
+   *
+   * @param left
+   *          the left integer sequence
+   * @param right
+   *          the right integer sequence
+   * @return an array of range differences, or an empty array if no differences were found
+   */
+  public static RangeDifference[] findDifferences(int[] left,
+      int[] right)
+  {
+    return IntArrayLCS.findDifferences(defaultFactory,
+                                       new IntArrayRangeComparator(left),
+                                       new IntArrayRangeComparator(right));
+  }
+
   /**
    * Finds the differences among three <code>IRangeComparator</code>s. The differences are returned as a list of
    * <code>RangeDifference</code>s. If no differences are detected an empty list is returned. If the ancestor range
@@ -95,6 +95,17 @@ public class Diff
     filevec[1] = new file_data(b, h);
   }
 
+  /**
+   * Prepare to find differences between two arrays of integers. The integers are
+   * used as the equivalence numbers, so equal elements must already have the same
+   * integer and the integers must be &gt;= 0. No hashing is necessary.
+   */
+  public Diff(int[] a, int[] b)
+  {
+    filevec[0] = new file_data(a);
+    filevec[1] = new file_data(b);
+  }
+
   /**
    * Find the midpoint of the shortest edit script for a specified portion of the
    * two files. We scan from the beginnings of the files, and simultaneously from
@@ -941,6 +952,25 @@ public class Diff
       nondiscarded_lines = j;
     }
 
+    file_data(int[] data)
+    {
+      buffered_lines = data.length;
+
+      equivs = new int[buffered_lines];
+      undiscarded = new int[buffered_lines];
+      realindexes = new int[buffered_lines];
+
+      for (int i = 0; i < data.length; ++i)
+      {
+        // Equivalence number 0 has a special meaning (see discard_confusing_lines)
+        equivs[i] = data[i] + 1;
+        if (equivs[i] >= equiv_max)
+        {
+          equiv_max = equivs[i] + 1;
+        }
+      }
+    }
+
     file_data(Object[] data, Map h)
     {
       buffered_lines = data.length;
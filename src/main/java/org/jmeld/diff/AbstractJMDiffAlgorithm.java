@@ -16,6 +16,8 @@
  */
 package org.jmeld.diff;
 
+import org.jmeld.JMeldException;
+
 public abstract class AbstractJMDiffAlgorithm
     implements JMDiffAlgorithmIF
 {
@@ -34,4 +36,55 @@ public abstract class AbstractJMDiffAlgorithm
   {
     return checkMaxTime;
   }
+
+  /**
+   * Thin adapter for callers that have objects instead of id's. The objects are
+   * interned first so the algorithm only has to compare integers.
+   */
+  public JMRevision diff(Object[] orig,
+      Object[] rev)
+      throws JMeldException
+  {
+    JMSymbolTable symbolTable;
+    JMRevision revision;
+
+    if (orig == null)
+    {
+      throw new IllegalArgumentException("original sequence is null");
+    }
+
+    if (rev == null)
+    {
+      throw new IllegalArgumentException("revised sequence is null");
+    }
+
+    symbolTable = new JMSymbolTable(orig.length + rev.length);
+    revision = diff(symbolTable.intern(orig),
+                    symbolTable.intern(rev));
+    revision.update(orig,
+                    rev);
+
+    return revision;
+  }
+
+  /**
+   * Create an empty revision for the result of a diff on id's. The caller
+   * will update the revision with the arrays that were interned.
+   */
+  protected JMRevision createRevision(int[] orig,
+      int[] rev)
+  {
+    if (orig == null)
+    {
+      throw new IllegalArgumentException("original sequence is null");
+    }
+
+    if (rev == null)
+    {
+      throw new IllegalArgumentException("revised sequence is null");
+    }
+
+    return new JMRevision(null,
+                          null);
+  }
 }
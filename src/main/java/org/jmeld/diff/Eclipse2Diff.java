@@ -16,7 +16,6 @@
  */
 package org.jmeld.diff;
 
-import org.eclipse.compare2.rangedifferencer.IRangeComparator;
 import org.eclipse.compare2.rangedifferencer.RangeDifference;
 import org.eclipse.compare2.rangedifferencer.RangeDifferencer;
 import org.jmeld.JMeldException;
@@ -28,39 +27,16 @@ public class Eclipse2Diff
   {
   }
 
-  public JMRevision diff(Object[] orig,
-      Object[] rev)
+  public JMRevision diff(int[] orig,
+      int[] rev)
       throws JMeldException
-  {
-    RangeDifference[] differences;
-
-    differences = RangeDifferencer.findDifferences(new RangeComparator(orig),
-                                                   new RangeComparator(rev));
-
-    return buildRevision(differences,
-                         orig,
-                         rev);
-  }
-
-  private JMRevision buildRevision(RangeDifference[] differences,
-      Object[] orig,
-      Object[] rev)
   {
     JMRevision result;
 
-    if (orig == null)
-    {
-      throw new IllegalArgumentException("original sequence is null");
-    }
-
-    if (rev == null)
-    {
-      throw new IllegalArgumentException("revised sequence is null");
-    }
-
-    result = new JMRevision(orig,
+    result = createRevision(orig,
                             rev);
-    for (RangeDifference rd : differences)
+    for (RangeDifference rd : RangeDifferencer.findDifferences(orig,
+                                                               rev))
     {
       result.add(new JMDelta(new JMChunk(rd.leftStart(),
                                          rd.leftLength()),
@@ -70,55 +46,4 @@ public class Eclipse2Diff
 
     return result;
   }
-
-  private class RangeComparator
-      implements IRangeComparator
-  {
-    private Object[] objectArray;
-
-    RangeComparator(Object[] objectArray)
-    {
-      this.objectArray = objectArray;
-    }
-
-    public int getRangeCount()
-    {
-      return objectArray.length;
-    }
-
-    public boolean rangesEqual(int thisIndex,
-        IRangeComparator other,
-        int otherIndex)
-    {
-      Object o1;
-      Object o2;
-
-      o1 = objectArray[thisIndex];
-      o2 = ((RangeComparator) other).objectArray[otherIndex];
-
-      if (o1 == o2)
-      {
-        return true;
-      }
-
-      if (o1 == null && o2 != null)
-      {
-        return false;
-      }
-
-      if (o1 != null && o2 == null)
-      {
-        return false;
-      }
-
-      return o1.equals(o2);
-    }
-
-    public boolean skipRangeComparison(int length,
-        int maxLength,
-        IRangeComparator other)
-    {
-      return false;
-    }
-  }
 }
@@ -28,38 +28,17 @@ public class EclipseDiff
   {
   }
 
-  public JMRevision diff(Object[] orig,
-      Object[] rev)
+  public JMRevision diff(int[] orig,
+      int[] rev)
       throws JMeldException
   {
     RangeDifference[] differences;
-
-    differences = RangeDifferencer.findDifferences(new RangeComparator(orig),
-                                                   new RangeComparator(rev));
-
-    return buildRevision(differences,
-                         orig,
-                         rev);
-  }
-
-  private JMRevision buildRevision(RangeDifference[] differences,
-      Object[] orig,
-      Object[] rev)
-  {
     JMRevision result;
 
-    if (orig == null)
-    {
-      throw new IllegalArgumentException("original sequence is null");
-    }
-
-    if (rev == null)
-    {
-      throw new IllegalArgumentException("revised sequence is null");
-    }
-
-    result = new JMRevision(orig,
+    result = createRevision(orig,
                             rev);
+    differences = RangeDifferencer.findDifferences(new IntRangeComparator(orig),
+                                                   new IntRangeComparator(rev));
     for (RangeDifference rd : differences)
     {
       result.add(new JMDelta(new JMChunk(rd.leftStart(),
@@ -71,47 +50,26 @@ public class EclipseDiff
     return result;
   }
 
-  private class RangeComparator
+  private class IntRangeComparator
       implements IRangeComparator
   {
-    private Object[] objectArray;
+    private int[] idArray;
 
-    RangeComparator(Object[] objectArray)
+    IntRangeComparator(int[] idArray)
     {
-      this.objectArray = objectArray;
+      this.idArray = idArray;
     }
 
     public int getRangeCount()
     {
-      return objectArray.length;
+      return idArray.length;
     }
 
     public boolean rangesEqual(int thisIndex,
         IRangeComparator other,
         int otherIndex)
     {
-      Object o1;
-      Object o2;
-
-      o1 = objectArray[thisIndex];
-      o2 = ((RangeComparator) other).objectArray[otherIndex];
-
-      if (o1 == o2)
-      {
-        return true;
-      }
-
-      if (o1 == null && o2 != null)
-      {
-        return false;
-      }
-
-      if (o1 != null && o2 == null)
-      {
-        return false;
-      }
-
-      return o1.equals(o2);
+      return idArray[thisIndex] == ((IntRangeComparator) other).idArray[otherIndex];
     }
 
     public boolean skipRangeComparison(int length,
@@ -26,12 +26,16 @@ public class GNUDiff
   {
   }
 
-  public JMRevision diff(Object[] orig,
-      Object[] rev)
+  public JMRevision diff(int[] orig,
+      int[] rev)
       throws JMeldException
   {
     Diff diff;
     Diff.change change;
+    JMRevision result;
+
+    result = createRevision(orig,
+                            rev);
 
     try
     {
@@ -45,29 +49,6 @@ public class GNUDiff
                                ex);
     }
 
-    return buildRevision(change,
-                         orig,
-                         rev);
-  }
-
-  private JMRevision buildRevision(Diff.change change,
-      Object[] orig,
-      Object[] rev)
-  {
-    JMRevision result;
-
-    if (orig == null)
-    {
-      throw new IllegalArgumentException("original sequence is null");
-    }
-
-    if (rev == null)
-    {
-      throw new IllegalArgumentException("revised sequence is null");
-    }
-
-    result = new JMRevision(orig,
-                            rev);
     while (change != null)
     {
       result.add(new JMDelta(new JMChunk(change.line0,
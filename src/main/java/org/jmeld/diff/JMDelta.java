@@ -16,9 +16,8 @@
  */
 package org.jmeld.diff;
 
+import java.util.ArrayList;
 import java.util.List;
-import org.jmeld.util.TokenizerFactory;
-import org.jmeld.util.WordTokenizer;
 
 public class JMDelta
 {
@@ -49,8 +48,11 @@ public class JMDelta
   private JMChunk revised;
   private Type type;
   private JMRevision revision;
-  private boolean changeRevisionEvaluated;
-  private JMRevision changeRevision;
+  // The change revision is set by the thread of JMInnerDiffService.
+  private volatile boolean changeRevisionEvaluated;
+  private volatile JMRevision changeRevision;
+  private int changeRevisionVersion;
+  private List<Runnable> changeRevisionListeners;
 
   public JMDelta(JMChunk original, JMChunk revised)
   {
@@ -95,126 +97,167 @@ public class JMDelta
     return type == Type.CHANGE;
   }
 
-  public void invalidateChangeRevision()
+  public synchronized void invalidateChangeRevision()
   {
     changeRevisionEvaluated = false;
+    changeRevision = null;
+    changeRevisionListeners = null;
+    changeRevisionVersion++;
   }
 
+  /**
+   * This method does not compare the chunks. A change is really changed as
+   * long as the change revision is not available.
+   */
   public boolean isReallyChanged()
   {
-    return getChangeRevision() == null || getChangeRevision().getDeltas().size() > 0;
-  }
+    JMRevision rev;
 
-  public JMRevision getChangeRevision()
-  {
     if (!changeRevisionEvaluated)
     {
-      changeRevision = createChangeRevision();
-      changeRevisionEvaluated = true;
+      return true;
     }
 
-    return changeRevision;
+    rev = changeRevision;
+    return rev == null || rev.getDeltas().size() > 0;
   }
 
-  private JMRevision createChangeRevision()
+  public boolean isChangeRevisionAvailable()
   {
-    char[] original1;
-    Character[] original2;
-    char[] revised1;
-    Character[] revised2;
-    List<String> o2;
-    List<String> r2;
-    JMRevision rev;
-    JMRevision rev2;
-    JMChunk o;
-    JMChunk r;
-    JMDelta d2;
-    int anchor;
-    int size;
-    WordTokenizer wt;
-    int[] oIndex;
-    int[] rIndex;
-    int oAnchor;
-    int oLength;
-    int rAnchor;
-    int rLength;
-
-    original1 = revision.getOriginalString(original).toCharArray();
-    original2 = new Character[original1.length];
-    for (int j = 0; j < original1.length; j++)
-    {
-      original2[j] = Character.valueOf(original1[j]);
-    }
+    return changeRevisionEvaluated;
+  }
 
-    revised1 = revision.getRevisedString(revised).toCharArray();
-    revised2 = new Character[revised1.length];
-    for (int j = 0; j < revised1.length; j++)
-    {
-      revised2[j] = Character.valueOf(revised1[j]);
-    }
+  /**
+   * Compare the chunks on the calling thread if the change revision is not
+   * available.
+   */
+  public JMRevision getChangeRevision()
+  {
+    int version;
 
-    try
+    if (!changeRevisionEvaluated)
     {
-      wt = TokenizerFactory.getInnerDiffTokenizer();
-      o2 = wt.getTokens(revision.getOriginalString(original));
+      synchronized (this)
+      {
+        version = changeRevisionVersion;
+      }
 
-      r2 = wt.getTokens(revision.getRevisedString(revised));
+      setChangeRevision(version,
+                        JMInnerDiffService.getInstance().getChangeRevision(getOriginalString(),
+                                                                           getRevisedString(),
+                                                                           revision.getIgnore()));
+    }
 
-      rev = new JMDiff().diff(o2, r2, revision.getIgnore());
+    return changeRevision;
+  }
 
-      oIndex = new int[o2.size()];
-      for (int i = 0; i < o2.size(); i++)
+  /**
+   * Compare the chunks in the background (See JMInnerDiffService).
+   *
+   * @param listener
+   *          is called when the change revision becomes available. It can be
+   *          called on any thread.
+   * @return the change revision or null if it is not available yet.
+   */
+  public JMRevision requestChangeRevision(Runnable listener)
+  {
+    int version;
+    boolean schedule;
+
+    synchronized (this)
+    {
+      if (changeRevisionEvaluated)
       {
-        oIndex[i] = o2.get(i).length();
-        if (i > 0)
-        {
-          oIndex[i] += oIndex[i - 1];
-        }
-        debug("oIndex[" + i + "] = " + oIndex[i] + " \"" + o2.get(i) + "\"");
+        return changeRevision;
       }
 
-      rIndex = new int[r2.size()];
-      for (int i = 0; i < r2.size(); i++)
+      schedule = changeRevisionListeners == null;
+      if (schedule)
       {
-        rIndex[i] = r2.get(i).length();
-        if (i > 0)
-        {
-          rIndex[i] += rIndex[i - 1];
-        }
-        debug("rIndex[" + i + "] = " + rIndex[i] + " \"" + r2.get(i) + "\"");
+        changeRevisionListeners = new ArrayList<Runnable>();
       }
 
-      rev2 = new JMRevision(original2, revised2);
-      rev2.setIgnore(revision.getIgnore());
-      for (JMDelta d : rev.getDeltas())
+      if (listener != null && !changeRevisionListeners.contains(listener))
       {
-        o = d.getOriginal();
-        r = d.getRevised();
+        changeRevisionListeners.add(listener);
+      }
+
+      version = changeRevisionVersion;
+    }
+
+    if (schedule)
+    {
+      JMInnerDiffService.getInstance().requestChangeRevision(getOriginalString(),
+                                                             getRevisedString(),
+                                                             revision.getIgnore(),
+                                                             new JMInnerDiffService.Listener()
+                                                             {
+                                                               @Override
+                                                               public void changeRevisionAvailable(JMRevision result)
+                                                               {
+                                                                 setChangeRevision(version,
+                                                                                   result);
+                                                               }
+
+                                                               @Override
+                                                               public void requestDropped()
+                                                               {
+                                                                 dropChangeRevisionRequest(version);
+                                                               }
+                                                             });
+    }
 
-        anchor = o.getAnchor();
-        size = o.getSize();
-        oAnchor = anchor == 0 ? 0 : oIndex[anchor - 1];
-        oLength = size > 0 ? (oIndex[anchor + size - 1] - oAnchor) : 0;
+    return changeRevisionEvaluated ? changeRevision : null;
+  }
 
-        anchor = r.getAnchor();
-        size = r.getSize();
-        rAnchor = anchor == 0 ? 0 : rIndex[anchor - 1];
-        rLength = size > 0 ? (rIndex[anchor + size - 1] - rAnchor) : 0;
+  /**
+   * The listeners are forgotten. They will request the change revision again
+   * if they still need it.
+   */
+  private synchronized void dropChangeRevisionRequest(int version)
+  {
+    if (version == changeRevisionVersion && !changeRevisionEvaluated)
+    {
+      changeRevisionListeners = null;
+    }
+  }
 
-        d2 = new JMDelta(new JMChunk(oAnchor, oLength), new JMChunk(rAnchor, rLength));
-        rev2.add(d2);
+  private void setChangeRevision(int version,
+      JMRevision result)
+  {
+    List<Runnable> listeners;
 
-        debug("delta = " + d + " -> " + d2);
+    synchronized (this)
+    {
+      // The result of a request that was invalidated.
+      if (version != changeRevisionVersion)
+      {
+        return;
       }
 
-      return rev2;
+      changeRevision = result;
+      changeRevisionEvaluated = true;
+      listeners = changeRevisionListeners;
+      changeRevisionListeners = null;
     }
-    catch (Exception ex)
+
+    if (listeners != null)
     {
-      ex.printStackTrace();
+      for (Runnable listener : listeners)
+      {
+        listener.run();
+      }
     }
+  }
 
-    return null;
+  private String getOriginalString()
+  {
+    return revision.getOriginalString(original);
+  }
+
+  private String getRevisedString()
+  {
+    return revision.getRevisedString(revised);
   }
 
   void initType()
@@ -16,10 +16,10 @@
  */
 package org.jmeld.diff;
 
-import java.nio.CharBuffer;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import javax.swing.text.Segment;
 import org.jmeld.JMeldException;
 import org.jmeld.ui.text.AbstractBufferDocument;
 import org.jmeld.util.Ignore;
@@ -29,17 +29,13 @@ import org.jmeld.util.file.CompareUtil;
 public class JMDiff
 {
   // Class variables:
-  // Allocate a charBuffer once for performance. The charbuffer is used to
-  // store a 'line' without it's ignored characters.
-  static final private CharBuffer inputLine = CharBuffer.allocate(10000);
-  static final private CharBuffer outputLine = CharBuffer.allocate(10000);
+  private static boolean debug = false;
+
   // Instance variables:
-  private List<JMDiffAlgorithmIF> algorithms;
+  private JMDiffAlgorithmSelector selector;
 
   public JMDiff()
   {
-    MyersDiff myersDiff;
-
     // Timing/Memory (msec/Mb):
     // Myers Eclipse GNU Hunt
     // ================================================================================
@@ -49,26 +45,39 @@ public class JMDiff
     // 2 Medium different files (10673406 lines) 216 922 632 >300000
     // 2 Equal files (1778583 lines) 32 55 133 24632
     // 2 Equal files (10673406 lines) 121 227 581 >60000
-    myersDiff = new MyersDiff();
-    myersDiff.checkMaxTime(true);
-
-    // MyersDiff is the fastest but can be very slow when 2 files
-    // are very different.
-    algorithms = new ArrayList<JMDiffAlgorithmIF>();
-    // algorithms.add(myersDiff);
 
+    // The algorithm is chosen for every diff by looking at the input
+    // (See JMDiffAlgorithmSelector):
+    // - MyersDiff is the fastest but can be very slow when 2 files
+    //   are very different. It is used for near-identical files.
+    // - PatienceDiff anchors on lines that are unique in both files. It is
+    //   fast on totally different files and the result reads better on
+    //   source code.
+    // - Eclipse2Diff (Myers with a bounded running time) for everything else.
+    //
     // GNUDiff is a little bit slower than Myersdiff but performs way
     // better if the files are very different.
     // Don't use it for now because of GPL
-    // algorithms.add(new GNUDiff());
-
+    //
     // EclipseDiff looks like Myersdiff but is slower.
     // It performs much better if the files are totally different
-    // algorithms.add(new EclipseDiff());
-    algorithms.add(new Eclipse2Diff());
-
+    //
     // HuntDiff (from netbeans) is very, very slow
-    // algorithms.add(new HuntDiff());
+    selector = new JMDiffAlgorithmSelector();
+  }
+
+  /**
+   * Use a ForkJoinPool to compare large inputs. The result is the same as in
+   * sequential mode.
+   */
+  public void setParallel(boolean parallel)
+  {
+    selector.setParallel(parallel);
+  }
+
+  public boolean isParallel()
+  {
+    return selector.isParallel();
   }
 
   public JMRevision diff(List<String> a, List<String> b, Ignore ignore) throws JMeldException
@@ -91,7 +100,15 @@ public class JMDiff
     boolean filtered;
     Object[] org;
     Object[] rev;
+    FilteredLines orgFiltered;
+    FilteredLines revFiltered;
     long filteredTime;
+    JMSymbolTable symbolTable;
+    int[] orgIds;
+    int[] revIds;
+    int prefix;
+    int suffix;
+    JMDiffAlgorithmSelector.Selection selection;
 
     org = a;
     rev = b;
@@ -121,31 +138,64 @@ public class JMDiff
     sp = new StopWatch();
     sp.start();
 
+    // Most of the time 2 versions of the same file are compared. Lines that
+    // are equal at the start and at the end of both arrays are always part of
+    // the result. Only the window in between has to be filtered and compared.
+    prefix = getCommonPrefix(org, rev);
+    suffix = getCommonSuffix(org, rev, prefix);
+    if (prefix == org.length && prefix == rev.length)
+    {
+      revision = new JMRevision(a, b);
+      revision.setIgnore(ignore);
+      return revision;
+    }
+
+    if (prefix > 0 || suffix > 0)
+    {
+      org = Arrays.copyOfRange(org, prefix, org.length - suffix);
+      rev = Arrays.copyOfRange(rev, prefix, rev.length - suffix);
+    }
+
+    // Hash every line once. The algorithms only compare the id's.
+    symbolTable = new JMSymbolTable(org.length + rev.length);
+    orgFiltered = null;
+    revFiltered = null;
     if (filtered)
     {
-      org = filter(ignore, org);
-      rev = filter(ignore, rev);
+      orgFiltered = filter(ignore, org, symbolTable);
+      revFiltered = filter(ignore, rev, symbolTable);
+      orgIds = orgFiltered.ids;
+      revIds = revFiltered.ids;
     }
+    else
+    {
+      orgIds = symbolTable.intern(org);
+      revIds = symbolTable.intern(rev);
+    }
+
+    selection = selector.select(orgIds, revIds, symbolTable.size());
 
     filteredTime = sp.getElapsedTime();
 
-    for (JMDiffAlgorithmIF algorithm : algorithms)
+    for (JMDiffAlgorithmIF algorithm : selection.getAlgorithms())
     {
       try
       {
-        revision = algorithm.diff(org, rev);
+        revision = algorithm.diff(orgIds, revIds);
         revision.setIgnore(ignore);
-        revision.update(a, b);
+        revision.setAlgorithm(algorithm.getClass().getSimpleName());
         // revision.filter();
         if (filtered)
         {
-          adjustRevision(revision, a, (JMString[]) org, b, (JMString[]) rev);
+          adjustRevision(revision, org, orgFiltered.lineNumbers, rev, revFiltered.lineNumbers);
         }
+        shiftRevision(revision, prefix);
+        revision.update(a, b);
 
-        if (a.length > 1000)
+        if (debug && a.length > 1000)
         {
-          System.out.println("diff took " + sp.getElapsedTime() + " msec. [filter=" + filteredTime + " msec]["
-              + algorithm.getClass() + "]");
+          System.out.println("diff took " + sp.getElapsedTime() + " msec. [filter=" + filteredTime + " msec][prefix="
+              + prefix + ", suffix=" + suffix + "][" + algorithm.getClass() + "][" + selection.getReason() + "]");
         }
 
         return revision;
@@ -166,8 +216,84 @@ public class JMDiff
     return null;
   }
 
-  private void adjustRevision(JMRevision revision, Object[] orgArray, JMString[] orgArrayFiltered, Object[] revArray,
-      JMString[] revArrayFiltered)
+  private int getCommonPrefix(Object[] org, Object[] rev)
+  {
+    int max;
+    int index;
+
+    max = Math.min(org.length, rev.length);
+    for (index = 0; index < max; index++)
+    {
+      if (!equals(org[index], rev[index]))
+      {
+        break;
+      }
+    }
+
+    return index;
+  }
+
+  private int getCommonSuffix(Object[] org, Object[] rev, int prefix)
+  {
+    int max;
+    int index;
+
+    max = Math.min(org.length, rev.length) - prefix;
+    for (index = 0; index < max; index++)
+    {
+      if (!equals(org[org.length - 1 - index], rev[rev.length - 1 - index]))
+      {
+        break;
+      }
+    }
+
+    return index;
+  }
+
+  /**
+   * Compare the objects themselves. For lines in a document this compares the
+   * characters in the buffer directly (without creating strings).
+   */
+  private boolean equals(Object o1, Object o2)
+  {
+    if (o1 == o2)
+    {
+      return true;
+    }
+
+    if (o1 == null || o2 == null)
+    {
+      return false;
+    }
+
+    return o1.equals(o2);
+  }
+
+  /**
+   * The algorithm only compared the window after the common prefix. Move the
+   * chunks back to their position in the complete arrays.
+   */
+  private void shiftRevision(JMRevision revision, int prefix)
+  {
+    JMChunk chunk;
+
+    if (prefix == 0)
+    {
+      return;
+    }
+
+    for (JMDelta delta : revision.getDeltas())
+    {
+      chunk = delta.getOriginal();
+      chunk.setAnchor(chunk.getAnchor() + prefix);
+
+      chunk = delta.getRevised();
+      chunk.setAnchor(chunk.getAnchor() + prefix);
+    }
+  }
+
+  private void adjustRevision(JMRevision revision, Object[] orgArray, int[] orgArrayFiltered, Object[] revArray,
+      int[] revArrayFiltered)
   {
     JMChunk chunk;
     int anchor;
@@ -181,7 +307,7 @@ public class JMDiff
       index = chunk.getAnchor();
       if (index < orgArrayFiltered.length)
       {
-        anchor = orgArrayFiltered[index].lineNumber;
+        anchor = orgArrayFiltered[index];
       }
       else
       {
@@ -194,7 +320,7 @@ public class JMDiff
         index += chunk.getSize() - 1;
         if (index < orgArrayFiltered.length)
         {
-          size = orgArrayFiltered[index].lineNumber - anchor + 1;
+          size = orgArrayFiltered[index] - anchor + 1;
         }
         /*
          * index += chunk.getSize(); if (index < orgArrayFiltered.length) { size =
@@ -212,7 +338,7 @@ public class JMDiff
       {
         // System.out.print(" [index=" + index + ", text="
         // + revArrayFiltered[index].s + "]");
-        anchor = revArrayFiltered[index].lineNumber;
+        anchor = revArrayFiltered[index];
       }
       else
       {
@@ -224,7 +350,7 @@ public class JMDiff
         index += chunk.getSize() - 1;
         if (index < revArrayFiltered.length)
         {
-          size = revArrayFiltered[index].lineNumber - anchor + 1;
+          size = revArrayFiltered[index] - anchor + 1;
         }
         /*
          * index += chunk.getSize(); if (index < revArrayFiltered.length) { size =
@@ -237,65 +363,77 @@ public class JMDiff
     }
   }
 
-  private JMString[] filter(Ignore ignore, Object[] array)
+  /**
+   * Remove the ignored characters from every line and intern what is left.
+   * Lines that are left empty are skipped. The characters of a line are read
+   * directly from the document (or the String) and the buffers are local, so
+   * no String is created per line and diffs can run concurrently.
+   */
+  private FilteredLines filter(Ignore ignore, Object[] array, JMSymbolTable symbolTable)
   {
-    List<JMString> result;
-    JMString jms;
-    int lineNumber;
+    FilteredLines result;
+    Segment segment;
+    Object o;
+    CharSequence line;
+    char[] outputLine;
+    int length;
+    int size;
 
-    synchronized (inputLine)
+    result = new FilteredLines();
+    result.ids = new int[array.length];
+    result.lineNumbers = new int[array.length];
+    size = 0;
+
+    segment = new Segment();
+    outputLine = new char[256];
+    for (int lineNumber = 0; lineNumber < array.length; lineNumber++)
     {
-      // System.out.println("> start");
-      result = new ArrayList<JMString>(array.length);
-      lineNumber = -1;
-      for (Object o : array)
+      o = array[lineNumber];
+
+      if (o instanceof AbstractBufferDocument.Line)
       {
-        lineNumber++;
-
-        // Workaround for compatibility bug (?) in java.
-        // If compiled with java11 and run on java8 this will throw a NoSuchMethodError
-        // if the cast is not there
-        CompareUtil.clear(inputLine);
-        inputLine.put(o.toString());
-        CompareUtil.removeIgnoredChars(inputLine, ignore, outputLine);
-        if (outputLine.remaining() == 0)
-        {
-          continue;
-        }
+        ((AbstractBufferDocument.Line) o).getChars(segment);
+        line = segment;
+      }
+      else if (o instanceof CharSequence)
+      {
+        line = (CharSequence) o;
+      }
+      else
+      {
+        line = o.toString();
+      }
 
-        jms = new JMString();
-        jms.s = outputLine.toString();
-        jms.lineNumber = lineNumber;
-        result.add(jms);
+      if (outputLine.length <= line.length())
+      {
+        outputLine = new char[line.length() * 2 + 1];
+      }
 
-        // System.out.println(" " + jms);
+      length = CompareUtil.removeIgnoredChars(line, ignore, outputLine);
+      if (length == 0)
+      {
+        continue;
       }
+
+      result.ids[size] = symbolTable.intern(outputLine, 0, length);
+      result.lineNumbers[size] = lineNumber;
+      size++;
     }
 
-    return result.toArray(new JMString[result.size()]);
+    result.ids = Arrays.copyOf(result.ids, size);
+    result.lineNumbers = Arrays.copyOf(result.lineNumbers, size);
+
+    return result;
   }
 
-  class JMString
+  /**
+   * The lines that are left after filtering.
+   */
+  static class FilteredLines
   {
-    String s;
-    int lineNumber;
-
-    @Override
-    public int hashCode()
-    {
-      return s.hashCode();
-    }
-
-    @Override
-    public boolean equals(Object o)
-    {
-      return s.equals(((JMString) o).s);
-    }
-
-    @Override
-    public String toString()
-    {
-      return "[" + lineNumber + "] " + s;
-    }
+    // The id of every line (See JMSymbolTable)
+    int[] ids;
+    // The index of every line in the unfiltered array
+    int[] lineNumbers;
   }
 }
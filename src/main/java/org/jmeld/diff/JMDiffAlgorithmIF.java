@@ -25,4 +25,11 @@ public interface JMDiffAlgorithmIF
   public JMRevision diff(Object[] orig,
       Object[] rev)
       throws JMeldException, MaxTimeExceededException;
+
+  /**
+   * Diff 2 sequences of id's (See JMSymbolTable). Equal id's are equal objects.
+   */
+  public JMRevision diff(int[] orig,
+      int[] rev)
+      throws JMeldException, MaxTimeExceededException;
 }
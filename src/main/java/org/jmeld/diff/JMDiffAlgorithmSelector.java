@@ -0,0 +1,265 @@
+/*
+   JMeld is a visual diff and merge tool.
+   Copyright (C) 2007  Kees Kuip
+   This library is free software; you can redistribute it and/or
+   modify it under the terms of the GNU Lesser General Public
+   License as published by the Free Software Foundation; either
+   version 2.1 of the License, or (at your option) any later version.
+   This library is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+   Lesser General Public License for more details.
+   You should have received a copy of the GNU Lesser General Public
+   License along with this library; if not, write to the Free Software
+   Foundation, Inc., 51 Franklin Street, Fifth Floor,
+   Boston, MA  02110-1301  USA
+ */
+package org.jmeld.diff;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Chooses the diff algorithm before the diff is executed. <br>
+ * The choice is based on statistics of the interned input: the size, the
+ * number of lines that both sides have in common (which gives a lower bound
+ * of the number of differences), the number of lines that are unique on
+ * both sides and an estimate of the number of differences. The estimate
+ * samples runs of lines (shingles) of the original and looks them up in a
+ * hashed set of all runs in the revised lines. Computing the statistics is
+ * linear in the size of the input.
+ */
+public class JMDiffAlgorithmSelector
+{
+  // Class variables:
+  // Myers is expected O(N+M+D^2). Use it only if that is cheap.
+  private static final long MYERS_BUDGET = 50000000L;
+  // Myers is used if at least this part of the lines are common (in percent)
+  private static final int MYERS_MIN_SIMILARITY = 99;
+  // PatienceDiff is used if at least this part of the lines are unique on both
+  // sides (in percent)
+  private static final int PATIENCE_MIN_UNIQUE = 25;
+  // The number of lines in a shingle. A changed line breaks this many
+  // shingles.
+  private static final int SHINGLE_LENGTH = 8;
+  // The maximum number of shingles of the original that are looked up.
+  private static final int SHINGLE_SAMPLES = 4096;
+  // Above this number of lines (orig + rev) the linear space algorithm is
+  // used instead of compare2's LCS.
+  private static final long LINEAR_SPACE_SIZE = 1000000L;
+  // In parallel mode the linear space algorithm is used above this number of
+  // lines because it can use all processors.
+  private static final long PARALLEL_SIZE = 100000L;
+
+  // Instance variables:
+  private MyersDiff myersDiff;
+  private Eclipse2Diff eclipse2Diff;
+  private PatienceDiff patienceDiff;
+  private LinearSpaceDiff linearSpaceDiff;
+  private boolean parallel;
+
+  public JMDiffAlgorithmSelector()
+  {
+    // MyersDiff is the fastest but can be very slow when 2 files
+    // are very different. If it takes too long the next algorithm is tried.
+    myersDiff = new MyersDiff();
+    myersDiff.checkMaxTime(true);
+
+    eclipse2Diff = new Eclipse2Diff();
+    patienceDiff = new PatienceDiff();
+    linearSpaceDiff = new LinearSpaceDiff();
+  }
+
+  /**
+   * Compare large inputs on all processors.
+   */
+  public void setParallel(boolean parallel)
+  {
+    this.parallel = parallel;
+    linearSpaceDiff.setParallel(parallel);
+  }
+
+  public boolean isParallel()
+  {
+    return parallel;
+  }
+
+  /**
+   * @param symbolCount
+   *          the number of different id's in orig and rev (See JMSymbolTable)
+   */
+  public Selection select(int[] orig,
+      int[] rev,
+      int symbolCount)
+  {
+    Selection selection;
+    int[] countOrig;
+    int[] countRev;
+    long total;
+    long common;
+    long unique;
+    long estimatedDifferences;
+    JMDiffAlgorithmIF general;
+
+    selection = new Selection();
+
+    total = orig.length + rev.length;
+    if (orig.length == 0 || rev.length == 0)
+    {
+      selection.reason = "one side is empty";
+      selection.add(eclipse2Diff);
+      return selection;
+    }
+
+    // Very large files: Peak memory should not depend on the number of
+    // differences.
+    general = total > (parallel ? PARALLEL_SIZE : LINEAR_SPACE_SIZE) ? linearSpaceDiff : eclipse2Diff;
+
+    countOrig = new int[symbolCount];
+    countRev = new int[symbolCount];
+    for (int id : orig)
+    {
+      countOrig[id]++;
+    }
+    for (int id : rev)
+    {
+      countRev[id]++;
+    }
+
+    common = 0;
+    unique = 0;
+    for (int id = 0; id < symbolCount; id++)
+    {
+      common += Math.min(countOrig[id], countRev[id]);
+      if (countOrig[id] == 1 && countRev[id] == 1)
+      {
+        unique++;
+      }
+    }
+
+    // Every line that is not common must be deleted or inserted. This is a
+    // lower bound that doesn't see lines that moved. The shingles do.
+    estimatedDifferences = Math.max(total - 2 * common,
+                                    estimateDifferences(orig,
+                                                        rev));
+
+    selection.reason = "size=" + total + ", common=" + common + ", unique=" + unique + ", differences~"
+                       + estimatedDifferences;
+
+    if (common * 100 >= MYERS_MIN_SIMILARITY * Math.max(orig.length, rev.length)
+        && estimatedDifferences * estimatedDifferences <= MYERS_BUDGET)
+    {
+      // Near-identical: fast path.
+      selection.add(myersDiff);
+      selection.add(general);
+    }
+    else if (common == 0 || unique * 100 >= PATIENCE_MIN_UNIQUE * Math.min(orig.length, rev.length))
+    {
+      // Totally different or rewritten: There are enough anchors.
+      selection.add(patienceDiff);
+      selection.add(general);
+    }
+    else
+    {
+      // Few unique lines (f.e. generated files): Myers with a bounded running
+      // time.
+      selection.add(general);
+    }
+
+    return selection;
+  }
+
+  /**
+   * Estimate the number of inserted and deleted lines by looking up a sample
+   * of the shingles of orig in the shingles of rev.
+   */
+  private long estimateDifferences(int[] orig,
+      int[] rev)
+  {
+    long[] revShingles;
+    int mask;
+    int step;
+    int samples;
+    int missing;
+    int hash;
+
+    if (orig.length < SHINGLE_LENGTH || rev.length < SHINGLE_LENGTH)
+    {
+      return 0;
+    }
+
+    // A bitset with 8 bits per shingle keeps false positives below ~12%
+    mask = Integer.highestOneBit(rev.length * 8 - 1) * 2 - 1;
+    revShingles = new long[(mask >>> 6) + 1];
+    for (int j = 0; j <= rev.length - SHINGLE_LENGTH; j++)
+    {
+      hash = shingleHash(rev,
+                         j) & mask;
+      revShingles[hash >>> 6] |= 1L << hash;
+    }
+
+    step = Math.max(1,
+                    (orig.length - SHINGLE_LENGTH + 1) / SHINGLE_SAMPLES);
+    samples = 0;
+    missing = 0;
+    for (int i = 0; i <= orig.length - SHINGLE_LENGTH; i += step)
+    {
+      hash = shingleHash(orig,
+                         i) & mask;
+      samples++;
+      if ((revShingles[hash >>> 6] & (1L << hash)) == 0)
+      {
+        missing++;
+      }
+    }
+
+    // Every changed line breaks SHINGLE_LENGTH shingles and it will be
+    // deleted and inserted.
+    return 2L * orig.length * missing / samples / SHINGLE_LENGTH;
+  }
+
+  private static int shingleHash(int[] ids,
+      int start)
+  {
+    int hash;
+
+    hash = 0;
+    for (int i = start; i < start + SHINGLE_LENGTH; i++)
+    {
+      hash = 31 * hash + ids[i];
+    }
+
+    return hash ^ (hash >>> 16);
+  }
+
+  /**
+   * The algorithms to try in order. The next algorithm is only used if the
+   * previous one took too much time.
+   */
+  public static class Selection
+  {
+    private List<JMDiffAlgorithmIF> algorithms = new ArrayList<JMDiffAlgorithmIF>();
+    private String reason;
+
+    private void add(JMDiffAlgorithmIF algorithm)
+    {
+      algorithms.add(algorithm);
+    }
+
+    public List<JMDiffAlgorithmIF> getAlgorithms()
+    {
+      return algorithms;
+    }
+
+    public String getReason()
+    {
+      return reason;
+    }
+
+    @Override
+    public String toString()
+    {
+      return algorithms.get(0).getClass().getSimpleName() + " [" + reason + "]";
+    }
+  }
+}
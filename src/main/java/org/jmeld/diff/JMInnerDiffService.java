@@ -0,0 +1,443 @@
+/*
+   JMeld is a visual diff and merge tool.
+   Copyright (C) 2007  Kees Kuip
+   This library is free software; you can redistribute it and/or
+   modify it under the terms of the GNU Lesser General Public
+   License as published by the Free Software Foundation; either
+   version 2.1 of the License, or (at your option) any later version.
+   This library is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+   Lesser General Public License for more details.
+   You should have received a copy of the GNU Lesser General Public
+   License along with this library; if not, write to the Free Software
+   Foundation, Inc., 51 Franklin Street, Fifth Floor,
+   Boston, MA  02110-1301  USA
+ */
+package org.jmeld.diff;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.jmeld.util.Ignore;
+import org.jmeld.util.TokenizerFactory;
+import org.jmeld.util.WordTokenizer;
+
+/**
+ * Computes the word differences within a changed chunk (the change revision of
+ * a JMDelta). <br>
+ * Requests are executed on 1 background thread. The last request is executed
+ * first because it is most likely a chunk that is visible right now. The
+ * oldest requests are dropped if too many are waiting. The results are cached
+ * by the content of the chunks so an unchanged chunk is never compared twice,
+ * even after a new diff of the whole file.
+ */
+public class JMInnerDiffService
+{
+  // Class variables:
+  private static JMInnerDiffService instance = new JMInnerDiffService();
+  // The maximum number of change revisions in the cache.
+  private static final int CACHE_SIZE = 2000;
+  // The maximum number of requests that wait to be executed.
+  private static final int QUEUE_SIZE = 500;
+
+  // Instance variables:
+  private final ExecutorService executor;
+  private final Map<Key, JMRevision> cache;
+  private final Map<Key, List<Listener>> pending;
+
+  private JMInnerDiffService()
+  {
+    executor = new ThreadPoolExecutor(1,
+                                      1,
+                                      0L,
+                                      TimeUnit.MILLISECONDS,
+                                      new LastInFirstOutQueue(),
+                                      runnable -> {
+                                        Thread thread;
+
+                                        thread = new Thread(runnable,
+                                                            "JMeld inner diff");
+                                        thread.setDaemon(true);
+                                        return thread;
+                                      });
+
+    cache = new LinkedHashMap<Key, JMRevision>(16,
+                                               0.75f,
+                                               true)
+    {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Key, JMRevision> eldest)
+      {
+        return size() > CACHE_SIZE;
+      }
+    };
+
+    pending = new HashMap<Key, List<Listener>>();
+  }
+
+  public static JMInnerDiffService getInstance()
+  {
+    return instance;
+  }
+
+  /**
+   * Compare the chunks on the calling thread if the result is not in the
+   * cache.
+   *
+   * @return the change revision or null if the chunks could not be compared.
+   */
+  public JMRevision getChangeRevision(String originalString,
+      String revisedString,
+      Ignore ignore)
+  {
+    Key key;
+    JMRevision result;
+
+    key = new Key(originalString,
+                  revisedString,
+                  ignore);
+    synchronized (this)
+    {
+      if (cache.containsKey(key))
+      {
+        return cache.get(key);
+      }
+    }
+
+    result = createChangeRevision(originalString,
+                                  revisedString,
+                                  ignore);
+    synchronized (this)
+    {
+      cache.put(key,
+                result);
+    }
+
+    return result;
+  }
+
+  /**
+   * Compare the chunks in the background. <br>
+   * The listener is called immediately (on the calling thread) if the result
+   * is in the cache. Otherwise it is called on the background thread.
+   */
+  public void requestChangeRevision(String originalString,
+      String revisedString,
+      Ignore ignore,
+      Listener listener)
+  {
+    Key key;
+    JMRevision result;
+    List<Listener> listeners;
+
+    key = new Key(originalString,
+                  revisedString,
+                  ignore);
+    synchronized (this)
+    {
+      if (!cache.containsKey(key))
+      {
+        // The same chunk is already requested (f.e. by the other side).
+        listeners = pending.get(key);
+        if (listeners != null)
+        {
+          listeners.add(listener);
+          return;
+        }
+
+        listeners = new ArrayList<Listener>();
+        listeners.add(listener);
+        pending.put(key,
+                    listeners);
+        executor.execute(new Request(key,
+                                     originalString,
+                                     revisedString,
+                                     ignore));
+        return;
+      }
+
+      result = cache.get(key);
+    }
+
+    listener.changeRevisionAvailable(result);
+  }
+
+  private void execute(Key key,
+      String originalString,
+      String revisedString,
+      Ignore ignore)
+  {
+    JMRevision result;
+    List<Listener> listeners;
+
+    result = getChangeRevision(originalString,
+                               revisedString,
+                               ignore);
+    synchronized (this)
+    {
+      listeners = pending.remove(key);
+    }
+
+    if (listeners != null)
+    {
+      for (Listener listener : listeners)
+      {
+        listener.changeRevisionAvailable(result);
+      }
+    }
+  }
+
+  private void drop(Key key)
+  {
+    List<Listener> listeners;
+
+    synchronized (this)
+    {
+      listeners = pending.remove(key);
+    }
+
+    if (listeners != null)
+    {
+      for (Listener listener : listeners)
+      {
+        listener.requestDropped();
+      }
+    }
+  }
+
+  private JMRevision createChangeRevision(String originalString,
+      String revisedString,
+      Ignore ignore)
+  {
+    List<String> o2;
+    List<String> r2;
+    JMRevision rev;
+    JMRevision rev2;
+    JMChunk o;
+    JMChunk r;
+    int anchor;
+    int size;
+    WordTokenizer wt;
+    int[] oIndex;
+    int[] rIndex;
+    int oAnchor;
+    int oLength;
+    int rAnchor;
+    int rLength;
+
+    try
+    {
+      wt = TokenizerFactory.getInnerDiffTokenizer();
+      o2 = wt.getTokens(originalString);
+      r2 = wt.getTokens(revisedString);
+
+      rev = new JMDiff().diff(o2,
+                              r2,
+                              ignore);
+
+      oIndex = new int[o2.size()];
+      for (int i = 0; i < o2.size(); i++)
+      {
+        oIndex[i] = o2.get(i).length();
+        if (i > 0)
+        {
+          oIndex[i] += oIndex[i - 1];
+        }
+      }
+
+      rIndex = new int[r2.size()];
+      for (int i = 0; i < r2.size(); i++)
+      {
+        rIndex[i] = r2.get(i).length();
+        if (i > 0)
+        {
+          rIndex[i] += rIndex[i - 1];
+        }
+      }
+
+      // The chunks of this revision are character offsets. There are no
+      // arrays of characters necessary (that would box every character).
+      rev2 = new JMRevision(null,
+                            null);
+      rev2.setIgnore(ignore);
+      for (JMDelta d : rev.getDeltas())
+      {
+        o = d.getOriginal();
+        r = d.getRevised();
+
+        anchor = o.getAnchor();
+        size = o.getSize();
+        oAnchor = anchor == 0 ? 0 : oIndex[anchor - 1];
+        oLength = size > 0 ? (oIndex[anchor + size - 1] - oAnchor) : 0;
+
+        anchor = r.getAnchor();
+        size = r.getSize();
+        rAnchor = anchor == 0 ? 0 : rIndex[anchor - 1];
+        rLength = size > 0 ? (rIndex[anchor + size - 1] - rAnchor) : 0;
+
+        rev2.add(new JMDelta(new JMChunk(oAnchor,
+                                         oLength),
+                             new JMChunk(rAnchor,
+                                         rLength)));
+      }
+
+      return rev2;
+    }
+    catch (Exception ex)
+    {
+      ex.printStackTrace();
+    }
+
+    return null;
+  }
+
+  /**
+   * Receives the result of a request.
+   */
+  public interface Listener
+  {
+    public void changeRevisionAvailable(JMRevision changeRevision);
+
+    /**
+     * The request was dropped before it was executed. It can be requested
+     * again.
+     */
+    public void requestDropped();
+  }
+
+  /**
+   * The content of both chunks. The hashes are compared before the strings.
+   */
+  private static class Key
+  {
+    private final String originalString;
+    private final String revisedString;
+    private final long originalHash;
+    private final long revisedHash;
+    private final int ignoreFlags;
+
+    Key(String originalString,
+        String revisedString,
+        Ignore ignore)
+    {
+      this.originalString = originalString;
+      this.revisedString = revisedString;
+      originalHash = hash(originalString);
+      revisedHash = hash(revisedString);
+      ignoreFlags = ignore == null ? 0 : ignore.getFlags();
+    }
+
+    /**
+     * 64 bit FNV-1a. Two different chunks almost never get the same hash so
+     * the strings are only compared if they are equal.
+     */
+    private static long hash(String s)
+    {
+      long hash;
+
+      hash = 0xcbf29ce484222325L;
+      for (int i = 0; i < s.length(); i++)
+      {
+        hash ^= s.charAt(i);
+        hash *= 0x100000001b3L;
+      }
+
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+      Key key;
+
+      if (!(o instanceof Key))
+      {
+        return false;
+      }
+
+      key = (Key) o;
+      return originalHash == key.originalHash && revisedHash == key.revisedHash
+             && ignoreFlags == key.ignoreFlags && originalString.equals(key.originalString)
+             && revisedString.equals(key.revisedString);
+    }
+
+    @Override
+    public int hashCode()
+    {
+      return (int) (originalHash ^ (originalHash >>> 32) ^ (revisedHash * 31));
+    }
+  }
+
+  private class Request
+      implements Runnable
+  {
+    private final Key key;
+    private final String originalString;
+    private final String revisedString;
+    private final Ignore ignore;
+
+    Request(Key key,
+        String originalString,
+        String revisedString,
+        Ignore ignore)
+    {
+      this.key = key;
+      this.originalString = originalString;
+      this.revisedString = revisedString;
+      this.ignore = ignore;
+    }
+
+    @Override
+    public void run()
+    {
+      execute(key,
+              originalString,
+              revisedString,
+              ignore);
+    }
+
+    void drop()
+    {
+      JMInnerDiffService.this.drop(key);
+    }
+  }
+
+  /**
+   * Executes the last request first. The oldest request is dropped if the
+   * queue is full.
+   */
+  private static class LastInFirstOutQueue
+      extends LinkedBlockingDeque<Runnable>
+  {
+    private static final long serialVersionUID = 1L;
+
+    LastInFirstOutQueue()
+    {
+      super(QUEUE_SIZE);
+    }
+
+    @Override
+    public boolean offer(Runnable runnable)
+    {
+      Runnable dropped;
+
+      while (!offerFirst(runnable))
+      {
+        dropped = pollLast();
+        if (dropped instanceof Request)
+        {
+          ((Request) dropped).drop();
+        }
+      }
+
+      return true;
+    }
+  }
+}
@@ -17,28 +17,34 @@
 package org.jmeld.diff;
 
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.Arrays;
 import java.util.List;
-import org.jmeld.util.DiffUtil;
 import org.jmeld.util.Ignore;
 
 public class JMRevision
 {
   // Class variables:
+  // Not enabled until it has been tested against a full diff.
   private static boolean incrementalUpdateActivated = false;
+  // The number of lines around an edit that are compared again. The line of a
+  // document event can be off by one.
+  private static final int INCREMENTAL_MARGIN = 3;
 
   // Instance variables:
   private Object[] orgArray;
   private Object[] revArray;
-  private LinkedList<JMDelta> deltaList;
+  // Sorted on the anchors of the chunks.
+  private ArrayList<JMDelta> deltaList;
   private Ignore ignore;
+  private String algorithm;
+  private JMDiff diff;
 
   public JMRevision(Object[] orgArray, Object[] revArray)
   {
     this.orgArray = orgArray;
     this.revArray = revArray;
 
-    deltaList = new LinkedList<JMDelta>();
+    deltaList = new ArrayList<JMDelta>();
 
     ignore = Ignore.NULL_IGNORE;
   }
@@ -53,6 +59,19 @@ public class JMRevision
     return ignore;
   }
 
+  void setAlgorithm(String algorithm)
+  {
+    this.algorithm = algorithm;
+  }
+
+  /**
+   * @return the name of the algorithm that created this revision.
+   */
+  public String getAlgorithm()
+  {
+    return algorithm;
+  }
+
   public void add(JMDelta delta)
   {
     deltaList.add(delta);
@@ -64,6 +83,15 @@ public class JMRevision
     return deltaList;
   }
 
+  /**
+   * @return false if update() with the edited lines always asks for a full
+   *         diff.
+   */
+  public static boolean isIncrementalUpdateActivated()
+  {
+    return incrementalUpdateActivated;
+  }
+
   public void update(Object[] oArray, Object[] rArray)
   {
     this.orgArray = oArray;
@@ -73,217 +101,273 @@ public class JMRevision
   /**
    * The arrays have changed! Try to change the delta's incrementally. This solves
    * a performance issue while editing one of the array's.
+   *
+   * @param original      true if the original array has been edited.
+   * @param startLine     the first line of the edit.
+   * @param numberOfLines the number of lines inserted (or deleted if negative).
+   * @return false if the revision could not be changed incrementally. A full
+   *         diff is necessary.
    */
   public boolean update(Object[] oArray, Object[] rArray, boolean original, int startLine, int numberOfLines)
   {
+    int oldOrgSize;
+    int oldRevSize;
+
+    oldOrgSize = getOrgSize();
+    oldRevSize = getRevSize();
+
     update(oArray, rArray);
+
+    // Only one side can be edited at a time.
+    if (original)
+    {
+      if (oldOrgSize + numberOfLines != getOrgSize() || oldRevSize != getRevSize())
+      {
+        return false;
+      }
+    }
+    else
+    {
+      if (oldRevSize + numberOfLines != getRevSize() || oldOrgSize != getOrgSize())
+      {
+        return false;
+      }
+    }
+
     return incrementalUpdate(original, startLine, numberOfLines);
   }
 
+  /**
+   * Compare a window around the edit again. <br>
+   * The window is widened until it doesn't cut through a delta. Above the
+   * window nothing changed. Below the window the lines are the same as before
+   * but moved numberOfLines lines. So only the delta's in the window are
+   * compared again. Moving the delta's below the window and replacing the
+   * delta's in the window is still O(number of delta's).
+   */
   private boolean incrementalUpdate(boolean original, int startLine, int numberOfLines)
   {
+    int size;
+    int editedSize;
+    int first;
+    int last;
+    int start;
+    int end;
+    int otherStart;
+    int otherEnd;
+    Object[] editedArray;
+    Object[] otherArray;
+    Object[] editedWindow;
+    Object[] otherWindow;
+    JMRevision windowRevision;
+    List<JMDelta> windowDeltas;
     JMChunk chunk;
-    List<JMDelta> deltaListToRemove;
-    List<JMChunk> chunkListToChange;
-    int endLine;
-    int orgStartLine;
-    int orgEndLine;
-    int revStartLine;
-    int revEndLine;
-    JMRevision deltaRevision;
-    int index;
-    Object[] orgArrayDelta;
-    Object[] revArrayDelta;
-    JMDelta firstDelta;
-    int length;
-
-    // It is not yet prroduction ready !
+
     if (!incrementalUpdateActivated)
     {
       return false;
     }
 
-    if (original)
+    editedArray = original ? orgArray : revArray;
+    otherArray = original ? revArray : orgArray;
+    if (editedArray == null || otherArray == null)
     {
-      orgStartLine = startLine;
-      orgEndLine = startLine + (numberOfLines < 0 ? 0 : numberOfLines) + 1;
-      revStartLine = DiffUtil.getRevisedLine(this, startLine);
-      revEndLine = DiffUtil.getRevisedLine(this, startLine + (numberOfLines > 0 ? 0 : -numberOfLines)) + 1;
+      return false;
     }
-    else
+
+    // The size of the edited array before the edit.
+    editedSize = editedArray.length - numberOfLines;
+
+    // The edited lines in the coordinates before the edit.
+    start = Math.max(0, startLine - INCREMENTAL_MARGIN);
+    end = Math.min(editedSize, startLine + Math.max(0, -numberOfLines) + 1 + INCREMENTAL_MARGIN);
+    if (start > end)
     {
-      revStartLine = startLine;
-      revEndLine = startLine + (numberOfLines < 0 ? 0 : numberOfLines) + 1;
-      orgStartLine = DiffUtil.getOriginalLine(this, startLine);
-      orgEndLine = DiffUtil.getOriginalLine(this, startLine + (numberOfLines > 0 ? 0 : -numberOfLines)) + 1;
+      return false;
     }
 
-    deltaListToRemove = new ArrayList<JMDelta>();
-    chunkListToChange = new ArrayList<JMChunk>();
+    size = deltaList.size();
+    first = findDeltaIndex(original, start);
 
-    // Find the delta's of this change!
-    endLine = startLine + Math.abs(numberOfLines);
-    for (JMDelta delta : deltaList)
+    // Widen the window with every delta that touches it.
+    if (first < size)
     {
-      chunk = original ? delta.getOriginal() : delta.getRevised();
+      start = Math.min(start, getAnchor(first, original));
+    }
+    while (first > 0 && getEnd(first - 1, original) >= start)
+    {
+      first--;
+      start = Math.min(start, getAnchor(first, original));
+    }
 
-      // The change is above this Chunk! It will not change!
-      if (endLine < chunk.getAnchor() - 5)
-      {
-        continue;
-      }
+    last = first;
+    while (last < size && getAnchor(last, original) <= end)
+    {
+      end = Math.max(end, getEnd(last, original));
+      last++;
+    }
 
-      // The change is below this chunk! The anchor of the chunk will be changed!
-      if (startLine > chunk.getAnchor() + chunk.getSize() + 5)
-      {
-        // No need to change chunks if the numberoflines haven't changed.
-        if (numberOfLines != 0)
-        {
-          chunkListToChange.add(chunk);
-        }
-        continue;
-      }
+    // Start and end are not inside a delta: the lines on the other side are
+    // at the same distance from the previous delta.
+    otherStart = toOther(first - 1, start, original);
+    otherEnd = toOther(last - 1, end, original);
+    if (otherStart < 0 || otherEnd > otherArray.length || otherStart > otherEnd
+        || end + numberOfLines < start || end + numberOfLines > editedArray.length)
+    {
+      return false;
+    }
 
-      // This chunk is affected by the change. It will eventually be removed.
-      // The lines that are affected will be compared and they will insert
-      // new delta's if necessary.
-      deltaListToRemove.add(delta);
+    // Copy with Arrays.copyOfRange so the type of the array is kept. JMDiff
+    // checks the type to see if it has to filter.
+    editedWindow = Arrays.copyOfRange(editedArray, start, end + numberOfLines);
+    otherWindow = Arrays.copyOfRange(otherArray, otherStart, otherEnd);
 
-      // Revise the start and end if there are overlapping chunks.
-      chunk = delta.getOriginal();
-      if (chunk.getAnchor() < orgStartLine)
-      {
-        orgStartLine = chunk.getAnchor();
-      }
-      if (chunk.getAnchor() + chunk.getSize() > orgEndLine)
+    try
+    {
+      if (diff == null)
       {
-        orgEndLine = chunk.getAnchor() + chunk.getSize();
+        diff = new JMDiff();
       }
 
-      chunk = delta.getRevised();
-      if (chunk.getAnchor() < revStartLine)
+      if (original)
       {
-        revStartLine = chunk.getAnchor();
+        windowRevision = diff.diff(editedWindow, otherWindow, ignore);
       }
-      if (chunk.getAnchor() + chunk.getSize() > revEndLine)
+      else
       {
-        revEndLine = chunk.getAnchor() + chunk.getSize();
+        windowRevision = diff.diff(otherWindow, editedWindow, ignore);
       }
     }
-
-    orgStartLine = orgStartLine < 0 ? 0 : orgStartLine;
-    revStartLine = revStartLine < 0 ? 0 : revStartLine;
-
-    // Check with 'max' if we are dealing with the end of the file.
-    length = Math.min(orgArray.length, orgEndLine) - orgStartLine;
-    orgArrayDelta = new Object[length];
-    System.arraycopy(orgArray, orgStartLine, orgArrayDelta, 0, orgArrayDelta.length);
-
-    length = Math.min(revArray.length, revEndLine) - revStartLine;
-    revArrayDelta = new Object[length];
-    System.arraycopy(revArray, revStartLine, revArrayDelta, 0, revArrayDelta.length);
-
-    try
-    {
-      deltaRevision = new JMDiff().diff(orgArrayDelta, revArrayDelta, ignore);
-    }
     catch (Exception ex)
     {
-      ex.printStackTrace();
+      // The caller will do a full diff.
       return false;
     }
 
-    // OK, Make the changes now
-    if (!deltaListToRemove.isEmpty())
+    windowDeltas = windowRevision.getDeltas();
+    for (JMDelta windowDelta : windowDeltas)
     {
-      for (JMDelta delta : deltaListToRemove)
-      {
-        deltaList.remove(delta);
-      }
+      chunk = windowDelta.getOriginal();
+      chunk.setAnchor(chunk.getAnchor() + (original ? start : otherStart));
+
+      chunk = windowDelta.getRevised();
+      chunk.setAnchor(chunk.getAnchor() + (original ? otherStart : start));
+
+      windowDelta.setRevision(this);
     }
 
-    for (JMChunk c : chunkListToChange)
+    // The delta's below the window are moved numberOfLines lines.
+    if (numberOfLines != 0)
     {
-      c.setAnchor(c.getAnchor() + numberOfLines);
+      for (int i = last; i < size; i++)
+      {
+        chunk = original ? deltaList.get(i).getOriginal() : deltaList.get(i).getRevised();
+        chunk.setAnchor(chunk.getAnchor() + numberOfLines);
+      }
     }
 
-    // Prepare the diff's to be copied into this revision.
-    for (JMDelta delta : deltaRevision.deltaList)
-    {
-      chunk = delta.getOriginal();
-      chunk.setAnchor(chunk.getAnchor() + orgStartLine);
+    deltaList.subList(first, last).clear();
+    deltaList.addAll(first, windowDeltas);
 
-      chunk = delta.getRevised();
-      chunk.setAnchor(chunk.getAnchor() + revStartLine);
-    }
+    return true;
+  }
 
-    // Find insertion index point
-    if (deltaRevision.deltaList.size() > 0)
-    {
-      firstDelta = deltaRevision.deltaList.get(0);
-      index = 0;
-      for (JMDelta delta : deltaList)
-      {
-        if (delta.getOriginal().getAnchor() > firstDelta.getOriginal().getAnchor())
-        {
-          break;
-        }
+  private int getAnchor(int index, boolean original)
+  {
+    JMDelta delta;
 
-        index++;
-      }
+    delta = deltaList.get(index);
+    return original ? delta.getOriginal().getAnchor() : delta.getRevised().getAnchor();
+  }
 
-      for (JMDelta diffDelta : deltaRevision.deltaList)
-      {
-        diffDelta.setRevision(this);
-        deltaList.add(index, diffDelta);
-        index++;
-      }
+  private int getEnd(int index, boolean original)
+  {
+    JMDelta delta;
+
+    delta = deltaList.get(index);
+    return getAnchor(index, original) + (original ? delta.getOriginal().getSize() : delta.getRevised().getSize());
+  }
+
+  /**
+   * Translate a line that is not inside a delta to the other side.
+   *
+   * @param previous the index of the last delta before the line (or -1)
+   */
+  private int toOther(int previous, int line, boolean original)
+  {
+    if (previous < 0)
+    {
+      return line;
     }
 
-    return true;
+    return line - getEnd(previous, original) + getEnd(previous, !original);
   }
 
-  private void insert(JMDelta delta)
+  /**
+   * Find the first delta that ends at or after a line. This is a binary
+   * search: the delta's are sorted on the anchors of both chunks.
+   *
+   * @param original true if line is a line of the original array.
+   * @return the index of the delta in getDeltas() or the number of delta's if
+   *         all delta's end before the line.
+   */
+  public int findDeltaIndex(boolean original, int line)
   {
-    int index;
-    int anchor;
+    int low;
+    int high;
+    int middle;
 
-    index = 0;
-    anchor = delta.getOriginal().getAnchor();
-    for (JMDelta d : deltaList)
+    low = 0;
+    high = deltaList.size();
+    while (low < high)
     {
-      if (d.getOriginal().getAnchor() > anchor)
+      middle = (low + high) >>> 1;
+      if (getEnd(middle, original) < line)
       {
-        deltaList.add(index, delta);
-        return;
+        low = middle + 1;
+      }
+      else
+      {
+        high = middle;
       }
-
-      index++;
     }
 
-    deltaList.add(delta);
+    return low;
   }
 
-  private JMDelta findDelta(boolean original, int anchor, int size)
+  /**
+   * Find the last delta that starts at or before a line (binary search).
+   *
+   * @param original true if line is a line of the original array.
+   * @return the delta or null if there is no delta before the line.
+   */
+  public JMDelta findPreviousDelta(boolean original, int line)
   {
-    JMChunk chunk;
+    int low;
+    int high;
+    int middle;
 
-    size = size == 0 ? 1 : size;
-    for (JMDelta delta : deltaList)
+    low = 0;
+    high = deltaList.size();
+    while (low < high)
     {
-      chunk = original ? delta.getOriginal() : delta.getRevised();
-      if (anchor >= chunk.getAnchor() && anchor <= chunk.getAnchor() + chunk.getSize())
+      middle = (low + high) >>> 1;
+      if (getAnchor(middle, original) <= line)
       {
-        return delta;
+        low = middle + 1;
       }
-
-      if (anchor + size >= chunk.getAnchor() && anchor + size <= chunk.getAnchor() + chunk.getSize())
+      else
       {
-        return delta;
+        high = middle;
       }
     }
 
-    return null;
+    if (low == 0)
+    {
+      return null;
+    }
+
+    return deltaList.get(low - 1);
   }
 
   public int getOrgSize()
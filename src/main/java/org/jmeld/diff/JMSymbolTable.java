@@ -0,0 +1,238 @@
+/*
+   JMeld is a visual diff and merge tool.
+   Copyright (C) 2007  Kees Kuip
+   This library is free software; you can redistribute it and/or
+   modify it under the terms of the GNU Lesser General Public
+   License as published by the Free Software Foundation; either
+   version 2.1 of the License, or (at your option) any later version.
+   This library is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+   Lesser General Public License for more details.
+   You should have received a copy of the GNU Lesser General Public
+   License along with this library; if not, write to the Free Software
+   Foundation, Inc., 51 Franklin Street, Fifth Floor,
+   Boston, MA  02110-1301  USA
+ */
+package org.jmeld.diff;
+
+import java.util.Arrays;
+
+/**
+ * Maps objects (lines, tokens, ...) to dense integer id's. <br>
+ * Equal objects get the same id. Both sides of a diff are interned in the same
+ * table so the diff algorithms only have to compare integers. Every object is
+ * hashed exactly once and equals() is only called if 2 hashes are the same.
+ * <br>
+ * Characters can be interned without creating a String first. A String is
+ * only created for the first occurrence of a symbol. Interning a String or the
+ * same characters results in the same id.
+ */
+public class JMSymbolTable
+{
+  // Instance variables:
+  private Object[] symbols;
+  private int[] symbolHashes;
+  // Open addressing: a slot contains (id + 1) or 0 if the slot is empty.
+  private int[] slots;
+  private int size;
+
+  public JMSymbolTable()
+  {
+    this(16);
+  }
+
+  public JMSymbolTable(int expectedSize)
+  {
+    int capacity;
+
+    capacity = 16;
+    while (capacity < expectedSize * 2)
+    {
+      capacity <<= 1;
+    }
+
+    slots = new int[capacity];
+    symbols = new Object[Math.max(expectedSize, 16)];
+    symbolHashes = new int[symbols.length];
+  }
+
+  /**
+   * Intern all objects in an array.
+   *
+   * @return the id's of the objects in the same order as the array.
+   */
+  public int[] intern(Object[] objects)
+  {
+    int[] result;
+
+    result = new int[objects.length];
+    for (int i = 0; i < objects.length; i++)
+    {
+      result[i] = intern(objects[i]);
+    }
+
+    return result;
+  }
+
+  /**
+   * Intern one object.
+   *
+   * @return the id of the object. The id's are numbered 0..size()-1.
+   */
+  public int intern(Object o)
+  {
+    int hash;
+    int mask;
+    int slot;
+    int id;
+
+    hash = o == null ? 0 : spread(o.hashCode());
+    mask = slots.length - 1;
+    for (slot = hash & mask; slots[slot] != 0; slot = (slot + 1) & mask)
+    {
+      id = slots[slot] - 1;
+      if (symbolHashes[id] == hash && equals(symbols[id], o))
+      {
+        return id;
+      }
+    }
+
+    return add(slot, hash, o);
+  }
+
+  /**
+   * Intern the characters chars[offset, offset + length).
+   *
+   * @return the id of the characters. The id's are numbered 0..size()-1.
+   */
+  public int intern(char[] chars, int offset, int length)
+  {
+    int hash;
+    int mask;
+    int slot;
+    int id;
+
+    // Same hash as String.hashCode()
+    hash = 0;
+    for (int i = offset; i < offset + length; i++)
+    {
+      hash = 31 * hash + chars[i];
+    }
+    hash = spread(hash);
+
+    mask = slots.length - 1;
+    for (slot = hash & mask; slots[slot] != 0; slot = (slot + 1) & mask)
+    {
+      id = slots[slot] - 1;
+      if (symbolHashes[id] == hash && contentEquals(symbols[id], chars, offset, length))
+      {
+        return id;
+      }
+    }
+
+    return add(slot, hash, new String(chars, offset, length));
+  }
+
+  /**
+   * @return the object that is the representative of this id.
+   */
+  public Object getSymbol(int id)
+  {
+    return symbols[id];
+  }
+
+  /**
+   * @return the number of distinct objects in this table.
+   */
+  public int size()
+  {
+    return size;
+  }
+
+  private int add(int slot, int hash, Object o)
+  {
+    int id;
+
+    id = size++;
+    if (id == symbols.length)
+    {
+      symbols = Arrays.copyOf(symbols, id * 2);
+      symbolHashes = Arrays.copyOf(symbolHashes, id * 2);
+    }
+
+    symbols[id] = o;
+    symbolHashes[id] = hash;
+    slots[slot] = id + 1;
+
+    // Keep the load factor below 0.5
+    if (size * 2 > slots.length)
+    {
+      rehash();
+    }
+
+    return id;
+  }
+
+  private void rehash()
+  {
+    int mask;
+    int slot;
+
+    slots = new int[slots.length * 2];
+    mask = slots.length - 1;
+    for (int id = 0; id < size; id++)
+    {
+      for (slot = symbolHashes[id] & mask; slots[slot] != 0; slot = (slot + 1) & mask)
+      {
+      }
+      slots[slot] = id + 1;
+    }
+  }
+
+  private static int spread(int hash)
+  {
+    return hash ^ (hash >>> 16);
+  }
+
+  private static boolean contentEquals(Object symbol, char[] chars, int offset, int length)
+  {
+    CharSequence s;
+
+    if (!(symbol instanceof CharSequence))
+    {
+      return false;
+    }
+
+    s = (CharSequence) symbol;
+    if (s.length() != length)
+    {
+      return false;
+    }
+
+    for (int i = 0; i < length; i++)
+    {
+      if (s.charAt(i) != chars[offset + i])
+      {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  private static boolean equals(Object o1, Object o2)
+  {
+    if (o1 == o2)
+    {
+      return true;
+    }
+
+    if (o1 == null || o2 == null)
+    {
+      return false;
+    }
+
+    return o1.equals(o2);
+  }
+}
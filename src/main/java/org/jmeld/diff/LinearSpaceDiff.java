@@ -0,0 +1,546 @@
+/*
+   JMeld is a visual diff and merge tool.
+   Copyright (C) 2007  Kees Kuip
+   This library is free software; you can redistribute it and/or
+   modify it under the terms of the GNU Lesser General Public
+   License as published by the Free Software Foundation; either
+   version 2.1 of the License, or (at your option) any later version.
+   This library is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+   Lesser General Public License for more details.
+   You should have received a copy of the GNU Lesser General Public
+   License along with this library; if not, write to the Free Software
+   Foundation, Inc., 51 Franklin Street, Fifth Floor,
+   Boston, MA  02110-1301  USA
+ */
+package org.jmeld.diff;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import org.jmeld.JMeldException;
+
+/**
+ * Myers' divide and conquer algorithm in linear space. <br>
+ * The middle snake of a region splits it in 2 regions that are compared
+ * independently. The result is a flag per line that tells if the line is
+ * inserted or deleted (like GNU diff). <br>
+ * Memory: 2 vectors of furthest reaching paths (allocated once), 1 flag per
+ * line and a stack of pending regions. This is O(N+M), independent of the
+ * number of differences. jrcs' MyersDiff keeps a path node per step which is
+ * O(D^2). <br>
+ * In parallel mode the 2 regions of a split are compared in a ForkJoinPool if
+ * they are large enough. Every region is split in the same way as in
+ * sequential mode, so the result is identical.
+ */
+public class LinearSpaceDiff
+    extends AbstractJMDiffAlgorithm
+{
+  // Class variables:
+  // The value of N*M when to start bounding the run time (See compare2 LCS)
+  private static final double TOO_LONG = 100000000.0;
+  // Regions with less lines (orig + rev) are not split over threads.
+  private static final int PARALLEL_THRESHOLD = 20000;
+
+  // Instance variables:
+  private boolean parallel;
+
+  public LinearSpaceDiff()
+  {
+  }
+
+  public void setParallel(boolean parallel)
+  {
+    this.parallel = parallel;
+  }
+
+  public boolean isParallel()
+  {
+    return parallel;
+  }
+
+  public JMRevision diff(int[] orig,
+      int[] rev)
+      throws JMeldException
+  {
+    JMRevision result;
+    Comparison comparison;
+
+    result = createRevision(orig,
+                            rev);
+
+    comparison = new Comparison(orig,
+                                rev);
+    if (parallel && orig.length + rev.length >= PARALLEL_THRESHOLD)
+    {
+      ForkJoinPool.commonPool().invoke(comparison.new CompareTask(0,
+                                                                  orig.length,
+                                                                  0,
+                                                                  rev.length));
+    }
+    else
+    {
+      comparison.new Worker().compare(0,
+                                      orig.length,
+                                      0,
+                                      rev.length);
+    }
+
+    return comparison.buildRevision(result);
+  }
+
+  static class Comparison
+  {
+    private final int[] a;
+    private final int[] b;
+    // changedA[i] is true if a[i] is deleted, changedB[j] if b[j] is inserted.
+    // Regions never overlap so threads never write the same element.
+    private final boolean[] changedA;
+    private final boolean[] changedB;
+    // The maximum number of differences a middle snake search will look for
+    // before it settles for the furthest reaching path.
+    private final int maxDifferences;
+
+    Comparison(int[] a,
+        int[] b)
+    {
+      int max;
+
+      this.a = a;
+      this.b = b;
+
+      changedA = new boolean[a.length];
+      changedB = new boolean[b.length];
+
+      max = (a.length + b.length + 1) / 2;
+      if ((double) a.length * (double) b.length > TOO_LONG)
+      {
+        // Limit the running time to D^1.5 for very long sequences.
+        maxDifferences = Math.max(256,
+                                  (int) Math.sqrt(max));
+      }
+      else
+      {
+        maxDifferences = max;
+      }
+    }
+
+    /**
+     * Compares regions on one thread. The vectors of the furthest reaching
+     * paths are reused for every region.
+     */
+    class Worker
+    {
+      private int[] forward;
+      private int[] backward;
+
+      /**
+       * Compare the region a[aStart, aEnd) with b[bStart, bEnd) and all the
+       * regions it is split into.
+       */
+      void compare(int aStart,
+          int aEnd,
+          int bStart,
+          int bEnd)
+      {
+        int[] stack;
+        int size;
+        long split;
+        int aSplit;
+        int bSplit;
+
+        // Pending regions (4 int's per region). Regions are independent, so
+        // the order in which they are compared doesn't matter.
+        stack = new int[64];
+        size = 0;
+
+        stack[size++] = aStart;
+        stack[size++] = aEnd;
+        stack[size++] = bStart;
+        stack[size++] = bEnd;
+        while (size > 0)
+        {
+          bEnd = stack[--size];
+          bStart = stack[--size];
+          aEnd = stack[--size];
+          aStart = stack[--size];
+
+          // Common prefix and suffix are never part of a change.
+          while (aStart < aEnd && bStart < bEnd && a[aStart] == b[bStart])
+          {
+            aStart++;
+            bStart++;
+          }
+
+          while (aStart < aEnd && bStart < bEnd && a[aEnd - 1] == b[bEnd - 1])
+          {
+            aEnd--;
+            bEnd--;
+          }
+
+          if (aStart == aEnd || bStart == bEnd)
+          {
+            markChanged(aStart,
+                        aEnd,
+                        bStart,
+                        bEnd);
+            continue;
+          }
+
+          split = findSplit(aStart,
+                            aEnd,
+                            bStart,
+                            bEnd);
+          if (split < 0)
+          {
+            markChanged(aStart,
+                        aEnd,
+                        bStart,
+                        bEnd);
+            continue;
+          }
+
+          aSplit = (int) (split >>> 32);
+          bSplit = (int) split;
+
+          if (size + 8 > stack.length)
+          {
+            stack = Arrays.copyOf(stack,
+                                  stack.length * 2);
+          }
+
+          stack[size++] = aStart;
+          stack[size++] = aSplit;
+          stack[size++] = bStart;
+          stack[size++] = bSplit;
+
+          stack[size++] = aSplit;
+          stack[size++] = aEnd;
+          stack[size++] = bSplit;
+          stack[size++] = bEnd;
+        }
+      }
+
+      /**
+       * Find the point where the middle snake of the region starts. The first
+       * and last lines of the region are different (prefix and suffix are
+       * removed).
+       *
+       * @return (aSplit << 32 | bSplit) or -1 if the region cannot be split
+       *         and should be considered as one change.
+       */
+      long findSplit(int aStart,
+          int aEnd,
+          int bStart,
+          int bEnd)
+      {
+        int n;
+        int m;
+        int max;
+        int offset;
+        int delta;
+        boolean odd;
+        int limit;
+        int kForwardStart;
+        int kForwardEnd;
+        int kBackwardStart;
+        int kBackwardEnd;
+        int x;
+        int y;
+        int xBackward;
+        int xForward;
+        int yForward;
+        int kOffset;
+        int bestX;
+        int bestY;
+
+        n = aEnd - aStart;
+        m = bEnd - bStart;
+        max = (n + m + 1) / 2;
+        offset = max + 1;
+        delta = n - m;
+        // If delta is odd the paths overlap while extending the forward path.
+        odd = (delta & 1) != 0;
+        limit = Math.min(max,
+                         maxDifferences);
+
+        // forward[offset + k] is the furthest x on diagonal k (x - y = k) from
+        // the start. backward[offset + k] is the furthest distance from the end
+        // on diagonal k of the reversed region.
+        if (forward == null || forward.length < 2 * offset + 1)
+        {
+          forward = new int[2 * offset + 1];
+          backward = new int[2 * offset + 1];
+        }
+        Arrays.fill(forward,
+                    0,
+                    2 * offset + 1,
+                    -1);
+        Arrays.fill(backward,
+                    0,
+                    2 * offset + 1,
+                    -1);
+        forward[offset + 1] = 0;
+        backward[offset + 1] = 0;
+
+        kForwardStart = 0;
+        kForwardEnd = 0;
+        kBackwardStart = 0;
+        kBackwardEnd = 0;
+        bestX = 0;
+        bestY = 0;
+        for (int d = 0; d < limit; d++)
+        {
+          for (int k = -d + kForwardStart; k <= d - kForwardEnd; k += 2)
+          {
+            kOffset = offset + k;
+            if (k == -d || (k != d && forward[kOffset - 1] < forward[kOffset + 1]))
+            {
+              x = forward[kOffset + 1];
+            }
+            else
+            {
+              x = forward[kOffset - 1] + 1;
+            }
+            y = x - k;
+
+            while (x < n && y < m && a[aStart + x] == b[bStart + y])
+            {
+              x++;
+              y++;
+            }
+            forward[kOffset] = x;
+
+            if (x > n)
+            {
+              // Ran off the right of the graph.
+              kForwardEnd += 2;
+            }
+            else if (y > m)
+            {
+              // Ran off the bottom of the graph.
+              kForwardStart += 2;
+            }
+            else
+            {
+              if (x + y > bestX + bestY)
+              {
+                bestX = x;
+                bestY = y;
+              }
+
+              if (odd)
+              {
+                kOffset = offset + delta - k;
+                if (kOffset >= 0 && kOffset < 2 * offset + 1 && backward[kOffset] != -1)
+                {
+                  xBackward = n - backward[kOffset];
+                  if (x >= xBackward)
+                  {
+                    return split(aStart + x,
+                                 bStart + y);
+                  }
+                }
+              }
+            }
+          }
+
+          for (int k = -d + kBackwardStart; k <= d - kBackwardEnd; k += 2)
+          {
+            kOffset = offset + k;
+            if (k == -d || (k != d && backward[kOffset - 1] < backward[kOffset + 1]))
+            {
+              x = backward[kOffset + 1];
+            }
+            else
+            {
+              x = backward[kOffset - 1] + 1;
+            }
+            y = x - k;
+
+            while (x < n && y < m && a[aEnd - x - 1] == b[bEnd - y - 1])
+            {
+              x++;
+              y++;
+            }
+            backward[kOffset] = x;
+
+            if (x > n)
+            {
+              kBackwardEnd += 2;
+            }
+            else if (y > m)
+            {
+              kBackwardStart += 2;
+            }
+            else if (!odd)
+            {
+              kOffset = offset + delta - k;
+              if (kOffset >= 0 && kOffset < 2 * offset + 1 && forward[kOffset] != -1)
+              {
+                xForward = forward[kOffset];
+                yForward = xForward - (kOffset - offset);
+
+                if (xForward >= n - x)
+                {
+                  return split(aStart + xForward,
+                               bStart + yForward);
+                }
+              }
+            }
+          }
+        }
+
+        // Too expensive: split at the furthest reaching forward path. This is
+        // not the minimal result but it is a correct one.
+        if (bestX + bestY == 0 || (bestX == n && bestY == m))
+        {
+          return -1;
+        }
+
+        return split(aStart + bestX,
+                     bStart + bestY);
+      }
+    }
+
+    /**
+     * Compares a region in a ForkJoinPool. Large regions are split and both
+     * parts are compared in parallel. Small regions are compared by a Worker.
+     */
+    class CompareTask
+        extends RecursiveAction
+    {
+      private static final long serialVersionUID = 1L;
+
+      private int aStart;
+      private int aEnd;
+      private int bStart;
+      private int bEnd;
+
+      CompareTask(int aStart,
+          int aEnd,
+          int bStart,
+          int bEnd)
+      {
+        this.aStart = aStart;
+        this.aEnd = aEnd;
+        this.bStart = bStart;
+        this.bEnd = bEnd;
+      }
+
+      @Override
+      protected void compute()
+      {
+        long split;
+        int aSplit;
+        int bSplit;
+
+        while (aStart < aEnd && bStart < bEnd && a[aStart] == b[bStart])
+        {
+          aStart++;
+          bStart++;
+        }
+
+        while (aStart < aEnd && bStart < bEnd && a[aEnd - 1] == b[bEnd - 1])
+        {
+          aEnd--;
+          bEnd--;
+        }
+
+        if ((aEnd - aStart) + (bEnd - bStart) < PARALLEL_THRESHOLD)
+        {
+          new Worker().compare(aStart,
+                               aEnd,
+                               bStart,
+                               bEnd);
+          return;
+        }
+
+        split = new Worker().findSplit(aStart,
+                                       aEnd,
+                                       bStart,
+                                       bEnd);
+        if (split < 0)
+        {
+          markChanged(aStart,
+                      aEnd,
+                      bStart,
+                      bEnd);
+          return;
+        }
+
+        aSplit = (int) (split >>> 32);
+        bSplit = (int) split;
+
+        invokeAll(new CompareTask(aStart,
+                                  aSplit,
+                                  bStart,
+                                  bSplit),
+                  new CompareTask(aSplit,
+                                  aEnd,
+                                  bSplit,
+                                  bEnd));
+      }
+    }
+
+    private long split(int aSplit,
+        int bSplit)
+    {
+      return ((long) aSplit << 32) | (bSplit & 0xFFFFFFFFL);
+    }
+
+    void markChanged(int aStart,
+        int aEnd,
+        int bStart,
+        int bEnd)
+    {
+      Arrays.fill(changedA,
+                  aStart,
+                  aEnd,
+                  true);
+      Arrays.fill(changedB,
+                  bStart,
+                  bEnd,
+                  true);
+    }
+
+    JMRevision buildRevision(JMRevision result)
+    {
+      int i;
+      int j;
+      int iStart;
+      int jStart;
+
+      i = 0;
+      j = 0;
+      while (i < a.length || j < b.length)
+      {
+        if (i < a.length && j < b.length && !changedA[i] && !changedB[j])
+        {
+          i++;
+          j++;
+          continue;
+        }
+
+        iStart = i;
+        jStart = j;
+        while (i < a.length && changedA[i])
+        {
+          i++;
+        }
+        while (j < b.length && changedB[j])
+        {
+          j++;
+        }
+
+        result.add(new JMDelta(new JMChunk(iStart,
+                                           i - iStart),
+                               new JMChunk(jStart,
+                                           j - jStart)));
+      }
+
+      return result;
+    }
+  }
+}
@@ -16,9 +16,9 @@
  */
 package org.jmeld.diff;
 
-import org.apache.commons.jrcs.diff.Chunk;
-import org.apache.commons.jrcs.diff.Delta;
-import org.apache.commons.jrcs.diff.Revision;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.commons.jrcs.diff.myers.PathNode;
 import org.jmeld.JMeldException;
 
 public class MyersDiff
@@ -28,19 +28,19 @@ public class MyersDiff
   {
   }
 
-  public JMRevision diff(Object[] orig,
-      Object[] rev)
+  public JMRevision diff(int[] orig,
+      int[] rev)
       throws JMeldException
   {
     org.apache.commons.jrcs.diff.myers.MyersDiff diff;
-    Revision revision;
+    PathNode path;
 
     try
     {
       diff = new org.apache.commons.jrcs.diff.myers.MyersDiff();
       diff.checkMaxTime(isMaxTimeChecked());
-      revision = diff.diff(orig,
-                           rev);
+      path = diff.buildPath(orig,
+                            rev);
     }
     catch (Exception ex)
     {
@@ -48,42 +48,53 @@ public class MyersDiff
                                ex);
     }
 
-    return buildRevision(revision,
-                         orig,
-                         rev);
+    return buildRevision(path,
+                         createRevision(orig,
+                                        rev));
   }
 
-  private JMRevision buildRevision(Revision revision,
-      Object[] orig,
-      Object[] rev)
+  /**
+   * Walk the path backwards and add a delta for every diffnode. (See also
+   * org.apache.commons.jrcs.diff.myers.MyersDiff.buildRevision)
+   */
+  private JMRevision buildRevision(PathNode path,
+      JMRevision result)
   {
-    JMRevision result;
-    Delta delta;
-    Chunk original;
-    Chunk revised;
+    List<JMDelta> deltaList;
+    int i;
+    int j;
+
+    deltaList = new ArrayList<JMDelta>();
 
-    if (orig == null)
+    if (path.isSnake())
     {
-      throw new IllegalArgumentException("original sequence is null");
+      path = path.prev;
     }
-
-    if (rev == null)
+    while (path != null && path.prev != null && path.prev.j >= 0)
     {
-      throw new IllegalArgumentException("revised sequence is null");
+      if (path.isSnake())
+      {
+        throw new IllegalStateException("bad diffpath: found snake when looking for diff");
+      }
+
+      i = path.i;
+      j = path.j;
+
+      path = path.prev;
+
+      deltaList.add(new JMDelta(new JMChunk(path.i,
+                                            i - path.i),
+                                new JMChunk(path.j,
+                                            j - path.j)));
+      if (path.isSnake())
+      {
+        path = path.prev;
+      }
     }
 
-    result = new JMRevision(orig,
-                            rev);
-    for (int i = 0; i < revision.size(); i++)
+    for (int index = deltaList.size() - 1; index >= 0; index--)
     {
-      delta = revision.getDelta(i);
-      original = delta.getOriginal();
-      revised = delta.getRevised();
-
-      result.add(new JMDelta(new JMChunk(original.anchor(),
-                                         original.size()),
-                             new JMChunk(revised.anchor(),
-                                         revised.size())));
+      result.add(deltaList.get(index));
     }
 
     return result;
@@ -0,0 +1,389 @@
+/*
+   JMeld is a visual diff and merge tool.
+   Copyright (C) 2007  Kees Kuip
+   This library is free software; you can redistribute it and/or
+   modify it under the terms of the GNU Lesser General Public
+   License as published by the Free Software Foundation; either
+   version 2.1 of the License, or (at your option) any later version.
+   This library is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+   Lesser General Public License for more details.
+   You should have received a copy of the GNU Lesser General Public
+   License along with this library; if not, write to the Free Software
+   Foundation, Inc., 51 Franklin Street, Fifth Floor,
+   Boston, MA  02110-1301  USA
+ */
+package org.jmeld.diff;
+
+import java.util.Arrays;
+import org.eclipse.compare2.rangedifferencer.RangeDifference;
+import org.eclipse.compare2.rangedifferencer.RangeDifferencer;
+import org.jmeld.JMeldException;
+
+/**
+ * Patience diff. <br>
+ * Lines that occur exactly once in both sequences are used as anchors. The
+ * longest increasing sequence of these anchors is part of the result and the
+ * gaps between the anchors are compared recursively. A gap without unique
+ * lines is compared with Myers' algorithm (the LCS of compare2, which bounds
+ * its running time on very large input). <br>
+ * Because anchors are lines like function headers and not braces or blank
+ * lines, the result is usually easier to read on source code. It is also
+ * fast on totally different files because there are no unique common lines.
+ */
+public class PatienceDiff
+    extends AbstractJMDiffAlgorithm
+{
+  // Class variables:
+  // Gaps deeper than this are compared with Myers. This bounds the recursion.
+  private static final int MAX_DEPTH = 64;
+
+  public PatienceDiff()
+  {
+  }
+
+  public JMRevision diff(int[] orig,
+      int[] rev)
+      throws JMeldException
+  {
+    JMRevision result;
+    Matcher matcher;
+    int previousA;
+    int previousB;
+    int a;
+    int b;
+
+    result = createRevision(orig,
+                            rev);
+
+    matcher = new Matcher(orig,
+                          rev);
+    matcher.match(0,
+                  orig.length,
+                  0,
+                  rev.length,
+                  0);
+
+    // Every gap between 2 matches is a delta.
+    previousA = 0;
+    previousB = 0;
+    for (int index = 0; index <= matcher.matchCount; index++)
+    {
+      if (index < matcher.matchCount)
+      {
+        a = matcher.matchA[index];
+        b = matcher.matchB[index];
+      }
+      else
+      {
+        a = orig.length;
+        b = rev.length;
+      }
+
+      if (a > previousA || b > previousB)
+      {
+        result.add(new JMDelta(new JMChunk(previousA,
+                                           a - previousA),
+                               new JMChunk(previousB,
+                                           b - previousB)));
+      }
+
+      previousA = a + 1;
+      previousB = b + 1;
+    }
+
+    return result;
+  }
+
+  private static class Matcher
+  {
+    private final int[] a;
+    private final int[] b;
+    // Indexed by id. Always cleared after use so they can be reused by every
+    // region.
+    private final int[] countA;
+    private final int[] countB;
+    private final int[] indexA;
+    // The matched pairs in increasing order.
+    private final int[] matchA;
+    private final int[] matchB;
+    private int matchCount;
+
+    Matcher(int[] a,
+        int[] b)
+    {
+      int maxId;
+
+      this.a = a;
+      this.b = b;
+
+      maxId = -1;
+      for (int id : a)
+      {
+        maxId = Math.max(maxId, id);
+      }
+      for (int id : b)
+      {
+        maxId = Math.max(maxId, id);
+      }
+
+      countA = new int[maxId + 1];
+      countB = new int[maxId + 1];
+      indexA = new int[maxId + 1];
+
+      matchA = new int[Math.min(a.length, b.length)];
+      matchB = new int[matchA.length];
+    }
+
+    void match(int aStart,
+        int aEnd,
+        int bStart,
+        int bEnd,
+        int depth)
+    {
+      int suffix;
+
+      while (aStart < aEnd && bStart < bEnd && a[aStart] == b[bStart])
+      {
+        addMatch(aStart++,
+                 bStart++);
+      }
+
+      suffix = 0;
+      while (aStart < aEnd - suffix && bStart < bEnd - suffix && a[aEnd - 1 - suffix] == b[bEnd - 1 - suffix])
+      {
+        suffix++;
+      }
+      aEnd -= suffix;
+      bEnd -= suffix;
+
+      if (aStart < aEnd && bStart < bEnd)
+      {
+        if (depth > MAX_DEPTH || !matchUnique(aStart,
+                                              aEnd,
+                                              bStart,
+                                              bEnd,
+                                              depth))
+        {
+          matchMyers(aStart,
+                     aEnd,
+                     bStart,
+                     bEnd);
+        }
+      }
+
+      for (int i = 0; i < suffix; i++)
+      {
+        addMatch(aEnd + i,
+                 bEnd + i);
+      }
+    }
+
+    /**
+     * Match the lines that are unique in both regions and recurse into the
+     * gaps.
+     *
+     * @return false if there are no unique common lines. The region has to be
+     *         compared in another way.
+     */
+    private boolean matchUnique(int aStart,
+        int aEnd,
+        int bStart,
+        int bEnd,
+        int depth)
+    {
+      int[] candidateA;
+      int[] candidateB;
+      int candidateCount;
+      int[] anchors;
+      int previousA;
+      int previousB;
+      int id;
+      boolean common;
+
+      for (int i = aStart; i < aEnd; i++)
+      {
+        id = a[i];
+        countA[id]++;
+        indexA[id] = i;
+      }
+
+      for (int j = bStart; j < bEnd; j++)
+      {
+        countB[b[j]]++;
+      }
+
+      // The candidates are ordered on their index in b.
+      candidateA = new int[Math.min(aEnd - aStart, bEnd - bStart)];
+      candidateB = new int[candidateA.length];
+      candidateCount = 0;
+      common = false;
+      for (int j = bStart; j < bEnd; j++)
+      {
+        id = b[j];
+        common |= countA[id] > 0;
+        if (countA[id] == 1 && countB[id] == 1)
+        {
+          candidateA[candidateCount] = indexA[id];
+          candidateB[candidateCount] = j;
+          candidateCount++;
+        }
+      }
+
+      for (int i = aStart; i < aEnd; i++)
+      {
+        countA[a[i]] = 0;
+      }
+
+      for (int j = bStart; j < bEnd; j++)
+      {
+        countB[b[j]] = 0;
+      }
+
+      // The regions have no line in common: The whole region is 1 change and
+      // there is no need to let Myers find that out the hard way.
+      if (!common)
+      {
+        return true;
+      }
+
+      if (candidateCount == 0)
+      {
+        return false;
+      }
+
+      anchors = longestIncreasingSequence(candidateA,
+                                          candidateCount);
+
+      previousA = aStart;
+      previousB = bStart;
+      for (int anchor : anchors)
+      {
+        match(previousA,
+              candidateA[anchor],
+              previousB,
+              candidateB[anchor],
+              depth + 1);
+        addMatch(candidateA[anchor],
+                 candidateB[anchor]);
+
+        previousA = candidateA[anchor] + 1;
+        previousB = candidateB[anchor] + 1;
+      }
+
+      match(previousA,
+            aEnd,
+            previousB,
+            bEnd,
+            depth + 1);
+
+      return true;
+    }
+
+    /**
+     * Patience sorting.
+     *
+     * @return the indexes of the candidates that form the longest increasing
+     *         sequence of values.
+     */
+    private int[] longestIncreasingSequence(int[] values,
+        int count)
+    {
+      int[] tails;
+      int[] predecessors;
+      int length;
+      int low;
+      int high;
+      int middle;
+      int[] result;
+      int index;
+
+      // tails[k] is the index of the smallest value that ends an increasing
+      // sequence of length k + 1.
+      tails = new int[count];
+      predecessors = new int[count];
+      length = 0;
+      for (int i = 0; i < count; i++)
+      {
+        low = 0;
+        high = length;
+        while (low < high)
+        {
+          middle = (low + high) >>> 1;
+          if (values[tails[middle]] < values[i])
+          {
+            low = middle + 1;
+          }
+          else
+          {
+            high = middle;
+          }
+        }
+
+        predecessors[i] = low > 0 ? tails[low - 1] : -1;
+        tails[low] = i;
+        if (low == length)
+        {
+          length++;
+        }
+      }
+
+      result = new int[length];
+      index = tails[length - 1];
+      for (int k = length - 1; k >= 0; k--)
+      {
+        result[k] = index;
+        index = predecessors[index];
+      }
+
+      return result;
+    }
+
+    private void matchMyers(int aStart,
+        int aEnd,
+        int bStart,
+        int bEnd)
+    {
+      RangeDifference[] differences;
+      int i;
+      int j;
+
+      differences = RangeDifferencer.findDifferences(Arrays.copyOfRange(a,
+                                                                        aStart,
+                                                                        aEnd),
+                                                     Arrays.copyOfRange(b,
+                                                                        bStart,
+                                                                        bEnd));
+
+      // Everything in between the differences is equal.
+      i = 0;
+      j = 0;
+      for (RangeDifference rd : differences)
+      {
+        while (i < rd.leftStart())
+        {
+          addMatch(aStart + i++,
+                   bStart + j++);
+        }
+
+        i = rd.leftEnd();
+        j = rd.rightEnd();
+      }
+
+      while (aStart + i < aEnd)
+      {
+        addMatch(aStart + i++,
+                 bStart + j++);
+      }
+    }
+
+    private void addMatch(int i,
+        int j)
+    {
+      matchA[matchCount] = i;
+      matchB[matchCount] = j;
+      matchCount++;
+    }
+  }
+}
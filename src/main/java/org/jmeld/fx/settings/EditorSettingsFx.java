@@ -38,6 +38,7 @@ public class EditorSettingsFx
   public final Ignore ignore = new Ignore();
   public final SimpleBooleanProperty leftsideReadonlyProperty = new SimpleBooleanProperty();
   public final SimpleBooleanProperty rightsideReadonlyProperty = new SimpleBooleanProperty();
+  public final SimpleBooleanProperty parallelDiffEnabledProperty = new SimpleBooleanProperty(true);
   public final SimpleObjectProperty<Color> addedColorProperty = new SimpleObjectProperty<>(FxColors.ADDED);
   public final SimpleObjectProperty<Color> changedColorProperty = new SimpleObjectProperty<>(FxColors.CHANGED);
   public final SimpleObjectProperty<Color> deletedColorProperty = new SimpleObjectProperty<>(FxColors.DELETED);
@@ -220,6 +221,17 @@ public class EditorSettingsFx
     fireChanged();
   }
 
+  public boolean getParallelDiffEnabled()
+  {
+    return parallelDiffEnabledProperty.get();
+  }
+
+  public void setParallelDiffEnabled(boolean parallelDiffEnabled)
+  {
+    this.parallelDiffEnabledProperty.set(parallelDiffEnabled);
+    fireChanged();
+  }
+
   public boolean getDefaultFileEncodingEnabled()
   {
     return defaultFileEncodingEnabledProperty.get();
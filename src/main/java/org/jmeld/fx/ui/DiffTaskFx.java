@@ -0,0 +1,102 @@
+/*
+   JMeld is a visual diff and merge tool.
+   Copyright (C) 2007  Kees Kuip
+   This library is free software; you can redistribute it and/or
+   modify it under the terms of the GNU Lesser General Public
+   License as published by the Free Software Foundation; either
+   version 2.1 of the License, or (at your option) any later version.
+   This library is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+   Lesser General Public License for more details.
+   You should have received a copy of the GNU Lesser General Public
+   License along with this library; if not, write to the Free Software
+   Foundation, Inc., 51 Franklin Street, Fifth Floor,
+   Boston, MA  02110-1301  USA
+ */
+package org.jmeld.fx.ui;
+
+import org.jmeld.diff.JMRevision;
+import org.jmeld.ui.text.BufferDocumentIF;
+import org.jmeld.util.ProgressIF;
+import org.jmeld.util.node.BufferNode;
+import org.jmeld.util.node.JMDiffNode;
+import javafx.concurrent.Task;
+
+/**
+ * Reads and compares the files of a JMDiffNode in the background. <br>
+ * The result is handed to the JavaFX application thread by the Task
+ * (setOnSucceeded). The task can be cancelled while the files are read.
+ */
+public class DiffTaskFx
+  extends Task<JMRevision>
+{
+  // Instance variables:
+  private final JMDiffNode diffNode;
+
+  public DiffTaskFx(JMDiffNode diffNode)
+  {
+    this.diffNode = diffNode;
+  }
+
+  public JMDiffNode getDiffNode()
+  {
+    return diffNode;
+  }
+
+  public void start()
+  {
+    Thread thread;
+
+    thread = new Thread(this, "JMeld diff " + diffNode.getName());
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  @Override
+  protected JMRevision call() throws Exception
+  {
+    diffNode.diff(new ProgressIF()
+    {
+      public void setState(String format, Object... args)
+      {
+        updateMessage(String.format(format, args));
+      }
+
+      public void setProgress(long done, long total)
+      {
+        updateProgress(done, total);
+      }
+
+      public boolean isCancelled()
+      {
+        return DiffTaskFx.this.isCancelled();
+      }
+    });
+
+    // The text of the code areas is created here so the application thread
+    // only has to show it.
+    updateMessage("Preparing " + diffNode.getName());
+    prepare(diffNode.getBufferNodeLeft());
+    prepare(diffNode.getBufferNodeRight());
+
+    updateMessage("Ready calculating differences");
+    return diffNode.getRevision();
+  }
+
+  private void prepare(BufferNode bufferNode)
+  {
+    BufferDocumentIF document;
+
+    if (bufferNode == null || isCancelled())
+    {
+      return;
+    }
+
+    document = bufferNode.getDocument();
+    if (document != null)
+    {
+      document.getRichDocument();
+    }
+  }
+}
@@ -40,7 +40,6 @@ import javafx.scene.control.TabPane;
 import javafx.scene.control.TextArea;
 import javafx.scene.control.ToolBar;
 import javafx.scene.image.ImageView;
-import javafx.scene.layout.Region;
 import net.miginfocom.layout.CC;
 import net.miginfocom.layout.LC;
 
@@ -149,7 +148,7 @@ public class JMeldPaneFx
         helpButton, aboutButton);
 
     add(toolbarPanel, new CC().dockNorth());
-    add(new Region(), new CC().dockSouth().wrap().gapTop("20"));
+    add(StatusBarFx.getInstance(), new CC().dockSouth().wrap().gapTop("20"));
     add(tabPane, new CC().height("100%").width("100%"));
   }
 
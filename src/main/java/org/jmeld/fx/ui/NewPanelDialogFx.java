@@ -35,9 +35,11 @@ import javafx.scene.control.ButtonType;
 import javafx.scene.control.ComboBox;
 import javafx.scene.control.Dialog;
 import javafx.scene.control.Label;
+import javafx.scene.control.ProgressIndicator;
 import javafx.scene.control.Tab;
 import javafx.scene.control.TabPane;
 import javafx.scene.image.ImageView;
+import javafx.scene.layout.BorderPane;
 import javafx.stage.DirectoryChooser;
 import javafx.stage.FileChooser;
 import javafx.stage.StageStyle;
@@ -203,7 +205,8 @@ public class NewPanelDialogFx
         File leftFile;
         File rightFile;
         JMDiffNode diffNode;
-        FileDiffPanelFx fileDiffPanel;
+        DiffTaskFx diffTask;
+        BorderPane pane;
 
         leftFile = getLeftFile();
         rightFile = getRightFile();
@@ -231,11 +234,21 @@ public class NewPanelDialogFx
         diffNode = JMDiffNodeFactory.create(leftFile.getAbsolutePath(), leftFile, rightFile.getAbsolutePath(),
             rightFile);
 
-        diffNode.diff();
-
-        fileDiffPanel = new FileDiffPanelFx(diffNode);
-
-        return fileDiffPanel;
+        // The files are read and compared in the background. The panel is
+        // shown as soon as the differences are known.
+        pane = new BorderPane(new ProgressIndicator());
+        diffTask = new DiffTaskFx(diffNode);
+        diffTask.setOnSucceeded((e) -> pane.setCenter(new FileDiffPanelFx(diffNode)));
+        diffTask.setOnFailed((e) -> {
+          diffTask.getException().printStackTrace();
+          pane.setCenter(new Label("Problem comparing files: " + diffTask.getException().getMessage()));
+        });
+        diffTask.setOnCancelled((e) -> pane.setCenter(new Label("Comparison cancelled")));
+
+        StatusBarFx.getInstance().setWorker(diffTask);
+        diffTask.start();
+
+        return pane;
       }
       catch (Exception ex)
       {
@@ -17,6 +17,8 @@
 package org.jmeld.fx.ui;
 
 import org.tbee.javafx.scene.layout.MigPane;
+import javafx.concurrent.Worker;
+import javafx.scene.control.Button;
 import javafx.scene.control.Label;
 import javafx.scene.control.ProgressBar;
 import javafx.scene.control.ProgressIndicator;
@@ -25,25 +27,105 @@ public class StatusBarFx
   extends MigPane
 {
   // Class variables:
+  private static StatusBarFx instance;
+
   // Instance variables:
   private Label statusLabel;
   private ProgressBar progressBar;
   private ProgressIndicator progressIndicator;
+  private Button cancelButton;
+  private Worker<?> worker;
 
   private StatusBarFx()
   {
     init();
   }
 
+  public static synchronized StatusBarFx getInstance()
+  {
+    if (instance == null)
+    {
+      instance = new StatusBarFx();
+    }
+
+    return instance;
+  }
+
   private void init()
   {
     statusLabel = new Label(" ");
     progressBar = new ProgressBar();
+    progressBar.setVisible(false);
     progressIndicator = new ProgressIndicator();
+    progressIndicator.setVisible(false);
+    cancelButton = new Button("Cancel");
+    cancelButton.setVisible(false);
+    cancelButton.setOnAction((ae) -> {
+      if (worker != null)
+      {
+        worker.cancel();
+      }
+    });
 
     add(statusLabel);
     add(progressBar);
     add(progressIndicator);
+    add(cancelButton);
+  }
+
+  /**
+   * Show the progress of a background job until it is finished. The job can be
+   * cancelled with the cancel button.
+   */
+  public void setWorker(Worker<?> newWorker)
+  {
+    stopWorker();
+
+    worker = newWorker;
+    statusLabel.setTextFill(null);
+    statusLabel.textProperty().bind(worker.messageProperty());
+    progressBar.progressProperty().bind(worker.progressProperty());
+    progressBar.setVisible(true);
+    cancelButton.setVisible(true);
+
+    newWorker.stateProperty().addListener((observable, oldState, newState) -> {
+      // Another job is shown now.
+      if (worker != newWorker)
+      {
+        return;
+      }
+
+      switch (newState)
+      {
+        case SUCCEEDED:
+          stopWorker();
+          break;
+        case FAILED:
+          stopWorker();
+          setAlarm("%s", newWorker.getException() == null ? "Failed" : newWorker.getException().getMessage());
+          break;
+        case CANCELLED:
+          stopWorker();
+          setState("Cancelled");
+          break;
+        default:
+          break;
+      }
+    });
+  }
+
+  private void stopWorker()
+  {
+    if (worker == null)
+    {
+      return;
+    }
+
+    statusLabel.textProperty().unbind();
+    progressBar.progressProperty().unbind();
+    progressBar.setVisible(false);
+    cancelButton.setVisible(false);
+    worker = null;
   }
 
   public void startProgress()
@@ -79,6 +161,6 @@ public class StatusBarFx
   public void setProgress(int value, int maximum)
   {
     progressBar.setVisible(true);
-    progressBar.setProgress(value / maximum);
+    progressBar.setProgress((double) value / maximum);
   }
 }
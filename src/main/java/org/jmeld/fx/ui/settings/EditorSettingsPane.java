@@ -71,6 +71,7 @@ public class EditorSettingsPane
     CheckBox rightSideReadonlyCheckbox;
     CheckBox leftSideReadonlyCheckbox;
     CheckBox antiAliasCheckbox;
+    CheckBox parallelDiffCheckbox;
     RadioButton fileEncodingDefaultButton;
     RadioButton fileEncodingCustomButton;
     RadioButton fileEncodingSpecificButton;
@@ -106,6 +107,7 @@ public class EditorSettingsPane
     rightSideReadonlyCheckbox = new CheckBox("Rightside readonly");
     leftSideReadonlyCheckbox = new CheckBox("Leftside readonly");
     antiAliasCheckbox = new CheckBox("Antialias on");
+    parallelDiffCheckbox = new CheckBox("Use all processors to compare large files");
     colorAddedColorPicker = new ColorPicker();
     colorDeletedColorPicker = new ColorPicker();
     colorChangedColorPicker = new ColorPicker();
@@ -127,6 +129,7 @@ public class EditorSettingsPane
     panel.add(rightSideReadonlyCheckbox, new CC().gapLeft(gap1).wrap());
     panel.add(leftSideReadonlyCheckbox, new CC().gapLeft(gap1).wrap());
     panel.add(antiAliasCheckbox, new CC().gapLeft(gap1).wrap());
+    panel.add(parallelDiffCheckbox, new CC().gapLeft(gap1).wrap());
     panel.add(header2(new Label("Colors")), new CC().wrap().gapLeft(gap2).gapTop("10").span(2));
     panel.add(new Separator(), new CC().wrap().gapLeft(gap2).span(2).grow());
     panel.add(colorAddedColorPicker, new CC().gapLeft(gap1).split(2));
@@ -167,6 +170,7 @@ public class EditorSettingsPane
     rightSideReadonlyCheckbox.selectedProperty().bindBidirectional(getSettings().rightsideReadonlyProperty);
     leftSideReadonlyCheckbox.selectedProperty().bindBidirectional(getSettings().leftsideReadonlyProperty);
     antiAliasCheckbox.selectedProperty().bindBidirectional(getSettings().antialiasProperty);
+    parallelDiffCheckbox.selectedProperty().bindBidirectional(getSettings().parallelDiffEnabledProperty);
     formatter = new TextFormatter<>(new NumberStringConverter("#,###"));
     formatter.valueProperty().bindBidirectional(getSettings().tabSizeProperty);
     tabSizeTextField.setTextFormatter(formatter);
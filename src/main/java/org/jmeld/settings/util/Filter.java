@@ -125,7 +125,8 @@ public class Filter
     result = new ArrayList<String>();
     for (FilterRule rule : new GetRules().getRules())
     {
-      if (rule.getRule() == r)
+      // A new rule has no pattern until it is edited.
+      if (rule.getRule() == r && rule.getPattern() != null && !rule.getPattern().isEmpty())
       {
         result.add(rule.getPattern());
       }
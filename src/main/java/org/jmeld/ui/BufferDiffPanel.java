@@ -196,6 +196,13 @@ public class BufferDiffPanel
     }
     else
     {
+      // getLines() creates new lines after an edit. Don't ask for them if
+      // they won't be used.
+      if (!JMRevision.isIncrementalUpdateActivated())
+      {
+        return false;
+      }
+
       fp = getFilePanel(de.getDocument());
       if (fp == null)
       {
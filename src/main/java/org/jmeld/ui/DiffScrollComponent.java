@@ -187,6 +187,8 @@ public class DiffScrollComponent
     int offset;
     Rectangle r;
     Point p;
+    List<JMDelta> deltas;
+    JMDelta delta;
     JMChunk original;
     JMChunk revised;
     Rectangle viewportRect;
@@ -276,8 +278,14 @@ public class DiffScrollComponent
     try
     {
       // Draw only the delta's that have some line's drawn in one of the viewports.
-      for (JMDelta delta : revision.getDeltas())
+      // Start with the first delta that is not completely above both screens.
+      deltas = revision.getDeltas();
+      for (int index = Math.min(revision.findDeltaIndex(true,
+                                                        firstLineFrom),
+                                revision.findDeltaIndex(false,
+                                                        firstLineTo)); index < deltas.size(); index++)
       {
+        delta = deltas.get(index);
         original = delta.getOriginal();
         revised = delta.getRevised();
         
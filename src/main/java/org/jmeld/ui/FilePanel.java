@@ -18,11 +18,13 @@ package org.jmeld.ui;
 
 import java.awt.Font;
 import java.awt.FontMetrics;
+import java.awt.Rectangle;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.FocusAdapter;
 import java.awt.event.FocusEvent;
 import java.awt.event.FocusListener;
+import java.util.List;
 import javax.swing.BorderFactory;
 import javax.swing.Icon;
 import javax.swing.JButton;
@@ -36,6 +38,8 @@ import javax.swing.Timer;
 import javax.swing.border.Border;
 import javax.swing.event.CaretEvent;
 import javax.swing.event.CaretListener;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
 import javax.swing.text.BadLocationException;
 import javax.swing.text.Document;
 import javax.swing.text.Highlighter;
@@ -77,6 +81,8 @@ public class FilePanel
   private BufferDocumentIF bufferDocument;
   private JButton saveButton;
   private Timer timer;
+  private Timer innerDiffTimer;
+  private Runnable innerDiffListener;
   private SearchHits searchHits;
   private boolean selected;
   private FilePanelBar filePanelBar;
@@ -139,6 +145,32 @@ public class FilePanel
                       refresh());
     timer.setRepeats(false);
 
+    // The word differences of a change are computed in the background and
+    // only for the changes that are visible.
+    innerDiffTimer = new Timer(100,
+                               innerDiffsAvailable());
+    innerDiffTimer.setRepeats(false);
+    innerDiffListener = new Runnable()
+    {
+      public void run()
+      {
+        SwingUtilities.invokeLater(new Runnable()
+        {
+          public void run()
+          {
+            innerDiffTimer.restart();
+          }
+        });
+      }
+    };
+    scrollPane.getViewport().addChangeListener(new ChangeListener()
+    {
+      public void stateChanged(ChangeEvent e)
+      {
+        requestInnerDiffs();
+      }
+    });
+
     initConfiguration();
     getConfiguration().addConfigurationListener(this);
   }
@@ -356,6 +388,91 @@ public class FilePanel
 
     getHighlighter().setDoNotRepaint(false);
     getHighlighter().repaint();
+
+    requestInnerDiffs();
+  }
+
+  /**
+   * Request the word differences of the changes that are visible.
+   */
+  private void requestInnerDiffs()
+  {
+    JMRevision revision;
+    List<JMDelta> deltas;
+    JMDelta delta;
+    JMChunk chunk;
+    boolean original;
+    Rectangle r;
+    int top;
+    int lineHeight;
+    int firstLine;
+    int lastLine;
+
+    if (bufferDocument == null)
+    {
+      return;
+    }
+
+    revision = diffPanel.getCurrentRevision();
+    if (revision == null)
+    {
+      return;
+    }
+
+    if (BufferDocumentIF.ORIGINAL.equals(name))
+    {
+      original = true;
+    }
+    else if (BufferDocumentIF.REVISED.equals(name))
+    {
+      original = false;
+    }
+    else
+    {
+      return;
+    }
+
+    // The lines of the editor are not wrapped so they all have the same
+    // height.
+    r = scrollPane.getViewport().getViewRect();
+    top = editor.getInsets().top;
+    lineHeight = Math.max(1,
+                          editor.getFontMetrics(editor.getFont()).getHeight());
+    firstLine = Math.max(0,
+                         (r.y - top) / lineHeight);
+    lastLine = (r.y + r.height - top) / lineHeight;
+
+    deltas = revision.getDeltas();
+    for (int index = revision.findDeltaIndex(original,
+                                             firstLine); index < deltas.size(); index++)
+    {
+      delta = deltas.get(index);
+      chunk = original ? delta.getOriginal() : delta.getRevised();
+      if (chunk.getAnchor() > lastLine)
+      {
+        break;
+      }
+
+      if (delta.isChange() && !delta.isChangeRevisionAvailable()
+          && delta.getOriginal().getSize() < MAXSIZE_CHANGE_DIFF
+          && delta.getRevised().getSize() < MAXSIZE_CHANGE_DIFF)
+      {
+        delta.requestChangeRevision(innerDiffListener);
+      }
+    }
+  }
+
+  private ActionListener innerDiffsAvailable()
+  {
+    return new ActionListener()
+    {
+      public void actionPerformed(ActionEvent ae)
+      {
+        reDisplay();
+        // The revision bars and the diff scroll component.
+        diffPanel.repaint();
+      }
+    };
   }
 
   private void paintSearchHighlights()
@@ -430,7 +547,8 @@ public class FilePanel
         else if (delta.isChange())
         {
           // Mark the changes in a change in a different color.
-          if (original.getSize() < MAXSIZE_CHANGE_DIFF && revised.getSize() < MAXSIZE_CHANGE_DIFF)
+          if (original.getSize() < MAXSIZE_CHANGE_DIFF && revised.getSize() < MAXSIZE_CHANGE_DIFF
+              && delta.isChangeRevisionAvailable())
           {
             if (!delta.isReallyChanged())
             {
@@ -494,7 +612,8 @@ public class FilePanel
         }
         else if (delta.isChange())
         {
-          if (original.getSize() < MAXSIZE_CHANGE_DIFF && revised.getSize() < MAXSIZE_CHANGE_DIFF)
+          if (original.getSize() < MAXSIZE_CHANGE_DIFF && revised.getSize() < MAXSIZE_CHANGE_DIFF
+              && delta.isChangeRevisionAvailable())
           {
             if (!delta.isReallyChanged())
             {
@@ -122,7 +122,6 @@ public class ScrollSynchronizer
     int currentIndex;
     int nextIndex;
     List<JMDelta> deltas;
-    int i;
 
     revision = diffPanel.getCurrentRevision();
     if (revision == null)
@@ -134,30 +133,22 @@ public class ScrollSynchronizer
 
     line = getCurrentLineCenter(filePanelLeft);
 
+    // The first delta that contains the line or is below it.
     currentDelta = null;
-    currentIndex = -1;
-
-    i = 0;
-    for (JMDelta delta : deltas)
+    currentIndex = revision.findDeltaIndex(true,
+                                           line);
+    if (currentIndex < deltas.size())
     {
-      original = delta.getOriginal();
-
-      currentIndex = i;
-      i++;
-
+      original = deltas.get(currentIndex).getOriginal();
       if (line >= original.getAnchor())
       {
-        if (line <= original.getAnchor() + original.getSize())
-        {
-          currentDelta = delta;
-          break;
-        }
-      }
-      else
-      {
-        break;
+        currentDelta = deltas.get(currentIndex);
       }
     }
+    else
+    {
+      currentIndex = deltas.size() - 1;
+    }
 
     previousDelta = null;
     nextDelta = null;
@@ -23,6 +23,7 @@ import org.jmeld.fx.settings.FxRevisionUtil;
 import org.jmeld.scene.ComponentFx;
 import org.jmeld.util.node.JMDiffNode;
 import org.jmeld.util.node.JMDiffNode.Location;
+import javafx.application.Platform;
 import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.paint.Color;
 
@@ -31,11 +32,14 @@ public class RevisionBarFx
 {
   private final Location m_location;
   private final JMDiffNode m_diffNode;
+  private final Runnable m_innerDiffListener;
 
   public RevisionBarFx(Location location, JMDiffNode diffNode)
   {
     m_location = location;
     m_diffNode = diffNode;
+    // The word differences are computed in the background.
+    m_innerDiffListener = () -> Platform.runLater(this::requestLayout);
   }
 
   @Override
@@ -64,6 +68,11 @@ public class RevisionBarFx
 
     for (JMDelta delta : revision.getDeltas())
     {
+      if (delta.isChange() && !delta.isChangeRevisionAvailable())
+      {
+        delta.requestChangeRevision(m_innerDiffListener);
+      }
+
       if (delta.isChange() && !delta.isReallyChanged())
       {
         continue;
@@ -16,12 +16,15 @@
  */
 package org.jmeld.ui.text;
 
+import java.io.FilterReader;
+import java.io.IOException;
 import java.io.Reader;
 import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.CancellationException;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import javax.swing.event.DocumentEvent;
@@ -31,9 +34,12 @@ import javax.swing.text.DefaultEditorKit;
 import javax.swing.text.Element;
 import javax.swing.text.GapContent;
 import javax.swing.text.PlainDocument;
+import javax.swing.text.Segment;
+import javax.swing.undo.UndoableEdit;
 import org.fxmisc.richtext.CodeArea;
 import org.fxmisc.richtext.model.StyledDocument;
 import org.jmeld.JMeldException;
+import org.jmeld.util.ProgressIF;
 import org.jmeld.util.StopWatch;
 import org.jmeld.util.StringUtil;
 import org.jmeld.vc.BlameIF;
@@ -44,8 +50,17 @@ public abstract class AbstractBufferDocument
   // instance variables:
   private String name;
   private String shortName;
+  // Created when the lines are needed (by a diff). A line is only a line
+  // number until the document changes. Then the lines get a copy of the text
+  // they had, so the lines a diff got never change (See freezeLines()).
   private Line[] lineArray;
-  private int[] lineOffsetArray;
+  // The end offset of every line. The ends of the lines from shiftIndex on
+  // are stored without the pending shift. An edit only updates the lines
+  // between the previous edit and this edit (See updateLines()).
+  private int[] lineEnds;
+  private int lineCount;
+  private int shiftIndex;
+  private int shift;
   private PlainDocument document;
   private StyledDocument<Collection<String>, String, Collection<String>> richDocument;
   private MyGapContent content;
@@ -76,6 +91,17 @@ public abstract class AbstractBufferDocument
 
   abstract public Reader getReader() throws JMeldException;
 
+  /**
+   * A fast alternative for getReader(). The text is decoded in large blocks
+   * that are appended to the document with the appender.
+   *
+   * @return false if the document has to be read with getReader().
+   */
+  boolean readText(ProgressIF progress, TextAppender appender) throws JMeldException
+  {
+    return false;
+  }
+
   abstract Writer getWriter() throws JMeldException;
 
   protected void setName(String name)
@@ -112,7 +138,7 @@ public abstract class AbstractBufferDocument
 
       ca = new CodeArea();
 
-      content = Stream.of(lineArray).map(line -> line.toString()).collect(Collectors.joining());
+      content = Stream.of(getLines()).map(line -> line.toString()).collect(Collectors.joining());
 
       ca.replaceText(content);
 
@@ -130,37 +156,100 @@ public abstract class AbstractBufferDocument
   public Line[] getLines()
   {
     initLines();
+    if (lineEnds == null)
+    {
+      return null;
+    }
+
+    if (lineArray == null)
+    {
+      lineArray = new Line[lineCount];
+      for (int i = 0; i < lineCount; i++)
+      {
+        lineArray[i] = new Line(i);
+      }
+    }
 
     return lineArray;
   }
 
+  /**
+   * Give the lines of getLines() a copy of the text before the document
+   * changes. The next call of getLines() creates new lines.
+   */
+  private void freezeLines()
+  {
+    FrozenText frozenText;
+    Segment segment;
+
+    if (lineArray == null)
+    {
+      return;
+    }
+
+    frozenText = new FrozenText();
+    frozenText.lineEnds = new int[lineCount];
+    for (int i = 0; i < lineCount; i++)
+    {
+      frozenText.lineEnds[i] = getLineEnd(i);
+    }
+
+    try
+    {
+      segment = new Segment();
+      content.getChars(0, content.length(), segment);
+      frozenText.chars = Arrays.copyOfRange(segment.array, segment.offset, segment.offset + segment.count);
+    }
+    catch (BadLocationException ex)
+    {
+      ex.printStackTrace();
+      frozenText.chars = new char[content.length()];
+    }
+
+    for (Line line : lineArray)
+    {
+      line.frozenText = frozenText;
+    }
+
+    lineArray = null;
+  }
+
   public String getLineText(int lineNumber)
   {
-    Line[] la;
+    int start;
 
-    la = getLines();
-    if (la == null)
+    initLines();
+    if (lineEnds == null)
     {
       return null;
     }
 
-    if (lineNumber >= la.length || lineNumber < 0)
+    if (lineNumber >= lineCount || lineNumber < 0)
     {
       return "<NO LINE>";
     }
 
-    return la[lineNumber].toString();
+    try
+    {
+      start = getLineStart(lineNumber);
+      return content.getString(start, getLineEnd(lineNumber) - start);
+    }
+    catch (BadLocationException ex)
+    {
+      ex.printStackTrace();
+      return "";
+    }
   }
 
   public int getNumberOfLines()
   {
-    return getLines().length;
+    initLines();
+
+    return lineCount;
   }
 
   public int getOffsetForLine(int lineNumber)
   {
-    Line[] la;
-
     if (lineNumber < 0)
     {
       return -1;
@@ -171,61 +260,89 @@ public abstract class AbstractBufferDocument
       return 0;
     }
 
-    la = getLines();
-    if (la == null)
+    initLines();
+    if (lineEnds == null)
     {
       return -1;
     }
 
-    if (lineNumber > la.length)
+    if (lineNumber > lineCount)
     {
-      lineNumber = la.length;
+      lineNumber = lineCount;
     }
 
-    return la[lineNumber - 1].getOffset();
+    return getLineEnd(lineNumber - 1);
   }
 
   public int getLineForOffset(int offset)
   {
-    int searchIndex;
-    Line[] la;
+    int low;
+    int high;
+    int middle;
 
     if (offset < 0)
     {
       return 0;
     }
 
-    la = getLines();
-    if (la == null)
+    initLines();
+    if (lineEnds == null)
     {
       return 0;
     }
 
-    if (offset >= lineOffsetArray[lineOffsetArray.length - 1])
+    // The first line that ends after the offset.
+    low = 0;
+    high = lineCount - 1;
+    while (low < high)
     {
-      return lineOffsetArray.length - 1;
+      middle = (low + high) >>> 1;
+      if (getLineEnd(middle) <= offset)
+      {
+        low = middle + 1;
+      }
+      else
+      {
+        high = middle;
+      }
     }
 
-    searchIndex = Arrays.binarySearch(lineOffsetArray, offset);
-    if (searchIndex >= 0)
-    {
-      return searchIndex + 1;
-    }
+    return low;
+  }
+
+  private int getLineStart(int lineNumber)
+  {
+    return lineNumber == 0 ? 0 : getLineEnd(lineNumber - 1);
+  }
 
-    return (-searchIndex) - 1;
+  private int getLineEnd(int lineNumber)
+  {
+    return lineNumber >= shiftIndex ? lineEnds[lineNumber] + shift : lineEnds[lineNumber];
   }
 
   public void read() throws JMeldException
+  {
+    read(null);
+  }
+
+  /**
+   * @param progress
+   *          receives the number of characters read. Reading stops with a
+   *          CancellationException if it is cancelled.
+   */
+  public void read(ProgressIF progress) throws JMeldException
   {
     try
     {
       Reader reader;
+      TextAppender appender;
       StopWatch stopWatch;
 
       if (document != null)
       {
         document.removeDocumentListener(this);
       }
+      freezeLines();
 
       stopWatch = new StopWatch();
       stopWatch.start();
@@ -234,9 +351,21 @@ public abstract class AbstractBufferDocument
       content = new MyGapContent(getBufferSize() + 500);
       document = new PlainDocument(content);
 
-      reader = getReader();
-      new DefaultEditorKit().read(reader, document, 0);
-      reader.close();
+      appender = new TextAppender();
+      if (readText(progress, appender))
+      {
+        appender.close();
+      }
+      else
+      {
+        reader = getReader();
+        if (progress != null)
+        {
+          reader = new ProgressReader(reader, progress, getBufferSize());
+        }
+        new DefaultEditorKit().read(reader, document, 0);
+        reader.close();
+      }
 
       System.out.println("create document took " + stopWatch.getElapsedTime());
       document.addDocumentListener(this);
@@ -246,7 +375,7 @@ public abstract class AbstractBufferDocument
       initLines();
       initDigest();
     }
-    catch (JMeldException ex)
+    catch (JMeldException | CancellationException ex)
     {
       throw ex;
     }
@@ -256,37 +385,231 @@ public abstract class AbstractBufferDocument
     }
   }
 
+  /**
+   * Appends blocks of text to the document. The line separators are converted
+   * in place to '\n' and the separator of the text is stored in the document
+   * (the same as DefaultEditorKit.read() does) so write() uses it again.
+   */
+  class TextAppender
+  {
+    private int offset;
+    // The previous block ended with a '\r'.
+    private boolean lastWasCR;
+    private boolean isCR;
+    private boolean isCRLF;
+
+    void append(char[] chars, int start, int end) throws BadLocationException
+    {
+      char c;
+      int j;
+
+      j = start;
+      for (int i = start; i < end; i++)
+      {
+        c = chars[i];
+        if (lastWasCR)
+        {
+          // The '\n' for the '\r' is already appended.
+          lastWasCR = false;
+          if (c == '\n')
+          {
+            isCRLF = true;
+            continue;
+          }
+          isCR = true;
+        }
+
+        if (c == '\r')
+        {
+          c = '\n';
+          if (i + 1 == end)
+          {
+            lastWasCR = true;
+          }
+          else if (chars[i + 1] == '\n')
+          {
+            isCRLF = true;
+            i++;
+          }
+          else
+          {
+            isCR = true;
+          }
+        }
+        chars[j++] = c;
+      }
+
+      if (j > start)
+      {
+        document.insertString(offset, new String(chars, start, j - start), null);
+        offset += j - start;
+      }
+    }
+
+    void close()
+    {
+      if (lastWasCR)
+      {
+        isCR = true;
+      }
+
+      document.putProperty(DefaultEditorKit.EndOfLineStringProperty, isCRLF ? "\r\n" : isCR ? "\r" : "\n");
+    }
+  }
+
+  /**
+   * Reports the progress of reading after every chunk of characters.
+   */
+  private static class ProgressReader
+    extends FilterReader
+  {
+    private final ProgressIF progress;
+    private final long size;
+    private long count;
+
+    ProgressReader(Reader reader, ProgressIF progress, long size)
+    {
+      super(reader);
+
+      this.progress = progress;
+      this.size = size;
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException
+    {
+      int n;
+
+      if (progress.isCancelled())
+      {
+        throw new CancellationException();
+      }
+
+      n = super.read(cbuf, off, len);
+      if (n > 0)
+      {
+        // The size is in bytes, so this is an estimate.
+        count += n;
+        progress.setProgress(Math.min(count, size), size);
+      }
+      else if (n == -1)
+      {
+        progress.setProgress(size, size);
+      }
+
+      return n;
+    }
+  }
+
   private void initLines()
   {
     Element paragraph;
-    Element e;
-    int size;
-    Line line;
 
-    if (lineArray != null)
+    if (lineEnds != null || document == null)
     {
       return;
     }
 
     paragraph = document.getDefaultRootElement();
-    size = paragraph.getElementCount();
-    // lineArray = new Line[size - 1];
-    lineArray = new Line[size];
-    lineOffsetArray = new int[lineArray.length];
-    for (int i = 0; i < lineArray.length; i++)
+    lineCount = paragraph.getElementCount();
+    lineEnds = new int[lineCount];
+    for (int i = 0; i < lineCount; i++)
     {
-      e = paragraph.getElement(i);
-      line = new Line(e);
+      lineEnds[i] = paragraph.getElement(i).getEndOffset();
+    }
+
+    shiftIndex = lineCount;
+    shift = 0;
+  }
+
+  /**
+   * Update the lines that are changed by this event. The root element of the
+   * document knows which lines are replaced. All lines after them move by
+   * the length of the event.
+   */
+  private void updateLines(DocumentEvent de)
+  {
+    Element paragraph;
+    DocumentEvent.ElementChange change;
+    Element[] added;
+    int index;
+    int removed;
+    int delta;
+    int[] newLineEnds;
 
-      lineArray[i] = line;
-      lineOffsetArray[i] = line.getOffset();
+    paragraph = document.getDefaultRootElement();
+    if (de.getType() == DocumentEvent.EventType.INSERT)
+    {
+      delta = de.getLength();
+    }
+    else if (de.getType() == DocumentEvent.EventType.REMOVE)
+    {
+      delta = -de.getLength();
     }
+    else
+    {
+      return;
+    }
+
+    change = de.getChange(paragraph);
+    if (change == null)
+    {
+      // Only the line with the offset changed.
+      index = paragraph.getElementIndex(de.getOffset());
+      removed = 1;
+      added = new Element[]
+      { paragraph.getElement(index) };
+    }
+    else
+    {
+      index = change.getIndex();
+      removed = change.getChildrenRemoved().length;
+      added = change.getChildrenAdded();
+    }
+
+    // From now on the lines from index on are stored without the shift.
+    if (index > shiftIndex)
+    {
+      for (int i = shiftIndex; i < index; i++)
+      {
+        lineEnds[i] += shift;
+      }
+    }
+    else
+    {
+      for (int i = index; i < shiftIndex; i++)
+      {
+        lineEnds[i] -= shift;
+      }
+    }
+
+    if (added.length != removed)
+    {
+      newLineEnds = lineEnds;
+      if (lineCount + added.length - removed > lineEnds.length)
+      {
+        newLineEnds = Arrays.copyOf(lineEnds, (lineCount + added.length - removed) * 3 / 2);
+      }
+      System.arraycopy(lineEnds, index + removed, newLineEnds, index + added.length, lineCount - index - removed);
+      lineEnds = newLineEnds;
+      lineCount += added.length - removed;
+    }
+
+    for (int i = 0; i < added.length; i++)
+    {
+      lineEnds[index + i] = added[i].getEndOffset();
+    }
+
+    shiftIndex = index + added.length;
+    shift = shiftIndex < lineCount ? shift + delta : 0;
   }
 
   public void reset()
   {
+    freezeLines();
     lineArray = null;
-    lineOffsetArray = null;
+    lineEnds = null;
+    lineCount = 0;
   }
 
   public void write() throws JMeldException
@@ -321,6 +644,22 @@ public abstract class AbstractBufferDocument
       super(length);
     }
 
+    @Override
+    public UndoableEdit insertString(int where, String str)
+        throws BadLocationException
+    {
+      freezeLines();
+      return super.insertString(where, str);
+    }
+
+    @Override
+    public UndoableEdit remove(int where, int nitems)
+        throws BadLocationException
+    {
+      freezeLines();
+      return super.remove(where, nitems);
+    }
+
     char[] getCharArray()
     {
       return (char[]) getArray();
@@ -456,24 +795,88 @@ public abstract class AbstractBufferDocument
     }
   }
 
+  /**
+   * The text of the lines of one getLines() as it was before the document
+   * changed.
+   */
+  private static class FrozenText
+  {
+    private char[] chars;
+    private int[] lineEnds;
+  }
+
+  /**
+   * A line of the document. It is only a line number; the offsets of the line
+   * are looked up in the line index every time they are needed. After the
+   * document changed the line uses the copy of the text it had.
+   */
   public class Line
       implements Comparable
   {
-    Element element;
+    final int index;
+    private FrozenText frozenText;
 
-    Line(Element element)
+    Line(int index)
     {
-      this.element = element;
+      this.index = index;
     }
 
+    /**
+     * @return null if the line doesn't read the document anymore.
+     */
     MyGapContent getContent()
     {
-      return content;
+      return frozenText == null ? content : null;
+    }
+
+    int getStartOffset()
+    {
+      if (frozenText != null)
+      {
+        return index == 0 ? 0 : frozenText.lineEnds[index - 1];
+      }
+
+      return getLineStart(index);
+    }
+
+    int getEndOffset()
+    {
+      if (frozenText != null)
+      {
+        return frozenText.lineEnds[index];
+      }
+
+      return getLineEnd(index);
     }
 
     public int getOffset()
     {
-      return element.getEndOffset();
+      return getEndOffset();
+    }
+
+    /**
+     * Let the segment point to the characters of this line. The characters
+     * are only copied if the line spans the gap in the content.
+     */
+    public void getChars(Segment segment)
+    {
+      if (frozenText != null)
+      {
+        segment.array = frozenText.chars;
+        segment.offset = getStartOffset();
+        segment.count = getEndOffset() - getStartOffset();
+        return;
+      }
+
+      try
+      {
+        content.getChars(getStartOffset(), getEndOffset() - getStartOffset(), segment);
+      }
+      catch (BadLocationException ex)
+      {
+        ex.printStackTrace();
+        segment.count = 0;
+      }
     }
 
     public void print()
@@ -484,7 +887,6 @@ public abstract class AbstractBufferDocument
     @Override
     public boolean equals(Object o)
     {
-      Element element2;
       Line line2;
       int start1;
       int start2;
@@ -497,12 +899,18 @@ public abstract class AbstractBufferDocument
       }
 
       line2 = ((Line) o);
-      element2 = line2.element;
 
-      start1 = element.getStartOffset();
-      end1 = element.getEndOffset();
-      start2 = element2.getStartOffset();
-      end2 = element2.getEndOffset();
+      // A line that is not in a GapContent (See MappedFileDocument and
+      // freezeLines())
+      if (getContent() == null || line2.getContent() == null)
+      {
+        return contentEquals(line2);
+      }
+
+      start1 = getStartOffset();
+      end1 = getEndOffset();
+      start2 = line2.getStartOffset();
+      end2 = line2.getEndOffset();
 
       // If the length is different the element is not equal!
       if ((end1 - start1) != (end2 - start2))
@@ -513,18 +921,63 @@ public abstract class AbstractBufferDocument
       return content.equals(line2.getContent(), start1, end1, start2);
     }
 
+    private boolean contentEquals(Line line2)
+    {
+      Segment segment1;
+      Segment segment2;
+
+      segment1 = new Segment();
+      segment2 = new Segment();
+      getChars(segment1);
+      line2.getChars(segment2);
+
+      if (segment1.count != segment2.count)
+      {
+        return false;
+      }
+
+      for (int i = 0; i < segment1.count; i++)
+      {
+        if (segment1.array[segment1.offset + i] != segment2.array[segment2.offset + i])
+        {
+          return false;
+        }
+      }
+
+      return true;
+    }
+
     @Override
     public int hashCode()
     {
-      return content.hashCode(element.getStartOffset(), element.getEndOffset());
+      int h;
+
+      if (frozenText != null)
+      {
+        // Same hash as a line in a GapContent
+        h = 0;
+        for (int i = getStartOffset(); i < getEndOffset(); i++)
+        {
+          h = 31 * h + frozenText.chars[i];
+        }
+
+        return h == 0 ? 1 : h;
+      }
+
+      return content.hashCode(getStartOffset(), getEndOffset());
     }
 
     @Override
     public String toString()
     {
+      if (frozenText != null)
+      {
+        return new String(frozenText.chars, getStartOffset(), getEndOffset() - getStartOffset());
+      }
+
       try
       {
-        return content.getString(element.getStartOffset(), element.getEndOffset() - element.getStartOffset());
+        return content.getString(getStartOffset(), getEndOffset() - getStartOffset());
       }
       catch (Exception ex)
       {
@@ -569,7 +1022,7 @@ public abstract class AbstractBufferDocument
     documentChanged(de);
   }
 
-  private void initDigest()
+  void initDigest()
   {
     originalLength = document != null ? document.getLength() : 0;
     digest = createDigest();
@@ -590,28 +1043,16 @@ public abstract class AbstractBufferDocument
     int startLine;
     int numberOfLinesChanged;
     JMDocumentEvent jmde;
-    String text;
 
     jmde = new JMDocumentEvent(this, de);
     numberOfLinesChanged = 0;
 
-    if (lineArray != null)
+    if (lineEnds != null)
     {
       // Make large documents perform well!
-      if (de.getType() == DocumentEvent.EventType.INSERT)
-      {
-        try
-        {
-          text = document.getText(de.getOffset(), de.getLength());
-        }
-        catch (BadLocationException ex)
-        {
-        }
-      }
-
-      numberOfLinesChanged = getLines().length;
-      reset();
-      numberOfLinesChanged = getLines().length - numberOfLinesChanged;
+      numberOfLinesChanged = lineCount;
+      updateLines(de);
+      numberOfLinesChanged = lineCount - numberOfLinesChanged;
 
       startLine = getLineForOffset(de.getOffset() + 1);
       if (startLine < 0)
@@ -24,6 +24,7 @@ import javax.swing.text.PlainDocument;
 import org.fxmisc.richtext.model.EditableStyledDocument;
 import org.fxmisc.richtext.model.StyledDocument;
 import org.jmeld.JMeldException;
+import org.jmeld.util.ProgressIF;
 import org.jmeld.vc.BlameIF;
 
 public interface BufferDocumentIF
@@ -61,6 +62,9 @@ public interface BufferDocumentIF
   public void read()
       throws JMeldException;
 
+  public void read(ProgressIF progress)
+      throws JMeldException;
+
   public void write()
       throws JMeldException;
 
@@ -28,13 +28,29 @@ import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import javax.swing.text.BadLocationException;
 import org.jmeld.JMeldException;
 import org.jmeld.util.CharsetDetector;
+import org.jmeld.util.ProgressIF;
 
 public class FileDocument
   extends AbstractBufferDocument
 {
+  // class variables:
+  // Larger files are mapped in memory and are read-only (See MappedFileDocument)
+  private static final long MAPPED_SIZE = 64L * 1024L * 1024L;
+  // The number of bytes that are read or decoded before the progress is
+  // reported.
+  private static final int BLOCK_SIZE = 1024 * 1024;
+
   // instance variables:
   private File file;
   private Charset charset;
@@ -56,6 +72,25 @@ public class FileDocument
     setShortName(file.getName());
   }
 
+  /**
+   * Create a document for this file. A large file is not read into memory if
+   * the document doesn't need to be edited.
+   */
+  public static FileDocument create(File file, boolean readonly)
+  {
+    if (readonly && file.length() > MAPPED_SIZE)
+    {
+      return new MappedFileDocument(file);
+    }
+
+    return new FileDocument(file);
+  }
+
+  File getFile()
+  {
+    return file;
+  }
+
   public int getBufferSize()
   {
     return (int) file.length();
@@ -76,7 +111,7 @@ public class FileDocument
       // If you use new FileReader(file) you get a reader
       // with the default charset.
       bis = new BufferedInputStream(new FileInputStream(file));
-      charset = CharsetDetector.getInstance().getCharset(bis);
+      charset = CharsetDetector.getInstance().getCharset(file);
       return new BufferedReader(new InputStreamReader(bis, charset));
     }
     catch (Exception ex)
@@ -85,6 +120,139 @@ public class FileDocument
     }
   }
 
+  /**
+   * Read all bytes at once and detect the charset from them. The file is read
+   * only once.
+   */
+  @Override
+  boolean readText(ProgressIF progress, TextAppender appender) throws JMeldException
+  {
+    byte[] bytes;
+    int length;
+    int n;
+    int b;
+    FileInputStream fis;
+
+    if (!file.isFile() || !file.canRead())
+    {
+      throw new JMeldException("Could not open file: " + file.getAbsolutePath());
+    }
+
+    try
+    {
+      bytes = new byte[(int) file.length()];
+      length = 0;
+
+      fis = new FileInputStream(file);
+      try
+      {
+        while (true)
+        {
+          if (length == bytes.length)
+          {
+            // The file is larger than it was (or it is at the end).
+            b = fis.read();
+            if (b == -1)
+            {
+              break;
+            }
+            bytes = Arrays.copyOf(bytes, Math.max(BLOCK_SIZE, length * 2));
+            bytes[length++] = (byte) b;
+          }
+
+          n = fis.read(bytes, length, Math.min(BLOCK_SIZE, bytes.length - length));
+          if (n == -1)
+          {
+            break;
+          }
+          length += n;
+
+          progress(progress, length, 2L * bytes.length);
+        }
+      }
+      finally
+      {
+        fis.close();
+      }
+
+      charset = CharsetDetector.getInstance().getCharset(file, bytes, length);
+      decode(bytes, length, progress, appender);
+      return true;
+    }
+    catch (IOException | BadLocationException ex)
+    {
+      throw new JMeldException("Could not read file: " + file.getName(), ex);
+    }
+  }
+
+  /**
+   * Decode the bytes in blocks. Every block is appended to the document before
+   * the next block is decoded in the same buffer.
+   */
+  private void decode(byte[] bytes, int length, ProgressIF progress, TextAppender appender)
+      throws BadLocationException
+  {
+    CharsetDecoder decoder;
+    ByteBuffer in;
+    CharBuffer out;
+    CoderResult result;
+    boolean endOfInput;
+
+    // Malformed input is replaced (the same as InputStreamReader does).
+    decoder = charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    in = ByteBuffer.wrap(bytes, 0, length);
+    out = CharBuffer.allocate(BLOCK_SIZE);
+    while (true)
+    {
+      endOfInput = length - in.position() <= BLOCK_SIZE;
+      in.limit(endOfInput ? length : in.position() + BLOCK_SIZE);
+
+      result = decoder.decode(in, out, endOfInput);
+      append(out, appender);
+      if (result.isOverflow())
+      {
+        continue;
+      }
+
+      progress(progress, length + in.position(), 2L * length);
+      if (endOfInput)
+      {
+        break;
+      }
+    }
+
+    while (decoder.flush(out).isOverflow())
+    {
+      append(out, appender);
+    }
+    append(out, appender);
+  }
+
+  private static void append(CharBuffer buffer, TextAppender appender)
+      throws BadLocationException
+  {
+    buffer.flip();
+    appender.append(buffer.array(), 0, buffer.limit());
+    buffer.clear();
+  }
+
+  private static void progress(ProgressIF progress, long done, long total)
+  {
+    if (progress == null)
+    {
+      return;
+    }
+
+    if (progress.isCancelled())
+    {
+      throw new CancellationException();
+    }
+
+    progress.setProgress(done, total);
+  }
+
   protected Writer getWriter() throws JMeldException
   {
     BufferedOutputStream bos;
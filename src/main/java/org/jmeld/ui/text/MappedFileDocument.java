@@ -0,0 +1,855 @@
+/*
+   JMeld is a visual diff and merge tool.
+   Copyright (C) 2007  Kees Kuip
+   This library is free software; you can redistribute it and/or
+   modify it under the terms of the GNU Lesser General Public
+   License as published by the Free Software Foundation; either
+   version 2.1 of the License, or (at your option) any later version.
+   This library is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+   Lesser General Public License for more details.
+   You should have received a copy of the GNU Lesser General Public
+   License along with this library; if not, write to the Free Software
+   Foundation, Inc., 51 Franklin Street, Fifth Floor,
+   Boston, MA  02110-1301  USA
+ */
+package org.jmeld.ui.text;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.AttributeSet;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import javax.swing.text.PlainDocument;
+import javax.swing.text.Position;
+import javax.swing.text.Segment;
+import javax.swing.text.SimpleAttributeSet;
+import javax.swing.undo.UndoableEdit;
+import org.jmeld.JMeldException;
+import org.jmeld.util.CharsetDetector;
+import org.jmeld.util.ProgressIF;
+
+/**
+ * A read-only document that maps its file in memory. <br>
+ * Only an index with the start of every line (in bytes and in characters) is
+ * kept on the heap. The characters of a line are decoded every time they are
+ * needed. The document looks exactly like a document that is read by
+ * AbstractBufferDocument: Line separators are replaced by '\n' and the last
+ * line also ends with a '\n'. <br>
+ * The characters of a line can only be counted without decoding if the
+ * charset is UTF-8 or has 1 byte for every character. In all other cases (or
+ * if the file is not valid UTF-8) the file is read in memory just like a
+ * FileDocument.
+ */
+public class MappedFileDocument
+    extends FileDocument
+{
+  // Class variables:
+  // A file is mapped in regions because 1 mapping can't be larger than 2Gb.
+  private static final int REGION_SHIFT = 30;
+  private static final long REGION_SIZE = 1L << REGION_SHIFT;
+  // Report the progress of indexing every 16Mb.
+  private static final int PROGRESS_MASK = (1 << 24) - 1;
+
+  // Instance variables:
+  private Charset charset;
+  private long size;
+  private MappedByteBuffer[] regions;
+  // The start of line i is lineStartBytes[i] and lineStartChars[i]. Both
+  // arrays have 1 extra element with the end of the last line.
+  private long[] lineStartBytes;
+  private int[] lineStartChars;
+  private int lineCount;
+  private Line[] lines;
+  private PlainDocument document;
+
+  public MappedFileDocument(File file)
+  {
+    super(file);
+  }
+
+  @Override
+  public void read(ProgressIF progress)
+      throws JMeldException
+  {
+    regions = null;
+    lines = null;
+    document = null;
+
+    try
+    {
+      charset = detectCharset();
+      if (isIndexable(charset))
+      {
+        map();
+        if (createIndex(charset.equals(StandardCharsets.UTF_8),
+                        progress))
+        {
+          document = new ReadonlyDocument();
+          reset();
+          initDigest();
+          return;
+        }
+      }
+    }
+    catch (IOException ex)
+    {
+      throw new JMeldException("Problem mapping document (name=" + getName() + ")",
+                               ex);
+    }
+
+    // This file can't be indexed. Read it in memory.
+    regions = null;
+    lineStartBytes = null;
+    lineStartChars = null;
+    super.read(progress);
+  }
+
+  private boolean isMapped()
+  {
+    return regions != null;
+  }
+
+  private Charset detectCharset()
+  {
+    return CharsetDetector.getInstance().getCharset(getFile());
+  }
+
+  /**
+   * @return true if the number of characters can be counted from the bytes.
+   */
+  private boolean isIndexable(Charset charset)
+  {
+    byte[] ascii;
+
+    if (charset.equals(StandardCharsets.UTF_8))
+    {
+      return true;
+    }
+
+    if (!charset.canEncode() || charset.newDecoder().maxCharsPerByte() != 1.0f
+        || charset.newEncoder().maxBytesPerChar() != 1.0f)
+    {
+      return false;
+    }
+
+    // The line separators are found by looking at the bytes.
+    ascii = new byte[128];
+    for (int i = 0; i < ascii.length; i++)
+    {
+      ascii[i] = (byte) i;
+    }
+
+    return new String(ascii,
+                      charset).equals(new String(ascii,
+                                                 StandardCharsets.US_ASCII));
+  }
+
+  private void map()
+      throws IOException
+  {
+    FileChannel channel;
+    long position;
+
+    channel = FileChannel.open(getFile().toPath(),
+                               StandardOpenOption.READ);
+    try
+    {
+      size = channel.size();
+      regions = new MappedByteBuffer[(int) ((size + REGION_SIZE - 1) >>> REGION_SHIFT)];
+      for (int i = 0; i < regions.length; i++)
+      {
+        position = (long) i << REGION_SHIFT;
+        regions[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+                                 position,
+                                 Math.min(REGION_SIZE,
+                                          size - position));
+      }
+    }
+    finally
+    {
+      // The mapping stays valid after the channel is closed.
+      channel.close();
+    }
+  }
+
+  /**
+   * Scan all bytes once to find the lines and count their characters.
+   *
+   * @return false if the file is not valid UTF-8.
+   */
+  private boolean createIndex(boolean utf8,
+      ProgressIF progress)
+      throws IOException
+  {
+    MappedByteBuffer region;
+    long regionStart;
+    long totalChars;
+    int lineChars;
+    int previous;
+    int b;
+    // UTF-8: the number of continuation bytes still expected and their range.
+    int pending;
+    int min;
+    int max;
+
+    lineStartBytes = new long[1024];
+    lineStartChars = new int[1024];
+    lineCount = 0;
+    totalChars = 0;
+    lineChars = 0;
+    previous = 0;
+    pending = 0;
+    min = 0x80;
+    max = 0xBF;
+
+    for (int r = 0; r < regions.length; r++)
+    {
+      region = regions[r];
+      regionStart = (long) r << REGION_SHIFT;
+      for (int i = 0; i < region.limit(); i++)
+      {
+        if (progress != null && (i & PROGRESS_MASK) == 0)
+        {
+          if (progress.isCancelled())
+          {
+            throw new CancellationException();
+          }
+          progress.setProgress(regionStart + i,
+                               size);
+        }
+
+        b = region.get(i) & 0xFF;
+        if (b == '\n' || b == '\r')
+        {
+          if (pending > 0)
+          {
+            return false;
+          }
+
+          if (b == '\n' && previous == '\r')
+          {
+            // The '\n' of "\r\n" belongs to the line that ended at '\r'.
+            lineStartBytes[lineCount] = regionStart + i + 1;
+          }
+          else
+          {
+            totalChars += lineChars + 1;
+            lineChars = 0;
+            addLine(regionStart + i + 1,
+                    totalChars);
+          }
+        }
+        else if (!utf8)
+        {
+          lineChars++;
+        }
+        else if (pending > 0)
+        {
+          if (b < min || b > max)
+          {
+            return false;
+          }
+
+          pending--;
+          min = 0x80;
+          max = 0xBF;
+        }
+        else if (b < 0x80)
+        {
+          lineChars++;
+        }
+        else if (b >= 0xC2 && b <= 0xDF)
+        {
+          lineChars++;
+          pending = 1;
+        }
+        else if (b >= 0xE0 && b <= 0xEF)
+        {
+          // No overlong encodings and no surrogates.
+          lineChars++;
+          pending = 2;
+          min = b == 0xE0 ? 0xA0 : 0x80;
+          max = b == 0xED ? 0x9F : 0xBF;
+        }
+        else if (b >= 0xF0 && b <= 0xF4)
+        {
+          // A surrogate pair.
+          lineChars += 2;
+          pending = 3;
+          min = b == 0xF0 ? 0x90 : 0x80;
+          max = b == 0xF4 ? 0x8F : 0xBF;
+        }
+        else
+        {
+          return false;
+        }
+
+        previous = b;
+      }
+    }
+
+    if (pending > 0)
+    {
+      return false;
+    }
+
+    if (progress != null)
+    {
+      progress.setProgress(size,
+                           size);
+    }
+
+    // The last line always ends with a '\n' (just like a PlainDocument).
+    totalChars += lineChars + 1;
+    addLine(size,
+            totalChars);
+
+    lineStartBytes = Arrays.copyOf(lineStartBytes,
+                                   lineCount + 1);
+    lineStartChars = Arrays.copyOf(lineStartChars,
+                                   lineCount + 1);
+
+    return true;
+  }
+
+  private void addLine(long startByte,
+      long startChar)
+      throws IOException
+  {
+    if (startChar >= Integer.MAX_VALUE)
+    {
+      throw new IOException("File " + getFile() + " has too many characters");
+    }
+
+    lineCount++;
+    if (lineCount == lineStartBytes.length)
+    {
+      lineStartBytes = Arrays.copyOf(lineStartBytes,
+                                     lineCount * 2);
+      lineStartChars = Arrays.copyOf(lineStartChars,
+                                     lineCount * 2);
+    }
+
+    lineStartBytes[lineCount] = startByte;
+    lineStartChars[lineCount] = (int) startChar;
+  }
+
+  private byte getByte(long position)
+  {
+    return regions[(int) (position >>> REGION_SHIFT)].get((int) (position & (REGION_SIZE - 1)));
+  }
+
+  /**
+   * Decode a line without its line separator and append a '\n'.
+   */
+  private char[] decodeLine(int line)
+  {
+    long start;
+    long end;
+    byte[] bytes;
+    String text;
+    char[] chars;
+
+    start = lineStartBytes[line];
+    end = lineStartBytes[line + 1];
+    if (end > start && getByte(end - 1) == '\n')
+    {
+      end--;
+    }
+    if (end > start && getByte(end - 1) == '\r')
+    {
+      end--;
+    }
+
+    bytes = new byte[(int) (end - start)];
+    for (int i = 0; i < bytes.length; i++)
+    {
+      bytes[i] = getByte(start + i);
+    }
+
+    text = new String(bytes,
+                      charset);
+    chars = new char[text.length() + 1];
+    text.getChars(0,
+                  text.length(),
+                  chars,
+                  0);
+    chars[text.length()] = '\n';
+
+    return chars;
+  }
+
+  @Override
+  public PlainDocument getDocument()
+  {
+    if (!isMapped())
+    {
+      return super.getDocument();
+    }
+
+    return document;
+  }
+
+  @Override
+  public Line[] getLines()
+  {
+    if (!isMapped())
+    {
+      return super.getLines();
+    }
+
+    if (lines == null)
+    {
+      lines = new Line[lineCount];
+      for (int i = 0; i < lineCount; i++)
+      {
+        lines[i] = new MappedLine(i);
+      }
+    }
+
+    return lines;
+  }
+
+  @Override
+  public String getLineText(int lineNumber)
+  {
+    if (!isMapped())
+    {
+      return super.getLineText(lineNumber);
+    }
+
+    if (lineNumber >= lineCount || lineNumber < 0)
+    {
+      return "<NO LINE>";
+    }
+
+    return new String(decodeLine(lineNumber));
+  }
+
+  @Override
+  public int getNumberOfLines()
+  {
+    if (!isMapped())
+    {
+      return super.getNumberOfLines();
+    }
+
+    return lineCount;
+  }
+
+  @Override
+  public int getOffsetForLine(int lineNumber)
+  {
+    if (!isMapped())
+    {
+      return super.getOffsetForLine(lineNumber);
+    }
+
+    if (lineNumber < 0)
+    {
+      return -1;
+    }
+
+    return lineStartChars[Math.min(lineNumber,
+                                   lineCount)];
+  }
+
+  @Override
+  public int getLineForOffset(int offset)
+  {
+    int searchIndex;
+
+    if (!isMapped())
+    {
+      return super.getLineForOffset(offset);
+    }
+
+    if (offset < 0)
+    {
+      return 0;
+    }
+
+    if (offset >= lineStartChars[lineCount])
+    {
+      return lineCount - 1;
+    }
+
+    searchIndex = Arrays.binarySearch(lineStartChars,
+                                      0,
+                                      lineCount + 1,
+                                      offset);
+    if (searchIndex >= 0)
+    {
+      return searchIndex;
+    }
+
+    return (-searchIndex) - 2;
+  }
+
+  @Override
+  public void write()
+      throws JMeldException
+  {
+    if (!isMapped())
+    {
+      super.write();
+      return;
+    }
+
+    throw new JMeldException("Document (name=" + getName() + ") is read-only");
+  }
+
+  @Override
+  public int createDigest()
+  {
+    if (!isMapped())
+    {
+      return super.createDigest();
+    }
+
+    // The document can't be changed.
+    return 0;
+  }
+
+  @Override
+  public boolean isReadonly()
+  {
+    return isMapped() || super.isReadonly();
+  }
+
+  class MappedLine
+      extends Line
+  {
+    // The hash and the characters are kept once the line has been decoded.
+    // The characters are released again when memory gets low.
+    private int hash;
+    private SoftReference<char[]> charsReference;
+
+    MappedLine(int index)
+    {
+      super(index);
+    }
+
+    @Override
+    MyGapContent getContent()
+    {
+      // The characters are decoded from the mapped file.
+      return null;
+    }
+
+    @Override
+    public int getOffset()
+    {
+      return lineStartChars[index + 1];
+    }
+
+    @Override
+    public void getChars(Segment segment)
+    {
+      char[] chars;
+
+      chars = getChars();
+      segment.array = chars;
+      segment.offset = 0;
+      segment.count = chars.length;
+    }
+
+    private char[] getChars()
+    {
+      char[] chars;
+
+      chars = charsReference == null ? null : charsReference.get();
+      if (chars == null)
+      {
+        chars = decodeLine(index);
+        charsReference = new SoftReference<char[]>(chars);
+      }
+
+      return chars;
+    }
+
+    @Override
+    public int hashCode()
+    {
+      int h;
+
+      if (hash == 0)
+      {
+        // Same hash as a line in a GapContent
+        h = 0;
+        for (char c : getChars())
+        {
+          h = 31 * h + c;
+        }
+
+        hash = h == 0 ? 1 : h;
+      }
+
+      return hash;
+    }
+
+    @Override
+    public String toString()
+    {
+      return new String(getChars());
+    }
+  }
+
+  /**
+   * A PlainDocument that can't be changed. The lines are the elements of the
+   * root element. They are created when they are needed.
+   */
+  private class ReadonlyDocument
+      extends PlainDocument
+  {
+    private static final long serialVersionUID = 1L;
+
+    private Element root;
+
+    ReadonlyDocument()
+    {
+      super(new MappedContent());
+
+      root = new RootElement();
+    }
+
+    @Override
+    public Element getDefaultRootElement()
+    {
+      return root;
+    }
+
+    private class RootElement
+        implements Element
+    {
+      public Document getDocument()
+      {
+        return ReadonlyDocument.this;
+      }
+
+      public Element getParentElement()
+      {
+        return null;
+      }
+
+      public String getName()
+      {
+        return AbstractDocument.ParagraphElementName;
+      }
+
+      public AttributeSet getAttributes()
+      {
+        return SimpleAttributeSet.EMPTY;
+      }
+
+      public int getStartOffset()
+      {
+        return 0;
+      }
+
+      public int getEndOffset()
+      {
+        return lineStartChars[lineCount];
+      }
+
+      public int getElementIndex(int offset)
+      {
+        return getLineForOffset(offset);
+      }
+
+      public int getElementCount()
+      {
+        return lineCount;
+      }
+
+      public Element getElement(int index)
+      {
+        if (index < 0 || index >= lineCount)
+        {
+          return null;
+        }
+
+        return new LineElement(this,
+                               index);
+      }
+
+      public boolean isLeaf()
+      {
+        return false;
+      }
+    }
+
+    private class LineElement
+        implements Element
+    {
+      private final Element parent;
+      private final int index;
+
+      LineElement(Element parent,
+          int index)
+      {
+        this.parent = parent;
+        this.index = index;
+      }
+
+      public Document getDocument()
+      {
+        return ReadonlyDocument.this;
+      }
+
+      public Element getParentElement()
+      {
+        return parent;
+      }
+
+      public String getName()
+      {
+        return AbstractDocument.ContentElementName;
+      }
+
+      public AttributeSet getAttributes()
+      {
+        return SimpleAttributeSet.EMPTY;
+      }
+
+      public int getStartOffset()
+      {
+        return lineStartChars[index];
+      }
+
+      public int getEndOffset()
+      {
+        return lineStartChars[index + 1];
+      }
+
+      public int getElementIndex(int offset)
+      {
+        return -1;
+      }
+
+      public int getElementCount()
+      {
+        return 0;
+      }
+
+      public Element getElement(int index)
+      {
+        return null;
+      }
+
+      public boolean isLeaf()
+      {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * The characters of the mapped file.
+   */
+  private class MappedContent
+      implements AbstractDocument.Content
+  {
+    public Position createPosition(final int offset)
+        throws BadLocationException
+    {
+      // The content never changes so a position never moves.
+      return new Position()
+      {
+        public int getOffset()
+        {
+          return offset;
+        }
+      };
+    }
+
+    public int length()
+    {
+      return lineStartChars[lineCount];
+    }
+
+    public UndoableEdit insertString(int where,
+        String str)
+        throws BadLocationException
+    {
+      throw new BadLocationException("Document is read-only",
+                                     where);
+    }
+
+    public UndoableEdit remove(int where,
+        int nitems)
+        throws BadLocationException
+    {
+      throw new BadLocationException("Document is read-only",
+                                     where);
+    }
+
+    public String getString(int where,
+        int len)
+        throws BadLocationException
+    {
+      Segment segment;
+
+      segment = new Segment();
+      getChars(where,
+               len,
+               segment);
+
+      return segment.toString();
+    }
+
+    public void getChars(int where,
+        int len,
+        Segment txt)
+        throws BadLocationException
+    {
+      char[] result;
+      char[] chars;
+      int line;
+      int offset;
+      int index;
+      int count;
+
+      if (where < 0 || len < 0 || where + len > length())
+      {
+        throw new BadLocationException("Invalid range",
+                                       where);
+      }
+
+      result = new char[len];
+      index = 0;
+      line = getLineForOffset(where);
+      offset = where - lineStartChars[line];
+      while (index < len)
+      {
+        chars = decodeLine(line);
+        count = Math.min(chars.length - offset,
+                         len - index);
+        System.arraycopy(chars,
+                         offset,
+                         result,
+                         index,
+                         count);
+        index += count;
+        offset = 0;
+        line++;
+      }
+
+      txt.array = result;
+      txt.offset = 0;
+      txt.count = len;
+    }
+  }
+}
@@ -1,8 +1,13 @@
 package org.jmeld.util;
 
 import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import org.jmeld.fx.settings.EditorSettingsFx;
@@ -14,13 +19,29 @@ public class CharsetDetector
   // Class variables:
   // Singleton:
   private static CharsetDetector instance = new CharsetDetector();
+  // The number of bytes that are looked at to detect the charset.
+  private static final int SAMPLE_SIZE = 64 * 1024;
+  // The number of bytes that are given to ICU (the same as ICU reads from a
+  // stream).
+  private static final int ICU_SAMPLE_SIZE = 8000;
+  // The maximum number of files in the cache.
+  private static final int CACHE_SIZE = 1000;
 
   // Instance variables:
   private Map<String, Charset> charsetMap;
+  private Map<String, CachedCharset> cache;
 
   private CharsetDetector()
   {
     charsetMap = Charset.availableCharsets();
+    cache = new LinkedHashMap<String, CachedCharset>(16, 0.75f, true)
+    {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, CachedCharset> eldest)
+      {
+        return size() > CACHE_SIZE;
+      }
+    };
   }
 
   public static CharsetDetector getInstance()
@@ -28,7 +49,111 @@ public class CharsetDetector
     return instance;
   }
 
+  /**
+   * The stream is reset to the position it had before.
+   */
   public Charset getCharset(BufferedInputStream bis)
+  {
+    Charset charset;
+
+    charset = getConfiguredCharset();
+    if (charset == null)
+    {
+      try
+      {
+        charset = detectCharset(bis);
+      }
+      catch (IOException ex)
+      {
+        ex.printStackTrace();
+      }
+    }
+
+    return charset == null ? getDefaultCharset() : charset;
+  }
+
+  /**
+   * The detected charset of a file is cached until the file changes.
+   */
+  public Charset getCharset(File file)
+  {
+    return getCharset(file, null, 0);
+  }
+
+  /**
+   * The detected charset of a file is cached until the file changes.
+   *
+   * @param bytes
+   *          all bytes of the file. They are used instead of reading the file
+   *          again and all of them are checked before UTF-8 is chosen. Can be
+   *          null.
+   */
+  public Charset getCharset(File file, byte[] bytes, int length)
+  {
+    Charset charset;
+    CachedCharset cached;
+    String key;
+    BufferedInputStream bis;
+
+    charset = getConfiguredCharset();
+    if (charset == null)
+    {
+      key = file.getAbsolutePath();
+      synchronized (cache)
+      {
+        cached = cache.get(key);
+      }
+
+      // A charset that was detected from a sample is detected again if all
+      // bytes are known.
+      if (cached != null && cached.isValid(file) && (cached.complete || bytes == null))
+      {
+        return cached.charset;
+      }
+
+      cached = new CachedCharset(file);
+      try
+      {
+        if (bytes != null)
+        {
+          charset = detectCharset(bytes, length, false);
+          cached.complete = true;
+        }
+        else
+        {
+          bis = new BufferedInputStream(new FileInputStream(file), SAMPLE_SIZE + 1);
+          try
+          {
+            charset = detectCharset(bis);
+          }
+          finally
+          {
+            bis.close();
+          }
+        }
+      }
+      catch (IOException ex)
+      {
+        ex.printStackTrace();
+      }
+
+      if (charset != null)
+      {
+        cached.charset = charset;
+        synchronized (cache)
+        {
+          cache.put(key, cached);
+        }
+      }
+    }
+
+    return charset == null ? getDefaultCharset() : charset;
+  }
+
+  /**
+   * @return the charset of the settings or null if it has to be detected.
+   */
+  private Charset getConfiguredCharset()
   {
     Charset charset;
     EditorSettingsFx settings;
@@ -46,33 +171,92 @@ public class CharsetDetector
     }
     else if (settings.getDetectFileEncodingEnabled())
     {
-      charset = detectCharset(bis);
+      return null;
     }
 
-    if (charset == null)
+    return charset == null ? getDefaultCharset() : charset;
+  }
+
+  private Charset detectCharset(BufferedInputStream bis) throws IOException
+  {
+    byte[] sample;
+    int length;
+    int n;
+
+    sample = new byte[SAMPLE_SIZE + 1];
+    bis.mark(sample.length);
+    try
     {
-      charset = getDefaultCharset();
+      length = 0;
+      while (length < sample.length && (n = bis.read(sample, length, sample.length - length)) > 0)
+      {
+        length += n;
+      }
+    }
+    finally
+    {
+      bis.reset();
     }
 
-    return charset;
+    return detectCharset(sample, Math.min(length, SAMPLE_SIZE), length > SAMPLE_SIZE);
   }
 
-  private Charset detectCharset(BufferedInputStream bis)
+  /**
+   * Look for a byte order mark first. Text that is valid UTF-8 is UTF-8
+   * (this includes plain ASCII). Only the remaining text is given to ICU. If
+   * ICU doesn't find a charset every byte is a character (ISO-8859-1), so
+   * nothing is lost when the text is decoded.
+   *
+   * @param truncated
+   *          true if the sample is not the whole file. The last character
+   *          of the sample may be incomplete.
+   */
+  private Charset detectCharset(byte[] sample, int length, boolean truncated)
   {
+    byte[] icuSample;
+
+    if (length >= 3 && (sample[0] & 0xFF) == 0xEF && (sample[1] & 0xFF) == 0xBB && (sample[2] & 0xFF) == 0xBF)
+    {
+      return StandardCharsets.UTF_8;
+    }
+
+    if (length >= 2 && (sample[0] & 0xFF) == 0xFE && (sample[1] & 0xFF) == 0xFF)
+    {
+      return StandardCharsets.UTF_16BE;
+    }
+
+    if (length >= 2 && (sample[0] & 0xFF) == 0xFF && (sample[1] & 0xFF) == 0xFE)
+    {
+      if (length >= 4 && sample[2] == 0 && sample[3] == 0 && charsetMap.containsKey("UTF-32LE"))
+      {
+        return charsetMap.get("UTF-32LE");
+      }
+      return StandardCharsets.UTF_16LE;
+    }
+
+    if (isUTF8(sample, length, truncated))
+    {
+      return StandardCharsets.UTF_8;
+    }
+
     try
     {
       com.ibm.icu.text.CharsetDetector detector;
       CharsetMatch match;
       Charset foundCharset;
 
+      icuSample = new byte[Math.min(length, ICU_SAMPLE_SIZE)];
+      System.arraycopy(sample, 0, icuSample, 0, icuSample.length);
+
       detector = new com.ibm.icu.text.CharsetDetector();
-      detector.setText(bis);
+      detector.setText(icuSample);
 
       match = detector.detect();
       if (match != null)
       {
         foundCharset = charsetMap.get(match.getName());
-        if (foundCharset != null)
+        // ICU only sees the start of the text which can be valid UTF-8.
+        if (foundCharset != null && !foundCharset.equals(StandardCharsets.UTF_8))
         {
           return foundCharset;
         }
@@ -83,7 +267,89 @@ public class CharsetDetector
       ex.printStackTrace();
     }
 
-    return null;
+    return StandardCharsets.ISO_8859_1;
+  }
+
+  /**
+   * Check that the bytes are valid UTF-8. Overlong encodings, surrogates and
+   * code points above U+10FFFF are not valid. Runs of ASCII are checked 8
+   * bytes at a time.
+   */
+  static boolean isUTF8(byte[] bytes, int length, boolean truncated)
+  {
+    int i;
+    int b;
+    int b1;
+    int count;
+
+    i = 0;
+    while (i < length)
+    {
+      // Most text is ASCII: No byte has the high bit set.
+      while (i + 8 <= length
+             && (bytes[i] | bytes[i + 1] | bytes[i + 2] | bytes[i + 3] | bytes[i + 4] | bytes[i + 5]
+                 | bytes[i + 6] | bytes[i + 7]) >= 0)
+      {
+        i += 8;
+      }
+
+      if (i >= length)
+      {
+        break;
+      }
+
+      b = bytes[i] & 0xFF;
+      if (b < 0x80)
+      {
+        i++;
+        continue;
+      }
+
+      if (b >= 0xC2 && b <= 0xDF)
+      {
+        count = 1;
+      }
+      else if (b >= 0xE0 && b <= 0xEF)
+      {
+        count = 2;
+      }
+      else if (b >= 0xF0 && b <= 0xF4)
+      {
+        count = 3;
+      }
+      else
+      {
+        return false;
+      }
+
+      for (int j = 1; j <= count; j++)
+      {
+        if (i + j >= length)
+        {
+          // The sample ends in the middle of a character.
+          return truncated;
+        }
+
+        b1 = bytes[i + j] & 0xFF;
+        if ((b1 & 0xC0) != 0x80)
+        {
+          return false;
+        }
+
+        // The second byte decides about overlong encodings, surrogates and
+        // code points above U+10FFFF.
+        if (j == 1
+            && ((b == 0xE0 && b1 < 0xA0) || (b == 0xED && b1 > 0x9F) || (b == 0xF0 && b1 < 0x90)
+                || (b == 0xF4 && b1 > 0x8F)))
+        {
+          return false;
+        }
+      }
+
+      i += count + 1;
+    }
+
+    return true;
   }
 
   public Charset getDefaultCharset()
@@ -103,4 +369,24 @@ public class CharsetDetector
 
     return charsetNameList;
   }
+
+  private static class CachedCharset
+  {
+    private final long lastModified;
+    private final long length;
+    private Charset charset;
+    // True if the charset was detected from all bytes of the file.
+    private boolean complete;
+
+    CachedCharset(File file)
+    {
+      lastModified = file.lastModified();
+      length = file.length();
+    }
+
+    boolean isValid(File file)
+    {
+      return lastModified == file.lastModified() && length == file.length();
+    }
+  }
 }
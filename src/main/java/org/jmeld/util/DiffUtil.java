@@ -148,34 +148,12 @@ public class DiffUtil
       int line,
       boolean originalDelta)
   {
-    JMDelta previousDelta;
-    int anchor;
-
     if (revision == null)
     {
       return null;
     }
 
-    previousDelta = null;
-    for (JMDelta delta : revision.getDeltas())
-    {
-      if (originalDelta)
-      {
-        anchor = delta.getOriginal().getAnchor();
-      }
-      else
-      {
-        anchor = delta.getRevised().getAnchor();
-      }
-
-      if (anchor > line)
-      {
-        break;
-      }
-
-      previousDelta = delta;
-    }
-
-    return previousDelta;
+    return revision.findPreviousDelta(originalDelta,
+                                      line);
   }
 }
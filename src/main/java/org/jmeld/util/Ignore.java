@@ -137,6 +137,17 @@ public class Ignore
     return ignoreWhitespaceAtBegin.get() || ignoreWhitespaceInBetween.get() || ignoreWhitespaceAtEnd.get();
   }
 
+  /**
+   * @return all ignore options as a bitmask. 2 ignores with the same flags
+   *         ignore the same characters.
+   */
+  public int getFlags()
+  {
+    return (getIgnoreWhitespaceAtBegin() ? 1 : 0) | (getIgnoreWhitespaceInBetween() ? 2 : 0)
+           | (getIgnoreWhitespaceAtEnd() ? 4 : 0) | (getIgnoreEOL() ? 8 : 0) | (getIgnoreBlankLines() ? 16 : 0)
+           | (getIgnoreCase() ? 32 : 0);
+  }
+
   @Override
   public String toString()
   {
@@ -0,0 +1,38 @@
+/*
+   JMeld is a visual diff and merge tool.
+   Copyright (C) 2007  Kees Kuip
+   This library is free software; you can redistribute it and/or
+   modify it under the terms of the GNU Lesser General Public
+   License as published by the Free Software Foundation; either
+   version 2.1 of the License, or (at your option) any later version.
+   This library is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+   Lesser General Public License for more details.
+   You should have received a copy of the GNU Lesser General Public
+   License along with this library; if not, write to the Free Software
+   Foundation, Inc., 51 Franklin Street, Fifth Floor,
+   Boston, MA  02110-1301  USA
+ */
+package org.jmeld.util;
+
+/**
+ * Receives the progress of a long running job. <br>
+ * The methods are called on the thread(s) of the job. The job stops with a
+ * java.util.concurrent.CancellationException as soon as it sees that it is
+ * cancelled.
+ */
+public interface ProgressIF
+{
+  public void setState(String format,
+      Object... args);
+
+  /**
+   * @param total
+   *          is negative if the progress is unknown.
+   */
+  public void setProgress(long done,
+      long total);
+
+  public boolean isCancelled();
+}
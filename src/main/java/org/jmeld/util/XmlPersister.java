@@ -7,6 +7,7 @@ import com.fasterxml.jackson.databind.MapperFeature;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.dataformat.xml.XmlMapper;
 import java.io.File;
+import java.io.InputStream;
 
 public class XmlPersister
 {
@@ -44,6 +45,17 @@ public class XmlPersister
                                     clazz);
   }
 
+  /**
+   * Read a object of type 'clazz' from a stream. The stream is not closed.
+   */
+  public <T> T read(Class<T> clazz,
+      InputStream is)
+      throws Exception
+  {
+    return m_objectMapper.readValue(is,
+                                    clazz);
+  }
+
   /**
    * Write a object to a file.
    */
@@ -0,0 +1,239 @@
+/*
+   JMeld is a visual diff and merge tool.
+   Copyright (C) 2007  Kees Kuip
+   This library is free software; you can redistribute it and/or
+   modify it under the terms of the GNU Lesser General Public
+   License as published by the Free Software Foundation; either
+   version 2.1 of the License, or (at your option) any later version.
+   This library is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+   Lesser General Public License for more details.
+   You should have received a copy of the GNU Lesser General Public
+   License along with this library; if not, write to the Free Software
+   Foundation, Inc., 51 Franklin Street, Fifth Floor,
+   Boston, MA  02110-1301  USA
+ */
+package org.jmeld.util.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+
+/**
+ * Compares the bytes of 2 files block by block and stops at the first block
+ * that is different. <br>
+ * The first and the last bytes are compared before anything else because
+ * files that differ usually differ there (headers, trailers, checksums).
+ * Large files are mapped in memory one window at a time. Smaller files are
+ * read into direct buffers that are reused by the thread.
+ */
+class BinaryCompare
+{
+  // Class variables:
+  private static final int BLOCK_SIZE = 64 * 1024;
+  // The number of bytes at the head and at the tail that are compared first.
+  private static final int SAMPLE_SIZE = 4 * 1024;
+  // Files of this size and larger are mapped.
+  private static final long MAP_SIZE = 64L * 1024L * 1024L;
+  private static final int WINDOW_SIZE = 16 * 1024 * 1024;
+  private static final ThreadLocal<ByteBuffer[]> buffers = ThreadLocal.withInitial(() -> new ByteBuffer[]
+  { allocate(), allocate() });
+
+  private BinaryCompare()
+  {
+  }
+
+  /**
+   * @param digest
+   *          receives all bytes if the files are equal. Can be null.
+   */
+  static boolean equals(File fileLeft, File fileRight, MessageDigest digest)
+      throws IOException
+  {
+    FileChannel channelLeft;
+    FileChannel channelRight;
+    long size;
+
+    channelLeft = FileChannel.open(fileLeft.toPath(), StandardOpenOption.READ);
+    try
+    {
+      channelRight = FileChannel.open(fileRight.toPath(), StandardOpenOption.READ);
+      try
+      {
+        size = channelLeft.size();
+        if (size != channelRight.size())
+        {
+          return false;
+        }
+
+        if (size > 2 * SAMPLE_SIZE && !sampleEquals(channelLeft, channelRight, size))
+        {
+          return false;
+        }
+
+        if (size >= MAP_SIZE)
+        {
+          return mappedEquals(channelLeft, channelRight, size, digest);
+        }
+
+        return readEquals(channelLeft, channelRight, size, digest);
+      }
+      finally
+      {
+        channelRight.close();
+      }
+    }
+    finally
+    {
+      channelLeft.close();
+    }
+  }
+
+  private static boolean sampleEquals(FileChannel channelLeft, FileChannel channelRight, long size)
+      throws IOException
+  {
+    return blockEquals(channelLeft, channelRight, 0, SAMPLE_SIZE, null)
+           && blockEquals(channelLeft, channelRight, size - SAMPLE_SIZE, SAMPLE_SIZE, null);
+  }
+
+  private static boolean readEquals(FileChannel channelLeft, FileChannel channelRight, long size,
+      MessageDigest digest)
+      throws IOException
+  {
+    for (long position = 0; position < size; position += BLOCK_SIZE)
+    {
+      if (!blockEquals(channelLeft, channelRight, position, (int) Math.min(BLOCK_SIZE, size - position), digest))
+      {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  private static boolean blockEquals(FileChannel channelLeft, FileChannel channelRight, long position, int length,
+      MessageDigest digest)
+      throws IOException
+  {
+    ByteBuffer[] bb;
+
+    bb = buffers.get();
+    if (!read(channelLeft, bb[0], position, length) || !read(channelRight, bb[1], position, length))
+    {
+      // The file is shorter than it was.
+      return false;
+    }
+
+    if (!bufferEquals(bb[0], bb[1]))
+    {
+      return false;
+    }
+
+    if (digest != null)
+    {
+      digest.update(bb[0]);
+    }
+
+    return true;
+  }
+
+  private static boolean mappedEquals(FileChannel channelLeft, FileChannel channelRight, long size,
+      MessageDigest digest)
+      throws IOException
+  {
+    ByteBuffer bbLeft;
+    ByteBuffer bbRight;
+    long length;
+
+    for (long position = 0; position < size; position += WINDOW_SIZE)
+    {
+      length = Math.min(WINDOW_SIZE, size - position);
+      bbLeft = channelLeft.map(FileChannel.MapMode.READ_ONLY, position, length).order(ByteOrder.nativeOrder());
+      bbRight = channelRight.map(FileChannel.MapMode.READ_ONLY, position, length).order(ByteOrder.nativeOrder());
+
+      if (!bufferEquals(bbLeft, bbRight))
+      {
+        return false;
+      }
+
+      if (digest != null)
+      {
+        digest.update(bbLeft);
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Read exactly length bytes at the position. The buffer is ready to be read
+   * from the start.
+   *
+   * @return false if the channel has less bytes.
+   */
+  private static boolean read(FileChannel channel, ByteBuffer buffer, long position, int length)
+      throws IOException
+  {
+    int n;
+
+    CompareUtil.clear(buffer);
+    buffer.limit(length);
+    while (buffer.hasRemaining())
+    {
+      n = channel.read(buffer, position + buffer.position());
+      if (n == -1)
+      {
+        return false;
+      }
+    }
+    CompareUtil.flip(buffer);
+
+    return true;
+  }
+
+  /**
+   * Compare the remaining bytes of 2 buffers of the same size. 8 bytes are
+   * compared at a time. The positions of the buffers are not changed.
+   */
+  private static boolean bufferEquals(ByteBuffer bbLeft, ByteBuffer bbRight)
+  {
+    int start;
+    int end;
+    int i;
+
+    start = bbLeft.position();
+    end = bbLeft.limit();
+    if (end - start != bbRight.remaining())
+    {
+      return false;
+    }
+
+    for (i = start; i + 8 <= end; i += 8)
+    {
+      if (bbLeft.getLong(i) != bbRight.getLong(i - start + bbRight.position()))
+      {
+        return false;
+      }
+    }
+
+    for (; i < end; i++)
+    {
+      if (bbLeft.get(i) != bbRight.get(i - start + bbRight.position()))
+      {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  private static ByteBuffer allocate()
+  {
+    return ByteBuffer.allocateDirect(BLOCK_SIZE).order(ByteOrder.nativeOrder());
+  }
+}
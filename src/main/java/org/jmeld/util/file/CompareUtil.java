@@ -19,26 +19,18 @@ package org.jmeld.util.file;
 import java.io.CharArrayReader;
 import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.io.Reader;
 import java.nio.Buffer;
-import java.nio.ByteBuffer;
-import java.nio.CharBuffer;
-import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.Arrays;
 import org.jmeld.util.Ignore;
 import org.jmeld.util.node.BufferNode;
 import org.jmeld.util.node.FileNode;
 
 public class CompareUtil
 {
-  private static final int MAX_LINE_NUMBER = 1000;
-  private static char[] leftLine = new char[MAX_LINE_NUMBER];
-  private static char[] rightLine = new char[MAX_LINE_NUMBER];
-  private static CharBuffer leftLineBuffer = CharBuffer.allocate(10000);
-  private static CharBuffer rightLineBuffer = CharBuffer.allocate(10000);
-  private static CharBuffer leftLineOutputBuffer = CharBuffer.allocate(10000);
-  private static CharBuffer rightLineOutputBuffer = CharBuffer.allocate(10000);
-
   private CompareUtil()
   {
   }
@@ -68,20 +60,16 @@ public class CompareUtil
   {
     File fileLeft;
     File fileRight;
-    RandomAccessFile fLeft;
-    RandomAccessFile fRight;
-    FileChannel fcLeft;
-    FileChannel fcRight;
-    ByteBuffer bbLeft;
-    ByteBuffer bbRight;
-    boolean equals;
+    ContentHashCache cache;
+    BasicFileAttributes attributesLeft;
+    BasicFileAttributes attributesRight;
+    MessageDigest digest;
+    byte[] hash;
+    Boolean equals;
 
     fileLeft = nodeLeft.getFile();
     fileRight = nodeRight.getFile();
 
-    fLeft = null;
-    fRight = null;
-
     try
     {
       if (fileLeft.isDirectory() || fileRight.isDirectory())
@@ -94,6 +82,8 @@ public class CompareUtil
         return false;
       }
 
+      cache = ContentHashCache.getInstance();
+
       // In practice most files that have the same length will
       // be equal. So eventhough some ignore feature is activated
       // we will examine if the files are equal. If they are
@@ -102,56 +92,43 @@ public class CompareUtil
       // comparisons quite a bit.
       if (!ignore.getIgnore() || fileLeft.length() == fileRight.length())
       {
-        fLeft = new RandomAccessFile(fileLeft, "r");
-        fRight = new RandomAccessFile(fileRight, "r");
-        fcLeft = fLeft.getChannel();
-        fcRight = fRight.getChannel();
+        // The hashes of files that didn't change since the last comparison
+        // are known. The files don't have to be read.
+        equals = cache.getContentEquals(fileLeft, fileRight);
+        if (equals == null)
+        {
+          attributesLeft = Files.readAttributes(fileLeft.toPath(), BasicFileAttributes.class);
+          attributesRight = Files.readAttributes(fileRight.toPath(), BasicFileAttributes.class);
+          digest = cache.createDigest();
 
-        bbLeft = fcLeft.map(FileChannel.MapMode.READ_ONLY, 0, (int) fcLeft.size());
-        bbRight = fcRight.map(FileChannel.MapMode.READ_ONLY, 0, (int) fcRight.size());
+          equals = BinaryCompare.equals(fileLeft, fileRight, digest);
+          if (equals)
+          {
+            hash = digest.digest();
+            cache.putContentHash(fileLeft, attributesLeft, hash);
+            cache.putContentHash(fileRight, attributesRight, hash);
+          }
+        }
 
-        equals = bbLeft.equals(bbRight);
         if (!ignore.getIgnore() || equals)
         {
           return equals;
         }
       }
 
-      equals = contentEquals(nodeLeft.getDocument().getReader(), nodeRight.getDocument().getReader(), ignore);
+      equals = cache.normalizedEquals(nodeLeft, nodeRight, ignore);
+      if (equals != null)
+      {
+        return equals;
+      }
 
-      return equals;
+      return contentEquals(nodeLeft.getDocument().getReader(), nodeRight.getDocument().getReader(), ignore);
     }
     catch (Exception ex)
     {
       ex.printStackTrace();
       return false;
     }
-    finally
-    {
-      try
-      {
-        if (fLeft != null)
-        {
-          fLeft.close();
-        }
-      }
-      catch (Exception ex)
-      {
-        ex.printStackTrace();
-      }
-
-      try
-      {
-        if (fRight != null)
-        {
-          fRight.close();
-        }
-      }
-      catch (Exception ex)
-      {
-        ex.printStackTrace();
-      }
-    }
   }
 
   public static boolean contentEquals(char[] left, char[] right, Ignore ignore)
@@ -168,24 +145,30 @@ public class CompareUtil
   }
 
   /**
-   * Test if 2 readers are equals (with ignore possibilities). Synchronized
-   * because leftLine and rightLine are static variables for performance reasons.
+   * Test if 2 readers are equals (with ignore possibilities). Every call has
+   * it's own line buffers so any number of threads can compare at the same
+   * time.
    */
-  private static synchronized boolean contentEquals(Reader readerLeft, Reader readerRight, Ignore ignore)
+  private static boolean contentEquals(Reader readerLeft, Reader readerRight, Ignore ignore)
       throws IOException
   {
+    LineBuffer leftLine;
+    LineBuffer rightLine;
     boolean leftEOF, rightEOF;
 
+    leftLine = new LineBuffer();
+    rightLine = new LineBuffer();
+
     try
     {
       for (;;)
       {
         for (;;)
         {
-          leftEOF = readLine(readerLeft, leftLineBuffer);
+          leftEOF = leftLine.readLine(readerLeft);
 
-          removeIgnoredChars(leftLineBuffer, ignore, leftLineOutputBuffer);
-          if (leftLineOutputBuffer.remaining() != 0)
+          leftLine.removeIgnoredChars(ignore);
+          if (leftLine.outputLength != 0)
           {
             break;
           }
@@ -198,10 +181,10 @@ public class CompareUtil
 
         for (;;)
         {
-          rightEOF = readLine(readerRight, rightLineBuffer);
+          rightEOF = rightLine.readLine(readerRight);
 
-          removeIgnoredChars(rightLineBuffer, ignore, rightLineOutputBuffer);
-          if (rightLineOutputBuffer.remaining() != 0)
+          rightLine.removeIgnoredChars(ignore);
+          if (rightLine.outputLength != 0)
           {
             break;
           }
@@ -212,13 +195,18 @@ public class CompareUtil
           }
         }
 
-        if (leftLineOutputBuffer.remaining() != 0 && rightLineOutputBuffer.remaining() != 0)
+        if (leftLine.outputLength != 0 && rightLine.outputLength != 0)
         {
-          if (!leftLineOutputBuffer.equals(rightLineOutputBuffer))
+          if (!leftLine.outputEquals(rightLine))
           {
             return false;
           }
         }
+        else if (leftLine.outputLength != rightLine.outputLength)
+        {
+          // One side has a line and the other side has no lines left.
+          return false;
+        }
 
         if (leftEOF && !rightEOF || !leftEOF && rightEOF)
         {
@@ -238,307 +226,49 @@ public class CompareUtil
     }
   }
 
-  private static boolean readLine(Reader reader, CharBuffer lineBuffer) throws IOException
-  {
-    int c, nextChar;
-
-    clear(lineBuffer);
-    while ((c = reader.read()) != -1)
-    {
-      if (lineBuffer.length() == 0)
-      {
-        throw new IOException("Line to long");
-      }
-
-      lineBuffer.put((char) c);
-
-      if (c == '\n')
-      {
-        break;
-      }
-
-      if (c == '\r')
-      {
-        reader.mark(1);
-        nextChar = reader.read();
-        if (nextChar == '\n')
-        {
-          lineBuffer.put((char) nextChar);
-          break;
-        }
-        else
-        {
-          reader.reset();
-        }
-
-        break;
-      }
-    }
-
-    if (c == -1)
-    {
-      return true;
-    }
-
-    return false;
-  }
-
   /**
-   * Test if 2 readers are equals (with ignore possibilities). Synchronized
-   * because leftLine and rightLine are static variables for performance reasons.
+   * Hash the lines of a reader without their ignored characters. 2 readers
+   * have the same hash if contentEquals(readerLeft, readerRight, ignore) is
+   * true (and only then, unless the digest collides).
    */
-  private static synchronized boolean contentEquals_old(Reader readerLeft, Reader readerRight, Ignore ignore)
+  static byte[] hash(Reader reader, Ignore ignore, MessageDigest digest)
       throws IOException
   {
-    boolean equals;
-    boolean leftFound;
-    boolean rightFound;
-    int leftChar;
-    int rightChar;
-    int nextChar;
-    boolean eol;
-    boolean previousEolLeft;
-    boolean previousEolRight;
-    int leftLineIndex;
-    int rightLineIndex;
-    boolean whitespaceAtBegin;
-    int whitespaceIndex;
-
-    leftLineIndex = 0;
-    rightLineIndex = 0;
+    LineBuffer line;
+    boolean eof;
+    boolean endsWithLine;
 
-    equals = false;
-    leftChar = 0;
-    rightChar = 0;
-    previousEolLeft = true;
-    previousEolRight = true;
+    line = new LineBuffer();
+    endsWithLine = false;
 
     try
     {
       for (;;)
       {
-        leftFound = false;
-        whitespaceAtBegin = true;
-        whitespaceIndex = -1;
-        while ((leftChar = readerLeft.read()) != -1)
-        {
-          eol = isEOL(leftChar);
-
-          if ((ignore.getIgnoreEOL() || ignore.getIgnoreBlankLines() || ignore.getIgnoreWhitespace()) && eol)
-          {
-            readerLeft.mark(1);
-            nextChar = readerLeft.read();
-
-            // Try to read the following combinations as 1 newline:
-            // 1. '\n'
-            // 2. '\r'
-            // 3. '\r\n'
-            // 4. '\n\r'
-            if (!((leftChar == '\n' && nextChar == '\r') || (leftChar == '\r' && nextChar == '\n')))
-            {
-              // The next character doesn't belong to a newline -> unread it!
-              readerLeft.reset();
-            }
-
-            // Replace all combinations of a newline with '\n'. The compare is now easy.
-            leftChar = '\n';
-          }
-
-          if (ignore.getIgnoreBlankLines() && previousEolLeft && eol)
-          {
-            continue;
-          }
-
-          if (!eol)
-          {
-            if (ignore.getIgnoreWhitespace())
-            {
-              if (Character.isWhitespace(leftChar))
-              {
-                if (whitespaceIndex == -1)
-                {
-                  whitespaceIndex = leftLineIndex;
-                }
-              }
-              else
-              {
-                if (whitespaceIndex != -1)
-                {
-                  if (whitespaceAtBegin)
-                  {
-                    whitespaceAtBegin = false;
-                    if (ignore.getIgnoreWhitespaceAtBegin())
-                    {
-                      leftLineIndex = whitespaceIndex;
-                    }
-                  }
-                  else
-                  {
-                    if (ignore.getIgnoreWhitespaceInBetween())
-                    {
-                      leftLineIndex = whitespaceIndex;
-                    }
-                  }
-                  whitespaceIndex = -1;
-                }
-              }
-            }
-
-            if (ignore.getIgnoreCase())
-            {
-              leftChar = Character.toLowerCase(leftChar);
-            }
-          }
-
-          previousEolLeft = eol;
-
-          leftLine[leftLineIndex] = (char) leftChar;
-          leftLineIndex++;
-
-          if (eol || leftLineIndex >= MAX_LINE_NUMBER)
-          {
-            if (whitespaceIndex != -1 && ignore.getIgnoreWhitespaceAtEnd())
-            {
-              leftLineIndex = whitespaceIndex;
-            }
+        eof = line.readLine(reader);
 
-            break;
-          }
-        }
-
-        rightFound = false;
-        whitespaceAtBegin = true;
-        whitespaceIndex = -1;
-        while ((rightChar = readerRight.read()) != -1)
+        line.removeIgnoredChars(ignore);
+        if (line.outputLength != 0)
         {
-          eol = isEOL(rightChar);
-
-          if ((ignore.getIgnoreEOL() || ignore.getIgnoreBlankLines() || ignore.getIgnoreWhitespace()) && eol)
-          {
-            readerRight.mark(1);
-            nextChar = readerRight.read();
-
-            // Try to read the following combinations as 1 newline:
-            // 1. '\n'
-            // 2. '\r'
-            // 3. '\r\n'
-            // 4. '\n\r'
-            if (!((rightChar == '\n' && nextChar == '\r') || (rightChar == '\r' && nextChar == '\n')))
-            {
-              // The next character doesn't belong to a newline -> unread it!
-              readerRight.reset();
-            }
-
-            rightChar = '\n';
-          }
-
-          if (ignore.getIgnoreBlankLines() && previousEolRight && eol)
-          {
-            continue;
-          }
-
-          if (!eol)
-          {
-            if (ignore.getIgnoreWhitespace())
-            {
-              if (Character.isWhitespace(rightChar))
-              {
-                if (whitespaceIndex == -1)
-                {
-                  whitespaceIndex = rightLineIndex;
-                }
-              }
-              else
-              {
-                if (whitespaceIndex != -1)
-                {
-                  if (whitespaceAtBegin)
-                  {
-                    whitespaceAtBegin = false;
-                    if (ignore.getIgnoreWhitespaceAtBegin())
-                    {
-                      rightLineIndex = whitespaceIndex;
-                    }
-                  }
-                  else
-                  {
-                    if (ignore.getIgnoreWhitespaceInBetween())
-                    {
-                      rightLineIndex = whitespaceIndex;
-                    }
-                  }
-                  whitespaceIndex = -1;
-                }
-              }
-            }
-            if (ignore.getIgnoreCase())
-            {
-              rightChar = Character.toLowerCase(rightChar);
-            }
-          }
-
-          previousEolRight = eol;
-
-          rightLine[rightLineIndex] = (char) rightChar;
-          rightLineIndex++;
-
-          if (eol || rightLineIndex >= MAX_LINE_NUMBER)
-          {
-            if (whitespaceIndex != -1 && ignore.getIgnoreWhitespaceAtEnd())
-            {
-              rightLineIndex = whitespaceIndex;
-            }
-
-            break;
-          }
+          line.updateOutput(digest);
+          // contentEquals() sees a difference between a file that ends with
+          // this line and a file that has ignored lines after it.
+          endsWithLine = eof;
         }
 
-        if (leftLineIndex > 0 && leftLineIndex == rightLineIndex)
+        if (eof)
         {
-          if (equals(leftLine, rightLine, leftLineIndex))
-          {
-            leftLineIndex = 0;
-            rightLineIndex = 0;
-            continue;
-          }
-
-          equals = false;
-          break;
-        }
-
-        if (leftLineIndex != rightLineIndex)
-        {
-          equals = false;
-          break;
-        }
-
-        if (leftLineIndex == 0 && rightLineIndex == 0)
-        {
-          equals = true;
           break;
         }
       }
     }
     finally
     {
-      readerLeft.close();
-      readerRight.close();
-    }
-
-    return equals;
-  }
-
-  private static boolean equals(char[] a1, char[] a2, int size)
-  {
-    for (int i = 0; i < size; i++)
-    {
-      if (a1[i] != a2[i])
-      {
-        return false;
-      }
+      reader.close();
     }
 
-    return true;
+    digest.update((byte) (endsWithLine ? 1 : 0));
+    return digest.digest();
   }
 
   public static boolean isEOL(int character)
@@ -549,29 +279,42 @@ public class CompareUtil
   /**
    * Remove all characters from the 'line' that can be ignored.
    * 
-   * @param inputLine  char[] representing a line.
+   * @param inputLine  the characters of a line.
    * @param ignore     an object with the ignore options.
    * @param outputLine return value which contains all characters from line that
    *                   cannot be ignored. It is a parameter that can be reused
-   *                   (which is important for performance)
+   *                   (which is important for performance). It should be at
+   *                   least 1 character longer than inputLine.
+   * @return the number of characters in outputLine.
    */
-  public static void removeIgnoredChars(CharBuffer inputLine, Ignore ignore, CharBuffer outputLine)
+  public static int removeIgnoredChars(CharSequence inputLine, Ignore ignore, char[] outputLine)
   {
     boolean whitespaceAtBegin;
     boolean blankLine;
     int lineEndingEndIndex;
     int whitespaceEndIndex;
     int length;
+    int outputLength;
     char c;
-    boolean whiteSpaceInBetweenIgnored;
-
-    flip(inputLine);
-    clear(outputLine);
-
-    length = inputLine.remaining();
+    boolean ignoreWhitespaceAtBegin;
+    boolean ignoreWhitespaceInBetween;
+    boolean ignoreWhitespaceAtEnd;
+    boolean ignoreEOL;
+    boolean ignoreBlankLines;
+    boolean ignoreCase;
+
+    // The options are read once per line instead of once per character.
+    ignoreWhitespaceAtBegin = ignore.getIgnoreWhitespaceAtBegin();
+    ignoreWhitespaceInBetween = ignore.getIgnoreWhitespaceInBetween();
+    ignoreWhitespaceAtEnd = ignore.getIgnoreWhitespaceAtEnd();
+    ignoreEOL = ignore.getIgnoreEOL();
+    ignoreBlankLines = ignore.getIgnoreBlankLines();
+    ignoreCase = ignore.getIgnoreCase();
+
+    length = inputLine.length();
     lineEndingEndIndex = length;
     blankLine = true;
-    whiteSpaceInBetweenIgnored = false;
+    outputLength = 0;
 
     c = 0;
 
@@ -599,7 +342,7 @@ public class CompareUtil
     whitespaceAtBegin = true;
     for (int i = 0; i < length; i++)
     {
-      c = inputLine.get(i);
+      c = inputLine.charAt(i);
 
       if (i < whitespaceEndIndex)
       {
@@ -607,16 +350,15 @@ public class CompareUtil
         {
           if (whitespaceAtBegin)
           {
-            if (ignore.getIgnoreWhitespaceAtBegin())
+            if (ignoreWhitespaceAtBegin)
             {
               continue;
             }
           }
           else
           {
-            if (ignore.getIgnoreWhitespaceInBetween())
+            if (ignoreWhitespaceInBetween)
             {
-              whiteSpaceInBetweenIgnored = true;
               continue;
             }
           }
@@ -629,7 +371,7 @@ public class CompareUtil
       }
       else if (i < lineEndingEndIndex)
       {
-        if (ignore.getIgnoreWhitespaceAtEnd())
+        if (ignoreWhitespaceAtEnd)
         {
           continue;
         }
@@ -639,37 +381,32 @@ public class CompareUtil
       }
       else
       {
-        if (ignore.getIgnoreEOL())
+        if (ignoreEOL)
         {
           continue;
         }
         // The character won't be ignored!
       }
 
-      if (ignore.getIgnoreCase())
+      if (ignoreCase)
       {
         c = Character.toLowerCase(c);
       }
 
-      if (whiteSpaceInBetweenIgnored)
-      {
-        // outputLine.put(' ');
-        whiteSpaceInBetweenIgnored = false;
-      }
-      outputLine.put(c);
+      outputLine[outputLength++] = c;
     }
 
-    if (outputLine.position() == 0 && !ignore.getIgnoreBlankLines())
+    if (outputLength == 0 && !ignoreBlankLines)
     {
-      outputLine.put('\n');
+      outputLine[outputLength++] = '\n';
     }
 
-    if (blankLine && ignore.getIgnoreBlankLines())
+    if (blankLine && ignoreBlankLines)
     {
-      clear(outputLine);
+      outputLength = 0;
     }
 
-    flip(outputLine);
+    return outputLength;
   }
 
   /**
@@ -698,4 +435,183 @@ public class CompareUtil
   {
     buffer.flip();
   }
+
+  /**
+   * A line read from a reader and the same line without it's ignored
+   * characters. The buffers grow if a line doesn't fit. <br>
+   * The reader is read in blocks; a LineBuffer should always read from the
+   * same reader.
+   */
+  private static class LineBuffer
+      implements CharSequence
+  {
+    private static final int BLOCK_SIZE = 16 * 1024;
+
+    private char[] input = new char[256];
+    private int inputLength;
+    private char[] output = new char[257];
+    private int outputLength;
+    private byte[] bytes;
+    private char[] block = new char[BLOCK_SIZE];
+    private int blockIndex;
+    private int blockLength;
+    private boolean endOfReader;
+
+    /**
+     * @return true if the end of the reader has been reached.
+     */
+    boolean readLine(Reader reader) throws IOException
+    {
+      int start;
+      char c;
+
+      inputLength = 0;
+      for (;;)
+      {
+        if (blockIndex == blockLength && !fill(reader))
+        {
+          return true;
+        }
+
+        // Find the end of the line in this block.
+        start = blockIndex;
+        c = 0;
+        while (blockIndex < blockLength)
+        {
+          c = block[blockIndex++];
+          if (c == '\n' || c == '\r')
+          {
+            break;
+          }
+        }
+        put(start, blockIndex);
+
+        if (c == '\n')
+        {
+          return false;
+        }
+
+        if (c == '\r')
+        {
+          // A '\n' directly after the '\r' belongs to this line.
+          if ((blockIndex < blockLength || fill(reader)) && block[blockIndex] == '\n')
+          {
+            put(blockIndex, ++blockIndex);
+          }
+          return false;
+        }
+      }
+    }
+
+    /**
+     * @return false if the end of the reader has been reached.
+     */
+    private boolean fill(Reader reader) throws IOException
+    {
+      int n;
+
+      if (endOfReader)
+      {
+        return false;
+      }
+
+      while ((n = reader.read(block, 0, block.length)) == 0)
+      {
+      }
+
+      if (n == -1)
+      {
+        endOfReader = true;
+        return false;
+      }
+
+      blockIndex = 0;
+      blockLength = n;
+      return true;
+    }
+
+    private void put(int start, int end)
+    {
+      if (inputLength + end - start > input.length)
+      {
+        input = Arrays.copyOf(input, Math.max(input.length * 2, inputLength + end - start));
+      }
+      System.arraycopy(block, start, input, inputLength, end - start);
+      inputLength += end - start;
+    }
+
+    void removeIgnoredChars(Ignore ignore)
+    {
+      if (output.length <= inputLength)
+      {
+        output = new char[input.length + 1];
+      }
+      outputLength = CompareUtil.removeIgnoredChars(this, ignore, output);
+    }
+
+    /**
+     * Add the length and the characters of the output to the digest.
+     */
+    void updateOutput(MessageDigest digest)
+    {
+      int index;
+
+      if (bytes == null || bytes.length < 4 + outputLength * 2)
+      {
+        bytes = new byte[4 + output.length * 2];
+      }
+      bytes[0] = (byte) (outputLength >>> 24);
+      bytes[1] = (byte) (outputLength >>> 16);
+      bytes[2] = (byte) (outputLength >>> 8);
+      bytes[3] = (byte) outputLength;
+
+      index = 4;
+      for (int i = 0; i < outputLength; i++)
+      {
+        bytes[index++] = (byte) (output[i] >>> 8);
+        bytes[index++] = (byte) output[i];
+      }
+
+      digest.update(bytes, 0, index);
+    }
+
+    boolean outputEquals(LineBuffer line)
+    {
+      if (outputLength != line.outputLength)
+      {
+        return false;
+      }
+
+      for (int i = 0; i < outputLength; i++)
+      {
+        if (output[i] != line.output[i])
+        {
+          return false;
+        }
+      }
+
+      return true;
+    }
+
+    public int length()
+    {
+      return inputLength;
+    }
+
+    public char charAt(int index)
+    {
+      return input[index];
+    }
+
+    public CharSequence subSequence(int start, int end)
+    {
+      return new String(input, start, end - start);
+    }
+
+    @Override
+    public String toString()
+    {
+      return new String(input, 0, inputLength);
+    }
+  }
 }
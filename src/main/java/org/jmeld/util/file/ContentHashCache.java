@@ -0,0 +1,400 @@
+/*
+   JMeld is a visual diff and merge tool.
+   Copyright (C) 2007  Kees Kuip
+   This library is free software; you can redistribute it and/or
+   modify it under the terms of the GNU Lesser General Public
+   License as published by the Free Software Foundation; either
+   version 2.1 of the License, or (at your option) any later version.
+   This library is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+   Lesser General Public License for more details.
+   You should have received a copy of the GNU Lesser General Public
+   License along with this library; if not, write to the Free Software
+   Foundation, Inc., 51 Franklin Street, Fifth Floor,
+   Boston, MA  02110-1301  USA
+ */
+package org.jmeld.util.file;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.jmeld.util.Ignore;
+import org.jmeld.util.node.FileNode;
+
+/**
+ * Remembers the hashes of the contents of files. <br>
+ * A file is identified by its path, size, last modified time and file key
+ * (the inode on unix). As long as these don't change the file is not read
+ * again. A file has a hash of its bytes (after it was found equal to another
+ * file) and a hash of its lines without the ignored characters for every
+ * ignore configuration that was used.
+ * <br>
+ * The cache is saved in the home directory of the user. It contains at most
+ * MAX_ENTRIES files; the files that were not used for the longest time are
+ * removed first.
+ */
+public class ContentHashCache
+{
+  // Class variables:
+  private static ContentHashCache instance;
+  private static final String ALGORITHM = "SHA-256";
+  private static final int VERSION = 1;
+  private static final int MAX_ENTRIES = 250000;
+  // The flags of the hash of the bytes. (The flags of an ignore are >= 0)
+  private static final int CONTENT = -1;
+
+  // Instance variables:
+  private final File file;
+  private final Map<String, CacheEntry> entries;
+  private boolean changed;
+
+  private ContentHashCache(File file)
+  {
+    this.file = file;
+
+    entries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true)
+    {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest)
+      {
+        return size() > MAX_ENTRIES;
+      }
+    };
+
+    load();
+  }
+
+  public static synchronized ContentHashCache getInstance()
+  {
+    if (instance == null)
+    {
+      instance = new ContentHashCache(new File(System.getProperty("user.home"), "JMeldContentHash.cache"));
+    }
+
+    return instance;
+  }
+
+  /**
+   * Compare 2 files by the hashes of their bytes.
+   *
+   * @return the result of the comparison or null if a hash is not known.
+   */
+  public Boolean getContentEquals(File fileLeft, File fileRight)
+      throws IOException
+  {
+    byte[] hashLeft;
+    byte[] hashRight;
+
+    hashLeft = getCachedHash(fileLeft, CONTENT);
+    if (hashLeft == null)
+    {
+      return null;
+    }
+
+    hashRight = getCachedHash(fileRight, CONTENT);
+    if (hashRight == null)
+    {
+      return null;
+    }
+
+    return Arrays.equals(hashLeft, hashRight);
+  }
+
+  /**
+   * Remember the hash of the bytes of a file.
+   *
+   * @param attributes
+   *          the attributes of the file before it was read.
+   */
+  public void putContentHash(File file, BasicFileAttributes attributes, byte[] hash)
+  {
+    putHash(file, attributes, CONTENT, hash);
+  }
+
+  /**
+   * Compare 2 files by the hashes of their lines without the ignored
+   * characters. A hash that is not known is calculated.
+   *
+   * @return the result of the comparison or null if a file could not be
+   *         hashed.
+   */
+  public Boolean normalizedEquals(FileNode nodeLeft, FileNode nodeRight, Ignore ignore)
+  {
+    try
+    {
+      return Arrays.equals(getNormalizedHash(nodeLeft, ignore), getNormalizedHash(nodeRight, ignore));
+    }
+    catch (Exception ex)
+    {
+      ex.printStackTrace();
+      return null;
+    }
+  }
+
+  /**
+   * @return a digest of the algorithm of this cache.
+   */
+  public MessageDigest createDigest()
+  {
+    try
+    {
+      return MessageDigest.getInstance(ALGORITHM);
+    }
+    catch (NoSuchAlgorithmException ex)
+    {
+      // Every java platform has SHA-256
+      throw new IllegalStateException(ex);
+    }
+  }
+
+  private byte[] getNormalizedHash(FileNode node, Ignore ignore)
+      throws Exception
+  {
+    BasicFileAttributes attributes;
+    byte[] hash;
+
+    hash = getCachedHash(node.getFile(), ignore.getFlags());
+    if (hash == null)
+    {
+      // The attributes are read before the file. If the file changes while
+      // it is read the next comparison will see that.
+      attributes = Files.readAttributes(node.getFile().toPath(), BasicFileAttributes.class);
+      hash = CompareUtil.hash(node.getDocument().getReader(), ignore, createDigest());
+      putHash(node.getFile(), attributes, ignore.getFlags(), hash);
+    }
+
+    return hash;
+  }
+
+  private byte[] getCachedHash(File file, int flags)
+      throws IOException
+  {
+    BasicFileAttributes attributes;
+    CacheEntry entry;
+
+    attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+    synchronized (this)
+    {
+      entry = entries.get(file.getAbsolutePath());
+      if (entry == null || !entry.isValid(attributes))
+      {
+        return null;
+      }
+
+      return entry.getHash(flags);
+    }
+  }
+
+  private synchronized void putHash(File file, BasicFileAttributes attributes, int flags, byte[] hash)
+  {
+    String key;
+    CacheEntry entry;
+
+    key = file.getAbsolutePath();
+    entry = entries.get(key);
+    if (entry == null || !entry.isValid(attributes))
+    {
+      entry = new CacheEntry(attributes);
+      entries.put(key, entry);
+    }
+    entry.putHash(flags, hash);
+    changed = true;
+  }
+
+  /**
+   * Save the cache if it has been changed.
+   */
+  public synchronized void save()
+  {
+    File tempFile;
+    DataOutputStream os;
+
+    if (!changed)
+    {
+      return;
+    }
+
+    try
+    {
+      tempFile = new File(file.getPath() + ".tmp");
+      os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+      try
+      {
+        os.writeInt(VERSION);
+        os.writeInt(entries.size());
+        // The least recently used entry is written first so the order
+        // survives a restart.
+        for (Map.Entry<String, CacheEntry> mapEntry : entries.entrySet())
+        {
+          os.writeUTF(mapEntry.getKey());
+          mapEntry.getValue().write(os);
+        }
+      }
+      finally
+      {
+        os.close();
+      }
+
+      Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      changed = false;
+    }
+    catch (IOException ex)
+    {
+      ex.printStackTrace();
+    }
+  }
+
+  private void load()
+  {
+    DataInputStream is;
+    int size;
+    String key;
+
+    if (!file.exists())
+    {
+      return;
+    }
+
+    try
+    {
+      is = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+      try
+      {
+        if (is.readInt() != VERSION)
+        {
+          return;
+        }
+
+        size = is.readInt();
+        for (int i = 0; i < size; i++)
+        {
+          key = is.readUTF();
+          entries.put(key, CacheEntry.read(is));
+        }
+      }
+      finally
+      {
+        is.close();
+      }
+    }
+    catch (IOException ex)
+    {
+      // A damaged cache is not a problem. The files are read again.
+      ex.printStackTrace();
+      entries.clear();
+    }
+  }
+
+  private static class CacheEntry
+  {
+    private final long size;
+    private final long lastModified;
+    private final String fileKey;
+    private int[] flags = new int[0];
+    private byte[][] hashes = new byte[0][];
+
+    CacheEntry(BasicFileAttributes attributes)
+    {
+      this(attributes.size(), attributes.lastModifiedTime().toMillis(), getFileKey(attributes));
+    }
+
+    private CacheEntry(long size, long lastModified, String fileKey)
+    {
+      this.size = size;
+      this.lastModified = lastModified;
+      this.fileKey = fileKey;
+    }
+
+    private static String getFileKey(BasicFileAttributes attributes)
+    {
+      return attributes.fileKey() == null ? "" : attributes.fileKey().toString();
+    }
+
+    boolean isValid(BasicFileAttributes attributes)
+    {
+      return size == attributes.size() && lastModified == attributes.lastModifiedTime().toMillis()
+             && fileKey.equals(getFileKey(attributes));
+    }
+
+    byte[] getHash(int flag)
+    {
+      for (int i = 0; i < flags.length; i++)
+      {
+        if (flags[i] == flag)
+        {
+          return hashes[i];
+        }
+      }
+
+      return null;
+    }
+
+    void putHash(int flag, byte[] hash)
+    {
+      for (int i = 0; i < flags.length; i++)
+      {
+        if (flags[i] == flag)
+        {
+          hashes[i] = hash;
+          return;
+        }
+      }
+
+      flags = Arrays.copyOf(flags, flags.length + 1);
+      hashes = Arrays.copyOf(hashes, hashes.length + 1);
+      flags[flags.length - 1] = flag;
+      hashes[hashes.length - 1] = hash;
+    }
+
+    void write(DataOutputStream os)
+        throws IOException
+    {
+      os.writeLong(size);
+      os.writeLong(lastModified);
+      os.writeUTF(fileKey);
+      os.writeByte(flags.length);
+      for (int i = 0; i < flags.length; i++)
+      {
+        os.writeInt(flags[i]);
+        os.writeByte(hashes[i].length);
+        os.write(hashes[i]);
+      }
+    }
+
+    static CacheEntry read(DataInputStream is)
+        throws IOException
+    {
+      CacheEntry entry;
+      int count;
+      byte[] hash;
+
+      entry = new CacheEntry(is.readLong(), is.readLong(), is.readUTF());
+      count = is.readUnsignedByte();
+      entry.flags = new int[count];
+      entry.hashes = new byte[count][];
+      for (int i = 0; i < count; i++)
+      {
+        entry.flags[i] = is.readInt();
+        hash = new byte[is.readUnsignedByte()];
+        is.readFully(hash);
+        entry.hashes[i] = hash;
+      }
+
+      return entry;
+    }
+  }
+}
@@ -17,10 +17,21 @@
 package org.jmeld.util.file;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.jmeld.tools.ant.DirectoryScanner;
+import org.jmeld.fx.settings.JMeldSettingsFx;
 import org.jmeld.settings.util.Filter;
 import org.jmeld.ui.StatusBar;
 import org.jmeld.util.StopWatch;
@@ -31,11 +42,21 @@ import org.jmeld.util.node.JMDiffNode;
 public class DirectoryDiff
   extends FolderDiff
 {
+  // Class variables:
+  // Comparing is bound by I/O so there are more threads than processors.
+  private static final int COMPARE_THREADS = Math.min(32, Math.max(8, 2 * Runtime.getRuntime().availableProcessors()));
+  // The number of nodes that a compare task compares without splitting.
+  private static final int COMPARE_BATCH_SIZE = 64;
+  // The time between 2 progress reports (in milliseconds)
+  private static final int PROGRESS_INTERVAL = 200;
+
+  // Instance variables:
   private File rightDirectory;
   private File leftDirectory;
   private JMDiffNode rootNode;
   private Map<String, JMDiffNode> nodes;
   private Filter filter;
+  private boolean parallel;
 
   public DirectoryDiff(File leftDirectory, File rightDirectory, Filter filter, Mode mode)
   {
@@ -44,6 +65,7 @@ public class DirectoryDiff
     this.leftDirectory = leftDirectory;
     this.rightDirectory = rightDirectory;
     this.filter = filter;
+    this.parallel = JMeldSettingsFx.getInstance().getEditor().getParallelDiffEnabled();
 
     try
     {
@@ -68,11 +90,29 @@ public class DirectoryDiff
     return nodes.values();
   }
 
+  /**
+   * Scan both directories at the same time and compare the files with a
+   * pool of threads.
+   */
+  public void setParallel(boolean parallel)
+  {
+    this.parallel = parallel;
+  }
+
+  public boolean isParallel()
+  {
+    return parallel;
+  }
+
   public void diff()
   {
-    DirectoryScanner ds;
+    DirectoryScanner dsLeft;
+    DirectoryScanner dsRight;
+    FutureTask<DirectoryScanner> scanLeft;
+    Thread thread;
     JMDiffNode node;
     StopWatch stopWatch;
+    List<JMDiffNode> nodeList;
     int numberOfNodes;
     int currentNumber;
     FileNode fn;
@@ -86,47 +126,50 @@ public class DirectoryDiff
     rootNode = new JMDiffNode("<root>", false);
     nodes = new HashMap<String, JMDiffNode>();
 
-    ds = new DirectoryScanner();
-    ds.setShowStateOn(true);
-    ds.setBasedir(leftDirectory);
-    if (filter != null)
+    System.out.println("Scan: " + leftDirectory);
+    if (parallel)
     {
-      // ds.setIncludes(filter.getIncludes());
-      // ds.setExcludes(filter.getExcludes());
+      // The left directory is scanned on another thread.
+      scanLeft = new FutureTask<>(() -> scan(leftDirectory));
+      thread = new Thread(scanLeft, "JMeld scan " + leftDirectory.getName());
+      thread.setDaemon(true);
+      thread.start();
+
+      dsRight = scan(rightDirectory);
+      try
+      {
+        dsLeft = scanLeft.get();
+      }
+      catch (InterruptedException | ExecutionException ex)
+      {
+        ex.printStackTrace();
+        dsLeft = scan(leftDirectory);
+      }
+    }
+    else
+    {
+      dsLeft = scan(leftDirectory);
+      dsRight = scan(rightDirectory);
     }
-    ds.setCaseSensitive(true);
-
-    System.out.println("Scan: " + leftDirectory);
-    ds.scan();
     System.out.println("End Scan in " + stopWatch.getElapsedTime());
 
-    for (FileNode fileNode : ds.getIncludedFiles())
+    for (FileNode fileNode : dsLeft.getIncludedFiles())
     {
       node = addNode(fileNode.getName());
       node.setBufferNodeLeft(fileNode);
     }
 
-    ds = new DirectoryScanner();
-    ds.setShowStateOn(true);
-    ds.setBasedir(rightDirectory);
-    if (filter != null)
-    {
-      // ds.setIncludes(filter.getIncludes());
-      // ds.setExcludes(filter.getExcludes());
-    }
-    ds.setCaseSensitive(true);
-    ds.scan();
-
-    for (FileNode fileNode : ds.getIncludedFiles())
+    for (FileNode fileNode : dsRight.getIncludedFiles())
     {
       node = addNode(fileNode.getName());
       node.setBufferNodeRight(fileNode);
     }
 
     StatusBar.getInstance().setState("Comparing nodes...");
-    numberOfNodes = nodes.size();
+    nodeList = new ArrayList<JMDiffNode>(nodes.values());
+    numberOfNodes = nodeList.size();
     currentNumber = 0;
-    for (JMDiffNode n : nodes.values())
+    for (JMDiffNode n : nodeList)
     {
       // Make sure that each node has it's opposite.
       // This makes the following copying actions possible :
@@ -148,16 +191,138 @@ public class DirectoryDiff
         }
       }
 
-      n.compareContents();
+      if (!parallel)
+      {
+        n.compareContents();
+        StatusBar.getInstance().setProgress(++currentNumber, numberOfNodes);
+      }
+    }
 
-      StatusBar.getInstance().setProgress(++currentNumber, numberOfNodes);
+    if (parallel)
+    {
+      compareContents(nodeList);
     }
 
+    ContentHashCache.getInstance().save();
+
     StatusBar.getInstance()
         .setState("Ready comparing directories (took " + (stopWatch.getElapsedTime() / 1000) + " seconds)");
     StatusBar.getInstance().stop();
   }
 
+  private DirectoryScanner scan(File directory)
+  {
+    DirectoryScanner ds;
+    List<String> includes;
+
+    ds = new DirectoryScanner();
+    ds.setShowStateOn(true);
+    ds.setBasedir(directory);
+    if (filter != null)
+    {
+      // No includes means everything is included.
+      includes = filter.getIncludes();
+      ds.setIncludes(includes.isEmpty() ? null : includes);
+      ds.setExcludes(filter.getExcludes());
+      // Only the included files are used so excluded directories are never
+      // listed.
+      ds.setPruneExcluded(true);
+    }
+    ds.setCaseSensitive(true);
+    ds.scan();
+
+    return ds;
+  }
+
+  /**
+   * Compare the nodes on a pool of threads. This thread reports the progress
+   * until all nodes are compared.
+   */
+  private void compareContents(List<JMDiffNode> nodeList)
+  {
+    ForkJoinPool pool;
+    ForkJoinTask<?> task;
+    AtomicInteger counter;
+
+    counter = new AtomicInteger();
+    pool = new ForkJoinPool(COMPARE_THREADS);
+    try
+    {
+      task = pool.submit(new CompareTask(nodeList, 0, nodeList.size(), counter));
+      while (true)
+      {
+        try
+        {
+          task.get(PROGRESS_INTERVAL, TimeUnit.MILLISECONDS);
+          break;
+        }
+        catch (TimeoutException ex)
+        {
+          StatusBar.getInstance().setProgress(counter.get(), nodeList.size());
+        }
+        catch (InterruptedException ex)
+        {
+          task.cancel(true);
+          Thread.currentThread().interrupt();
+          break;
+        }
+        catch (ExecutionException ex)
+        {
+          ex.printStackTrace();
+          break;
+        }
+      }
+
+      StatusBar.getInstance().setProgress(counter.get(), nodeList.size());
+    }
+    finally
+    {
+      pool.shutdown();
+    }
+  }
+
+  /**
+   * Compares a range of nodes. Large ranges are split so idle threads can
+   * steal work.
+   */
+  private static class CompareTask
+    extends RecursiveAction
+  {
+    private static final long serialVersionUID = 1L;
+
+    private final List<JMDiffNode> nodeList;
+    private final int start;
+    private final int end;
+    private final AtomicInteger counter;
+
+    CompareTask(List<JMDiffNode> nodeList, int start, int end, AtomicInteger counter)
+    {
+      this.nodeList = nodeList;
+      this.start = start;
+      this.end = end;
+      this.counter = counter;
+    }
+
+    @Override
+    protected void compute()
+    {
+      int middle;
+
+      if (end - start <= COMPARE_BATCH_SIZE)
+      {
+        for (int i = start; i < end; i++)
+        {
+          nodeList.get(i).compareContents();
+          counter.incrementAndGet();
+        }
+        return;
+      }
+
+      middle = (start + end) >>> 1;
+      invokeAll(new CompareTask(nodeList, start, middle, counter), new CompareTask(nodeList, middle, end, counter));
+    }
+  }
+
   private JMDiffNode addNode(String name)
   {
     JMDiffNode node;
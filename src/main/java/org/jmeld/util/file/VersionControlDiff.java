@@ -92,6 +92,9 @@ public class VersionControlDiff
                               false);
     nodes = new HashMap<String, JMDiffNode>();
 
+    // A working copy can have been created or removed since the last
+    // comparison.
+    VersionControlUtil.invalidate();
     versionControlList = VersionControlUtil.getVersionControl(directory);
     if (versionControlList.isEmpty())
     {
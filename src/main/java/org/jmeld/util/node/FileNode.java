@@ -28,6 +28,7 @@ public class FileNode
   private long fileLastModified;
   private FileDocument document;
   private boolean exists;
+  private boolean readonly;
 
   public FileNode(String name, File file)
   {
@@ -61,7 +62,7 @@ public class FileNode
       initialize();
       if (exists())
       {
-        document = new FileDocument(file);
+        document = FileDocument.create(file, readonly);
         fileLastModified = file.lastModified();
       }
     }
@@ -99,9 +100,21 @@ public class FileNode
     exists = file == null ? false : file.exists();
   }
 
+  /**
+   * A large file is only mapped in memory if it will not be edited.
+   */
+  public void setReadonly(boolean readonly)
+  {
+    if (this.readonly != readonly)
+    {
+      this.readonly = readonly;
+      document = null;
+    }
+  }
+
   public boolean isReadonly()
   {
-    return false;
+    return readonly;
   }
 
   @Override
@@ -6,6 +6,9 @@ import java.util.Collections;
 import java.util.EnumMap;
 import java.util.Enumeration;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 import javax.swing.tree.TreeNode;
 import org.jmeld.JMeldException;
 import org.jmeld.diff.JMDiff;
@@ -14,6 +17,7 @@ import org.jmeld.fx.settings.JMeldSettingsFx;
 import org.jmeld.ui.StatusBar;
 import org.jmeld.ui.text.BufferDocumentIF;
 import org.jmeld.util.Ignore;
+import org.jmeld.util.ProgressIF;
 import org.jmeld.util.file.CompareUtil;
 import org.jmeld.util.file.cmd.AbstractCmd;
 import org.jmeld.util.file.cmd.CopyFileCmd;
@@ -74,6 +78,17 @@ public class JMDiffNode
         + (getBufferNodeRight() != null ? getBufferNodeRight().getName() : "x");
   }
 
+  /**
+   * A file on a side that can't be edited may be mapped in memory.
+   */
+  private void initReadonly(BufferNode bufferNode, boolean readonly)
+  {
+    if (bufferNode instanceof FileNode)
+    {
+      ((FileNode) bufferNode).setReadonly(readonly);
+    }
+  }
+
   public String getName()
   {
     return name;
@@ -107,6 +122,7 @@ public class JMDiffNode
 
   public void setBufferNodeLeft(BufferNode bufferNode)
   {
+    initReadonly(bufferNode, JMeldSettingsFx.getInstance().getEditor().getLeftsideReadonly());
     bufferNodeByLocationMap.put(Location.LEFT, bufferNode);
     initId();
   }
@@ -118,6 +134,7 @@ public class JMDiffNode
 
   public void setBufferNodeRight(BufferNode bufferNode)
   {
+    initReadonly(bufferNode, JMeldSettingsFx.getInstance().getEditor().getRightsideReadonly());
     bufferNodeByLocationMap.put(Location.RIGHT, bufferNode);
     initId();
   }
@@ -274,44 +291,171 @@ public class JMDiffNode
   }
 
   public void diff() throws JMeldException
+  {
+    StatusBar.getInstance().start();
+    try
+    {
+      diff(new ProgressIF()
+      {
+        public void setState(String format, Object... args)
+        {
+          StatusBar.getInstance().setState(format, args);
+        }
+
+        public void setProgress(long done, long total)
+        {
+        }
+
+        public boolean isCancelled()
+        {
+          return false;
+        }
+      });
+    }
+    finally
+    {
+      StatusBar.getInstance().stop();
+    }
+  }
+
+  /**
+   * Read both sides at the same time and compare them.
+   *
+   * @param progress
+   *          receives the progress of reading. The comparison stops with a
+   *          CancellationException if it is cancelled.
+   */
+  public void diff(ProgressIF progress) throws JMeldException
   {
     BufferDocumentIF documentLeft;
     BufferDocumentIF documentRight;
     Object[] left, right;
+    ReadProgress readProgress;
+    FutureTask<Void> readLeft;
+    Thread thread;
+
+    documentLeft = getBufferNodeLeft() == null ? null : getBufferNodeLeft().getDocument();
+    documentRight = getBufferNodeRight() == null ? null : getBufferNodeRight().getDocument();
+
+    progress.setState("Reading %s", getName());
+    readProgress = new ReadProgress(progress);
+
+    // The left side is read on another thread.
+    readLeft = new FutureTask<>(() -> {
+      read(documentLeft, readProgress.getSide(0));
+      return null;
+    });
+    thread = new Thread(readLeft, "JMeld read left");
+    thread.setDaemon(true);
+    thread.start();
+
+    try
+    {
+      read(documentRight, readProgress.getSide(1));
+    }
+    catch (JMeldException | RuntimeException ex)
+    {
+      // Don't wait for the left side.
+      readProgress.stop();
+      throw ex;
+    }
 
-    StatusBar.getInstance().start();
-
-    documentLeft = null;
-    documentRight = null;
-
-    if (getBufferNodeLeft() != null)
+    try
+    {
+      readLeft.get();
+    }
+    catch (InterruptedException ex)
     {
-      documentLeft = getBufferNodeLeft().getDocument();
-      StatusBar.getInstance().setState("Reading left : %s", getBufferNodeLeft().getName());
-      if (documentLeft != null)
+      throw new CancellationException();
+    }
+    catch (ExecutionException ex)
+    {
+      if (ex.getCause() instanceof JMeldException)
+      {
+        throw (JMeldException) ex.getCause();
+      }
+      if (ex.getCause() instanceof RuntimeException)
       {
-        documentLeft.read();
+        throw (RuntimeException) ex.getCause();
       }
+      throw new JMeldException("Problem reading " + getBufferNodeLeft().getName(), ex.getCause());
     }
 
-    if (getBufferNodeRight() != null)
+    if (progress.isCancelled())
     {
-      documentRight = getBufferNodeRight().getDocument();
-      StatusBar.getInstance().setState("Reading right: %s", getBufferNodeRight().getName());
-      if (documentRight != null)
-      {
-        documentRight.read();
-      }
+      throw new CancellationException();
     }
 
-    StatusBar.getInstance().setState("Calculating differences");
+    progress.setState("Calculating differences");
+    progress.setProgress(-1, -1);
     diff = new JMDiff();
+    diff.setParallel(JMeldSettingsFx.getInstance().getEditor().getParallelDiffEnabled());
     left = documentLeft == null ? null : documentLeft.getLines();
     right = documentRight == null ? null : documentRight.getLines();
 
     revision = diff.diff(left, right, ignore);
-    StatusBar.getInstance().setState("Ready calculating differences");
-    StatusBar.getInstance().stop();
+    progress.setState("Ready calculating differences");
+  }
+
+  private void read(BufferDocumentIF document, ProgressIF progress) throws JMeldException
+  {
+    if (document != null)
+    {
+      document.read(progress);
+    }
+  }
+
+  /**
+   * Adds the progress of reading both sides.
+   */
+  private static class ReadProgress
+  {
+    private final ProgressIF progress;
+    private final long[] done = new long[2];
+    private final long[] total = new long[2];
+    private volatile boolean stopped;
+
+    ReadProgress(ProgressIF progress)
+    {
+      this.progress = progress;
+    }
+
+    void stop()
+    {
+      stopped = true;
+    }
+
+    ProgressIF getSide(int side)
+    {
+      return new ProgressIF()
+      {
+        public void setState(String format, Object... args)
+        {
+          progress.setState(format, args);
+        }
+
+        public void setProgress(long sideDone, long sideTotal)
+        {
+          long allDone;
+          long allTotal;
+
+          synchronized (ReadProgress.this)
+          {
+            done[side] = sideDone;
+            total[side] = sideTotal;
+            allDone = done[0] + done[1];
+            allTotal = total[0] + total[1];
+          }
+
+          progress.setProgress(allDone, allTotal);
+        }
+
+        public boolean isCancelled()
+        {
+          return stopped || progress.isCancelled();
+        }
+      };
+    }
   }
 
   public JMDiff getDiff()
@@ -3,14 +3,21 @@ package org.jmeld.vc;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
-
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * The status of the files below a path. <br>
+ * The entries are kept sorted by name. The first status that is added for a
+ * name wins.
+ */
 public class StatusResult
 {
   private File path;
-  private Set<Entry> entryList = new HashSet<>();
+  private SortedMap<String, Entry> entryMap = new TreeMap<>();
+  // The sorted entries; null after an entry has been added.
+  private List<Entry> entryList;
 
   public StatusResult(File path)
   {
@@ -25,26 +32,25 @@ public class StatusResult
   public void addEntry(String name,
       Status status)
   {
-    Entry entry;
-
-    entry = new Entry(name,
-                      status);
-    if (entryList.contains(entry))
+    if (entryMap.containsKey(name))
     {
       return;
     }
 
-    entryList.add(entry);
+    entryMap.put(name,
+                 new Entry(name,
+                           status));
+    entryList = null;
   }
 
   public List<Entry> getEntryList()
   {
-    List<Entry> list;
-
-    list = new ArrayList(entryList);
-    Collections.sort(list);
+    if (entryList == null)
+    {
+      entryList = Collections.unmodifiableList(new ArrayList<>(entryMap.values()));
+    }
 
-    return list;
+    return entryList;
   }
 
   public class Entry
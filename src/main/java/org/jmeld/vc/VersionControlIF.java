@@ -8,6 +8,12 @@ public interface VersionControlIF
 
   public String getName();
 
+  /**
+   * @return the names of the directories that the root directory of a
+   *         working copy contains (f.e. '.git').
+   */
+  public String[] getAdministrativeDirectoryNames();
+
   public boolean isEnabled(File file);
 
   //public BlameIF executeBlame(File file);
@@ -2,41 +2,204 @@ package org.jmeld.vc;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
+/**
+ * Finds the version control systems of a file. <br>
+ * A file is under version control if one of its parent directories contains
+ * the administrative directory of a version control system (f.e. '.git').
+ * The parent directories are examined without starting a process. The root
+ * directories that were found are remembered per directory and checked again
+ * before they are used. A version control system is only asked whether it
+ * is installed when a file is found that uses it.
+ */
 public class VersionControlUtil
 {
+  // Class variables:
   static private List<VersionControlIF> versionControlList;
+  // The maximum number of directories in the cache.
+  private static final int CACHE_SIZE = 10000;
+  // The root directories of every directory that was examined. The roots are
+  // in the order of the versionControlList. null means 'not under that
+  // version control'.
+  private static final Map<File, File[]> rootCache = new LinkedHashMap<File, File[]>(16, 0.75f, true)
+  {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<File, File[]> eldest)
+    {
+      return size() > CACHE_SIZE;
+    }
+  };
 
   public static boolean isVersionControlled(File file)
   {
-    return getVersionControl(file) != null;
+    return !getVersionControl(file).isEmpty();
   }
 
+  /**
+   * @return the installed version control systems of the file. The system
+   *         with the nearest root directory is first.
+   */
   public static List<VersionControlIF> getVersionControl(File file)
   {
     List<VersionControlIF> list;
+    List<VersionControlIF> vcList;
+    File[] roots;
+    File nearestRoot;
+    int nearestIndex;
 
     list = new ArrayList<VersionControlIF>();
-    for (VersionControlIF versionControl : getVersionControlList())
+    vcList = getVersionControlList();
+    roots = getRootDirectories(file).clone();
+    for (;;)
     {
-      if (!versionControl.isInstalled())
+      nearestIndex = -1;
+      nearestRoot = null;
+      for (int i = 0; i < roots.length; i++)
       {
-        continue;
+        if (roots[i] != null && (nearestRoot == null || roots[i].getPath().length() > nearestRoot.getPath().length()))
+        {
+          nearestRoot = roots[i];
+          nearestIndex = i;
+        }
       }
 
-      if (!versionControl.isEnabled(file))
+      if (nearestIndex == -1)
       {
-        continue;
+        break;
       }
 
-      list.add(versionControl);
+      roots[nearestIndex] = null;
+      if (vcList.get(nearestIndex).isInstalled())
+      {
+        list.add(vcList.get(nearestIndex));
+      }
     }
 
     return list;
   }
 
-  public static List<VersionControlIF> getVersionControlList()
+  /**
+   * @return the root directory of the working copy that contains the file or
+   *         null if the file is not under this version control.
+   */
+  public static File getRootDirectory(VersionControlIF versionControl,
+      File file)
+  {
+    List<VersionControlIF> vcList;
+
+    vcList = getVersionControlList();
+    for (int i = 0; i < vcList.size(); i++)
+    {
+      if (vcList.get(i).getName().equals(versionControl.getName()))
+      {
+        return getRootDirectories(file)[i];
+      }
+    }
+
+    return null;
+  }
+
+  /**
+   * Forget all root directories. A working copy that is created is found
+   * after this method is called.
+   */
+  public static void invalidate()
+  {
+    synchronized (rootCache)
+    {
+      rootCache.clear();
+    }
+  }
+
+  private static File[] getRootDirectories(File file)
+  {
+    File directory;
+
+    file = file.getAbsoluteFile();
+    directory = file.isDirectory() ? file : file.getParentFile();
+    if (directory == null)
+    {
+      return new File[getVersionControlList().size()];
+    }
+
+    return getRootDirectoriesOfDirectory(directory);
+  }
+
+  private static File[] getRootDirectoriesOfDirectory(File directory)
+  {
+    List<VersionControlIF> vcList;
+    File[] roots;
+    File parent;
+
+    synchronized (rootCache)
+    {
+      roots = rootCache.get(directory);
+    }
+
+    if (roots != null && isValid(roots))
+    {
+      return roots;
+    }
+
+    // A directory has the same roots as its parent unless it is a root
+    // itself.
+    vcList = getVersionControlList();
+    parent = directory.getParentFile();
+    roots = parent == null ? new File[vcList.size()] : getRootDirectoriesOfDirectory(parent).clone();
+    for (int i = 0; i < vcList.size(); i++)
+    {
+      if (isRootDirectory(vcList.get(i), directory))
+      {
+        roots[i] = directory;
+      }
+    }
+
+    synchronized (rootCache)
+    {
+      rootCache.put(directory, roots);
+    }
+
+    return roots;
+  }
+
+  /**
+   * A root directory is not valid anymore if its administrative directory
+   * has been removed.
+   */
+  private static boolean isValid(File[] roots)
+  {
+    List<VersionControlIF> vcList;
+
+    vcList = getVersionControlList();
+    for (int i = 0; i < roots.length; i++)
+    {
+      if (roots[i] != null && !isRootDirectory(vcList.get(i), roots[i]))
+      {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  private static boolean isRootDirectory(VersionControlIF versionControl,
+      File directory)
+  {
+    for (String name : versionControl.getAdministrativeDirectoryNames())
+    {
+      if (new File(directory, name).exists())
+      {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  public static synchronized List<VersionControlIF> getVersionControlList()
   {
     if (versionControlList == null)
     {
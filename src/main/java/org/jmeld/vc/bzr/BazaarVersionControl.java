@@ -4,6 +4,7 @@ import java.io.File;
 import org.jmeld.vc.BaseFile;
 import org.jmeld.vc.StatusResult;
 import org.jmeld.vc.VersionControlIF;
+import org.jmeld.vc.VersionControlUtil;
 
 public class BazaarVersionControl
     implements VersionControlIF
@@ -15,6 +16,14 @@ public class BazaarVersionControl
     return "bazaar";
   }
 
+  public String[] getAdministrativeDirectoryNames()
+  {
+    return new String[]
+    {
+      ".bzr"
+    };
+  }
+
   public boolean isInstalled()
   {
     InstalledCmd cmd;
@@ -31,12 +40,8 @@ public class BazaarVersionControl
 
   public boolean isEnabled(File file)
   {
-    ActiveCmd cmd;
-
-    cmd = new ActiveCmd(file);
-    cmd.execute();
-
-    return cmd.getResult().isTrue();
+    return VersionControlUtil.getRootDirectory(this,
+                                               file) != null;
   }
 
   public StatusResult executeStatus(File file)
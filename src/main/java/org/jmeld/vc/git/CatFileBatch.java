@@ -0,0 +1,268 @@
+package org.jmeld.vc.git;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import org.jmeld.vc.BaseFile;
+
+/**
+ * Reads the HEAD version of files with 1 'git cat-file --batch' process per
+ * repository. <br>
+ * A request is written to the process as soon as it is made. The answers are
+ * read on a background thread in the order of the requests. So requests of
+ * several threads are pipelined and no process is forked per file.
+ */
+class CatFileBatch
+{
+  // Class variables:
+  private static final Map<File, CatFileBatch> instances = new HashMap<>();
+
+  // Instance variables:
+  private final File rootDirectory;
+  private Connection connection;
+
+  private CatFileBatch(File rootDirectory)
+  {
+    this.rootDirectory = rootDirectory;
+  }
+
+  /**
+   * @return the batch of the repository with this root directory.
+   */
+  static CatFileBatch getInstance(File rootDirectory)
+  {
+    CatFileBatch batch;
+
+    synchronized (instances)
+    {
+      batch = instances.get(rootDirectory);
+      if (batch == null)
+      {
+        batch = new CatFileBatch(rootDirectory);
+        instances.put(rootDirectory, batch);
+      }
+    }
+
+    return batch;
+  }
+
+  /**
+   * @return the HEAD version of the file or null if it is not in HEAD.
+   */
+  BaseFile getBaseFile(File file)
+      throws IOException
+  {
+    String path;
+
+    path = getPath(file);
+    if (path == null)
+    {
+      return null;
+    }
+
+    try
+    {
+      return request(path).get();
+    }
+    catch (InterruptedException ex)
+    {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while reading " + path, ex);
+    }
+    catch (ExecutionException ex)
+    {
+      throw new IOException("Could not read " + path, ex.getCause());
+    }
+  }
+
+  /**
+   * @return the path relative to the root directory or null if git cannot
+   *         read it in batch mode.
+   */
+  private String getPath(File file)
+  {
+    String path;
+
+    path = rootDirectory.toPath().relativize(file.getAbsoluteFile().toPath().normalize()).toString();
+    if (path.isEmpty() || path.startsWith("..") || path.indexOf('\n') != -1)
+    {
+      return null;
+    }
+
+    return path.replace(File.separatorChar, '/');
+  }
+
+  private CompletableFuture<BaseFile> request(String path)
+      throws IOException
+  {
+    CompletableFuture<BaseFile> future;
+
+    future = new CompletableFuture<>();
+    synchronized (this)
+    {
+      if (connection == null || connection.closed)
+      {
+        connection = new Connection();
+      }
+      connection.request(path, future);
+    }
+
+    return future;
+  }
+
+  /**
+   * A running 'git cat-file --batch' process.
+   */
+  private class Connection
+      implements Runnable
+  {
+    private final Process process;
+    private final OutputStream requests;
+    private final DataInputStream answers;
+    // The requests that are not answered yet in the order they were written.
+    private final Deque<CompletableFuture<BaseFile>> pending = new ArrayDeque<>();
+    private volatile boolean closed;
+
+    Connection()
+        throws IOException
+    {
+      ProcessBuilder pb;
+      Thread thread;
+
+      pb = new ProcessBuilder("git", "cat-file", "--batch");
+      pb.directory(rootDirectory);
+      pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+      process = pb.start();
+
+      requests = process.getOutputStream();
+      answers = new DataInputStream(new BufferedInputStream(process.getInputStream(), 64 * 1024));
+
+      thread = new Thread(this, "JMeld git cat-file " + rootDirectory.getName());
+      thread.setDaemon(true);
+      thread.start();
+    }
+
+    /**
+     * Called with the lock of the batch so the requests are written in the
+     * same order as they are added to pending.
+     */
+    void request(String path, CompletableFuture<BaseFile> future)
+        throws IOException
+    {
+      try
+      {
+        synchronized (pending)
+        {
+          if (closed)
+          {
+            throw new IOException("git cat-file stopped");
+          }
+          pending.addLast(future);
+        }
+        requests.write(("HEAD:" + path + "\n").getBytes(StandardCharsets.UTF_8));
+        requests.flush();
+      }
+      catch (IOException ex)
+      {
+        close(ex);
+        throw ex;
+      }
+    }
+
+    @Override
+    public void run()
+    {
+      String header;
+      String[] fields;
+      byte[] data;
+      CompletableFuture<BaseFile> future;
+
+      try
+      {
+        while ((header = readLine()) != null)
+        {
+          synchronized (pending)
+          {
+            future = pending.pollFirst();
+          }
+
+          // The header is '<sha> <type> <size>' or '<object> missing'. The
+          // object contains the path which can contain spaces.
+          fields = header.split(" ");
+          if (header.endsWith(" missing") || header.endsWith(" ambiguous") || fields.length != 3)
+          {
+            complete(future, null);
+            continue;
+          }
+
+          // The content is read directly into the buffer of the base file.
+          data = new byte[Integer.parseInt(fields[2])];
+          answers.readFully(data);
+          answers.readByte();
+
+          complete(future, fields[1].equals("blob") ? new BaseFile(data) : null);
+        }
+
+        close(new EOFException("git cat-file stopped"));
+      }
+      catch (Exception ex)
+      {
+        close(ex);
+      }
+    }
+
+    private void complete(CompletableFuture<BaseFile> future, BaseFile baseFile)
+    {
+      if (future != null)
+      {
+        future.complete(baseFile);
+      }
+    }
+
+    private String readLine()
+        throws IOException
+    {
+      StringBuilder sb;
+      int b;
+
+      sb = new StringBuilder(64);
+      while ((b = answers.read()) != '\n')
+      {
+        if (b == -1)
+        {
+          return null;
+        }
+        sb.append((char) b);
+      }
+
+      return sb.toString();
+    }
+
+    /**
+     * Stop the process. The requests that are not answered fail.
+     */
+    private void close(Exception ex)
+    {
+      process.destroy();
+
+      synchronized (pending)
+      {
+        closed = true;
+        while (!pending.isEmpty())
+        {
+          pending.pollFirst().completeExceptionally(ex);
+        }
+      }
+    }
+  }
+}
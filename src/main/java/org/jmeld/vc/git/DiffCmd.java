@@ -1,9 +1,9 @@
 package org.jmeld.vc.git;
 
 import java.io.BufferedReader;
-import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -42,7 +42,8 @@ public class DiffCmd
     return getResult();
   }
 
-  protected void build(byte[] data)
+  @Override
+  protected void build(InputStream is)
   {
     String path;
     JMRevision revision;
@@ -51,7 +52,8 @@ public class DiffCmd
 
     diffData = new DiffData();
 
-    reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(data)));
+    // The output is parsed while it is read.
+    reader = new BufferedReader(new InputStreamReader(is));
 
     try
     {
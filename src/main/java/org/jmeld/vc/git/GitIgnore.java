@@ -0,0 +1,325 @@
+package org.jmeld.vc.git;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * The patterns of 1 ignore file (a .gitignore, info/exclude or the
+ * core.excludesFile). <br>
+ * A pattern without a '/' (except at the end) matches the name of a file at
+ * any level below the directory of the ignore file. Other patterns match the
+ * path relative to that directory. A pattern that ends with '/' only matches
+ * directories and a pattern that starts with '!' includes a file again. The
+ * last pattern that matches wins. <br>
+ * The ignore files are chained: a file that is not matched by the patterns
+ * of its own directory is matched by the ignore file of the parent.
+ */
+class GitIgnore
+{
+  // Class variables:
+  // Ignores nothing. It is the first parent of every chain.
+  static final GitIgnore EMPTY = new GitIgnore(null, "", new ArrayList<>());
+
+  // Instance variables:
+  private final GitIgnore parent;
+  // The directory of the ignore file relative to the root directory with a
+  // '/' at the end or "".
+  private final String base;
+  private final List<Rule> ruleList;
+
+  private GitIgnore(GitIgnore parent, String base, List<Rule> ruleList)
+  {
+    this.parent = parent;
+    this.base = base;
+    this.ruleList = ruleList;
+  }
+
+  /**
+   * @param parent
+   *          the ignore file that is used when no pattern of this file
+   *          matches.
+   * @param base
+   *          the directory of the ignore file relative to the root directory
+   *          with '/' as separator or "" for the root directory.
+   * @return the ignore file or the parent if the file has no patterns.
+   */
+  static GitIgnore read(GitIgnore parent, String base, File file, boolean ignoreCase)
+      throws IOException
+  {
+    List<Rule> ruleList;
+    String line;
+    Rule rule;
+
+    if (!file.isFile())
+    {
+      return parent;
+    }
+
+    ruleList = new ArrayList<>();
+    try (BufferedReader br = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8))
+    {
+      while ((line = br.readLine()) != null)
+      {
+        rule = Rule.parse(line, ignoreCase);
+        if (rule != null)
+        {
+          ruleList.add(rule);
+        }
+      }
+    }
+
+    if (ruleList.isEmpty())
+    {
+      return parent;
+    }
+
+    return new GitIgnore(parent, base.isEmpty() || base.endsWith("/") ? base : base + "/", ruleList);
+  }
+
+  /**
+   * @param path
+   *          the path relative to the root directory with '/' as separator.
+   * @param name
+   *          the last part of the path.
+   */
+  boolean isIgnored(String path, String name, boolean directory)
+  {
+    Rule rule;
+
+    for (GitIgnore ignore = this; ignore != null; ignore = ignore.parent)
+    {
+      if (!path.startsWith(ignore.base))
+      {
+        continue;
+      }
+
+      for (int i = ignore.ruleList.size() - 1; i >= 0; i--)
+      {
+        rule = ignore.ruleList.get(i);
+        if (rule.matches(path.substring(ignore.base.length()), name, directory))
+        {
+          return !rule.negate;
+        }
+      }
+    }
+
+    return false;
+  }
+
+  private static class Rule
+  {
+    private boolean negate;
+    private boolean directoryOnly;
+    // Matches the path instead of the name.
+    private boolean anchored;
+    private Pattern pattern;
+
+    /**
+     * @return the rule or null for an empty line or a comment.
+     */
+    static Rule parse(String line, boolean ignoreCase)
+    {
+      Rule rule;
+      int end;
+
+      if (line.isEmpty() || line.startsWith("#"))
+      {
+        return null;
+      }
+
+      // Trailing spaces are removed unless they are escaped.
+      end = line.length();
+      while (end > 0 && line.charAt(end - 1) == ' ' && (end < 2 || line.charAt(end - 2) != '\\'))
+      {
+        end--;
+      }
+      line = line.substring(0, end);
+
+      rule = new Rule();
+      if (line.startsWith("!"))
+      {
+        rule.negate = true;
+        line = line.substring(1);
+      }
+      else if (line.startsWith("\\!") || line.startsWith("\\#"))
+      {
+        line = line.substring(1);
+      }
+
+      if (line.endsWith("/"))
+      {
+        rule.directoryOnly = true;
+        line = line.substring(0, line.length() - 1);
+      }
+
+      if (line.isEmpty())
+      {
+        return null;
+      }
+
+      rule.anchored = line.indexOf('/') != -1;
+      if (line.startsWith("/"))
+      {
+        line = line.substring(1);
+      }
+
+      rule.pattern = Pattern.compile(toRegex(line), ignoreCase ? Pattern.CASE_INSENSITIVE : 0);
+
+      return rule;
+    }
+
+    boolean matches(String path, String name, boolean directory)
+    {
+      if (directoryOnly && !directory)
+      {
+        return false;
+      }
+
+      return pattern.matcher(anchored ? path : name).matches();
+    }
+
+    /**
+     * Translate a glob to a regular expression. '*' and '?' do not match a
+     * '/'. A '**' between slashes matches any number of directories.
+     */
+    private static String toRegex(String glob)
+    {
+      StringBuilder sb;
+      char c;
+      int end;
+
+      sb = new StringBuilder();
+      for (int i = 0; i < glob.length(); i++)
+      {
+        c = glob.charAt(i);
+        switch (c)
+        {
+          case '*':
+            if (glob.startsWith("**", i) && (i == 0 || glob.charAt(i - 1) == '/'))
+            {
+              if (i + 2 == glob.length())
+              {
+                // 'a/**' matches everything below a.
+                sb.append(".*");
+                i++;
+                break;
+              }
+
+              if (glob.charAt(i + 2) == '/')
+              {
+                // '**/' matches 0 or more directories.
+                sb.append("(?:.*/)?");
+                i += 2;
+                break;
+              }
+            }
+            sb.append("[^/]*");
+            while (i + 1 < glob.length() && glob.charAt(i + 1) == '*')
+            {
+              i++;
+            }
+            break;
+
+          case '?':
+            sb.append("[^/]");
+            break;
+
+          case '[':
+            end = findClassEnd(glob, i);
+            if (end == -1)
+            {
+              sb.append("\\[");
+              break;
+            }
+            sb.append('[');
+            i++;
+            if (glob.charAt(i) == '!' || glob.charAt(i) == '^')
+            {
+              sb.append('^');
+              i++;
+            }
+            for (; i < end; i++)
+            {
+              c = glob.charAt(i);
+              if (c == '\\' && i + 1 < end)
+              {
+                c = glob.charAt(++i);
+              }
+              if (c == '-' && sb.charAt(sb.length() - 1) != '[' && sb.charAt(sb.length() - 1) != '^' && i + 1 < end)
+              {
+                sb.append('-');
+              }
+              else
+              {
+                appendLiteral(sb, c);
+              }
+            }
+            sb.append(']');
+            break;
+
+          case '\\':
+            if (i + 1 < glob.length())
+            {
+              appendLiteral(sb, glob.charAt(++i));
+            }
+            break;
+
+          default:
+            appendLiteral(sb, c);
+        }
+      }
+
+      return sb.toString();
+    }
+
+    /**
+     * @return the index of the ']' that closes the class at start or -1.
+     */
+    private static int findClassEnd(String glob, int start)
+    {
+      int i;
+
+      i = start + 1;
+      if (i < glob.length() && (glob.charAt(i) == '!' || glob.charAt(i) == '^'))
+      {
+        i++;
+      }
+      // A ']' directly after the '[' is part of the class.
+      if (i < glob.length() && glob.charAt(i) == ']')
+      {
+        i++;
+      }
+      for (; i < glob.length(); i++)
+      {
+        if (glob.charAt(i) == '\\')
+        {
+          i++;
+        }
+        else if (glob.charAt(i) == ']')
+        {
+          return i;
+        }
+      }
+
+      return -1;
+    }
+
+    private static void appendLiteral(StringBuilder sb, char c)
+    {
+      if (Character.isLetterOrDigit(c))
+      {
+        sb.append(c);
+      }
+      else
+      {
+        sb.append('\\').append(c);
+      }
+    }
+  }
+}
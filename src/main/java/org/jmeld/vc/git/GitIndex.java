@@ -0,0 +1,350 @@
+package org.jmeld.vc.git;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The entries of the index (.git/index) of a git working tree. <br>
+ * Every entry has the stat data the file had when git last looked at it. A
+ * file whose size and modification time are still the same has not changed.
+ * Versions 2, 3 and 4 (with compressed paths) are read. A split index and a
+ * sparse index are refused with an IOException. <br>
+ * The cache tree extension tells which directories have the same content as
+ * a tree object; such a directory does not have to be compared with HEAD
+ * file by file.
+ */
+class GitIndex
+{
+  // Class variables:
+  private static final int ID_LENGTH = 20;
+  private static final int FLAG_EXTENDED = 0x4000;
+  private static final int FLAG_SKIP_WORKTREE = 0x4000;
+  private static final int FLAG_INTENT_TO_ADD = 0x2000;
+
+  // Instance variables:
+  private final List<Entry> entryList;
+  private final Map<String, byte[]> treeMap = new HashMap<>();
+  private final long lastModified;
+
+  /**
+   * Read the index. A missing index has no entries.
+   */
+  GitIndex(File file)
+      throws IOException
+  {
+    ByteBuffer data;
+
+    entryList = new ArrayList<>();
+    if (!file.isFile())
+    {
+      lastModified = 0;
+      return;
+    }
+
+    // The file is read at once because git replaces it while we read.
+    lastModified = Files.getLastModifiedTime(file.toPath()).toMillis();
+    data = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+    try
+    {
+      read(data);
+    }
+    catch (RuntimeException ex)
+    {
+      throw new IOException("Corrupt index " + file, ex);
+    }
+  }
+
+  /**
+   * @return the entries sorted by path.
+   */
+  List<Entry> getEntryList()
+  {
+    return entryList;
+  }
+
+  /**
+   * @return the tree ids of the directories that did not change since the
+   *         cache tree was written, by their path relative to the root
+   *         directory ("" for the root directory).
+   */
+  Map<String, byte[]> getTreeMap()
+  {
+    return treeMap;
+  }
+
+  /**
+   * @return the time in milliseconds the index was written. A file that is
+   *         modified in the same time (it is 'racy') cannot be trusted on its
+   *         stat data.
+   */
+  long getLastModified()
+  {
+    return lastModified;
+  }
+
+  private void read(ByteBuffer data)
+      throws IOException
+  {
+    int version;
+    int count;
+    int start;
+    int flags;
+    int extendedFlags;
+    int nameLength;
+    byte[] previousName;
+    byte[] name;
+    int strip;
+    int end;
+    Entry entry;
+    int signature;
+    int size;
+
+    if (data.getInt() != 0x44495243)
+    {
+      throw new IOException("Not an index");
+    }
+
+    version = data.getInt();
+    if (version < 2 || version > 4)
+    {
+      throw new IOException("Unsupported index version " + version);
+    }
+
+    count = data.getInt();
+    previousName = new byte[0];
+    for (int i = 0; i < count; i++)
+    {
+      start = data.position();
+
+      entry = new Entry();
+      data.position(start + 8);
+      entry.mtimeSeconds = data.getInt() & 0xffffffffL;
+      entry.mtimeNanos = data.getInt();
+      data.position(start + 24);
+      entry.mode = data.getInt();
+      data.position(start + 36);
+      entry.size = data.getInt();
+      entry.id = new byte[ID_LENGTH];
+      data.get(entry.id);
+      flags = data.getShort() & 0xffff;
+      entry.stage = (flags >> 12) & 3;
+
+      extendedFlags = 0;
+      if (version >= 3 && (flags & FLAG_EXTENDED) != 0)
+      {
+        extendedFlags = data.getShort() & 0xffff;
+      }
+      entry.skipWorktree = (extendedFlags & FLAG_SKIP_WORKTREE) != 0;
+      entry.intentToAdd = (extendedFlags & FLAG_INTENT_TO_ADD) != 0;
+
+      if (version == 4)
+      {
+        // The name is the previous name without its last 'strip' bytes
+        // followed by the bytes up to a '\0'.
+        strip = readVarInt(data);
+        end = data.position();
+        while (data.get(end) != 0)
+        {
+          end++;
+        }
+        name = new byte[previousName.length - strip + end - data.position()];
+        System.arraycopy(previousName, 0, name, 0, previousName.length - strip);
+        data.get(name, previousName.length - strip, end - data.position());
+        data.get();
+      }
+      else
+      {
+        // The name is followed by 1 to 8 '\0' bytes so the entry ends at a
+        // multiple of 8.
+        nameLength = flags & 0xfff;
+        end = data.position() + nameLength;
+        if (nameLength == 0xfff)
+        {
+          while (data.get(end) != 0)
+          {
+            end++;
+          }
+        }
+        name = new byte[end - data.position()];
+        data.get(name);
+        data.position(start + ((end - start + 8) & ~7));
+      }
+
+      // A sparse directory stands for all files below it.
+      if (entry.skipWorktree && (entry.mode & 0170000) == 0040000)
+      {
+        throw new IOException("Sparse index is not supported");
+      }
+
+      entry.path = new String(name, StandardCharsets.UTF_8);
+      entryList.add(entry);
+      previousName = name;
+    }
+
+    // The extensions follow the entries; the last 20 bytes are a checksum.
+    while (data.remaining() > ID_LENGTH)
+    {
+      signature = data.getInt();
+      size = data.getInt();
+      if (signature == 0x6c696e6b)
+      {
+        throw new IOException("Split index is not supported");
+      }
+      if (signature == 0x73646972)
+      {
+        throw new IOException("Sparse index is not supported");
+      }
+      if (signature == 0x54524545)
+      {
+        readTree(data.slice(), null);
+      }
+      data.position(data.position() + size);
+    }
+  }
+
+  /**
+   * Read a directory of the cache tree and its subdirectories. A directory
+   * is '<name>\0<entry count> <subdirectory count>\n<20 byte id>'. The id is
+   * missing if the entry count is -1 (the directory changed).
+   */
+  private void readTree(ByteBuffer data, String parent)
+  {
+    String name;
+    String path;
+    String counts;
+    int entryCount;
+    int subtreeCount;
+    byte[] id;
+
+    name = readUntil(data, '\0');
+    path = parent == null ? "" : parent.isEmpty() ? name : parent + "/" + name;
+
+    counts = readUntil(data, '\n');
+    entryCount = Integer.parseInt(counts.substring(0, counts.indexOf(' ')));
+    subtreeCount = Integer.parseInt(counts.substring(counts.indexOf(' ') + 1));
+
+    if (entryCount >= 0)
+    {
+      id = new byte[ID_LENGTH];
+      data.get(id);
+      treeMap.put(path, id);
+    }
+
+    for (int i = 0; i < subtreeCount; i++)
+    {
+      readTree(data, path);
+    }
+  }
+
+  /**
+   * @return the text up to the terminator. The terminator is skipped.
+   */
+  private static String readUntil(ByteBuffer data, char terminator)
+  {
+    int start;
+
+    start = data.position();
+    while (data.get() != terminator)
+    {
+      // The text is converted at once.
+    }
+
+    return new String(data.array(), data.arrayOffset() + start, data.position() - start - 1, StandardCharsets.UTF_8);
+  }
+
+  private static int readVarInt(ByteBuffer data)
+  {
+    int c;
+    int value;
+
+    c = data.get() & 0xff;
+    value = c & 0x7f;
+    while ((c & 0x80) != 0)
+    {
+      c = data.get() & 0xff;
+      value = ((value + 1) << 7) | (c & 0x7f);
+    }
+
+    return value;
+  }
+
+  static class Entry
+  {
+    private String path;
+    private int mode;
+    private long mtimeSeconds;
+    private int mtimeNanos;
+    // The lower 32 bits of the size.
+    private int size;
+    private byte[] id;
+    private int stage;
+    private boolean skipWorktree;
+    private boolean intentToAdd;
+
+    /**
+     * @return the path relative to the root directory with '/' as
+     *         separator.
+     */
+    String getPath()
+    {
+      return path;
+    }
+
+    int getMode()
+    {
+      return mode;
+    }
+
+    long getMtimeSeconds()
+    {
+      return mtimeSeconds;
+    }
+
+    int getMtimeNanos()
+    {
+      return mtimeNanos;
+    }
+
+    int getSize()
+    {
+      return size;
+    }
+
+    byte[] getId()
+    {
+      return id;
+    }
+
+    /**
+     * @return 0 for a merged file; 1, 2 or 3 for the versions of a file with
+     *         a conflict.
+     */
+    int getStage()
+    {
+      return stage;
+    }
+
+    /**
+     * @return true if git does not look at the file in the working tree.
+     */
+    boolean isSkipWorktree()
+    {
+      return skipWorktree;
+    }
+
+    /**
+     * @return true if the file was added with 'git add -N'.
+     */
+    boolean isIntentToAdd()
+    {
+      return intentToAdd;
+    }
+  }
+}
@@ -0,0 +1,829 @@
+package org.jmeld.vc.git;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.jmeld.vc.StatusResult;
+
+/**
+ * Computes the status of a git working tree without starting git. <br>
+ * The index is compared with the HEAD tree for the staged changes; the
+ * directories that the cache tree of the index has as unchanged are skipped
+ * at once. The stat
+ * data in the index is compared with the files in the working tree for the
+ * unstaged changes; only a file whose stat data changed is read and hashed.
+ * The working tree is walked for untracked files with the rules of the
+ * .gitignore files. The files are examined on a pool of threads. <br>
+ * The result has the same entries as 'git status -s': the names are relative
+ * to the directory of the file and an untracked directory is 1 entry that
+ * ends with '/'. Renames are not detected; they are a removed and an added
+ * file. <br>
+ * If a file might be converted by git (line endings or a filter) its content
+ * cannot be compared here. Then execute() returns null and git has to be
+ * asked.
+ */
+class GitIndexStatus
+{
+  // Class variables:
+  private static final int THREADS = Math.min(32, Math.max(8, 2 * Runtime.getRuntime().availableProcessors()));
+  // The number of entries an idle thread can steal at once.
+  private static final int SPLIT_SIZE = 256;
+  private static final int MODE_TYPE_MASK = 0170000;
+  private static final int MODE_FILE = 0100000;
+  private static final int MODE_SYMLINK = 0120000;
+  private static final int MODE_GITLINK = 0160000;
+  private static final int MODE_EXECUTABLE = 0111;
+
+  // Instance variables:
+  private final GitObjectReader reader;
+  private final File rootDirectory;
+  private final Path rootPath;
+  private final Map<String, String> userConfig;
+  private final boolean trustFileMode;
+  private final boolean ignoreCase;
+  private boolean conversionPossible;
+  private final Map<String, StatusResult.Status> statusMap = new ConcurrentHashMap<>();
+  private final Map<String, StatusResult.Status> untrackedMap = new ConcurrentHashMap<>();
+  private final AtomicBoolean undecided = new AtomicBoolean();
+  private long indexLastModified;
+  private Set<String> trackedFiles;
+  private Set<String> trackedDirectories;
+  // The directories whose index entries are the same as in HEAD.
+  private Set<String> unchangedDirectories;
+
+  GitIndexStatus(GitObjectReader reader)
+      throws IOException
+  {
+    this.reader = reader;
+
+    rootDirectory = reader.getRootDirectory();
+    rootPath = rootDirectory.toPath();
+    userConfig = readUserConfig();
+    trustFileMode = !"false".equalsIgnoreCase(getConfig("core.filemode"));
+    ignoreCase = "true".equalsIgnoreCase(getConfig("core.ignorecase"));
+  }
+
+  /**
+   * @return the status of the files below the file or null if git has to be
+   *         asked.
+   */
+  StatusResult execute(File file)
+      throws IOException
+  {
+    File workingDirectory;
+    String workingPrefix;
+    String path;
+    String name;
+    GitIndex index;
+    List<GitIndex.Entry> entryList;
+    Map<String, byte[]> headFiles;
+    Set<String> unmerged;
+    GitIgnore ignore;
+    List<RecursiveAction> taskList;
+    StatusResult result;
+    ForkJoinPool pool;
+
+    file = file.getAbsoluteFile();
+    workingDirectory = file.isDirectory() ? file : file.getParentFile();
+    path = getPath(file);
+    workingPrefix = getPath(workingDirectory);
+    if (path == null || workingPrefix == null)
+    {
+      return null;
+    }
+    if (!workingPrefix.isEmpty())
+    {
+      workingPrefix += "/";
+    }
+
+    index = new GitIndex(new File(reader.getGitDirectory(), "index"));
+    indexLastModified = index.getLastModified();
+    conversionPossible = isConversionPossible(index);
+
+    // The entries below the path.
+    entryList = new ArrayList<>();
+    unmerged = new HashSet<>();
+    trackedFiles = new HashSet<>();
+    trackedDirectories = new HashSet<>();
+    for (GitIndex.Entry entry : index.getEntryList())
+    {
+      if (!isBelow(entry.getPath(), path))
+      {
+        continue;
+      }
+
+      trackedFiles.add(entry.getPath());
+      addParents(entry.getPath());
+      if (entry.getStage() != 0)
+      {
+        unmerged.add(entry.getPath());
+      }
+      else
+      {
+        entryList.add(entry);
+      }
+    }
+
+    for (String p : unmerged)
+    {
+      statusMap.put(p, StatusResult.Status.conflicted);
+    }
+
+    unchangedDirectories = new HashSet<>();
+    headFiles = reader.getHeadFiles(path,
+                                    index.getTreeMap(),
+                                    unchangedDirectories);
+
+    // The files of HEAD that are not in the index are removed.
+    for (Map.Entry<String, byte[]> e : headFiles.entrySet())
+    {
+      if (!trackedFiles.contains(e.getKey()))
+      {
+        statusMap.put(e.getKey(), StatusResult.Status.removed);
+      }
+    }
+
+    // The tracked files are compared while the untracked files are searched.
+    taskList = new ArrayList<>();
+    taskList.add(new CompareTask(entryList, 0, entryList.size(), headFiles));
+    ignore = getIgnore(path);
+    if (ignore != null)
+    {
+      taskList.add(new UntrackedTask(path.isEmpty() ? rootDirectory : file, path, ignore));
+    }
+
+    pool = new ForkJoinPool(THREADS);
+    try
+    {
+      invoke(pool, new RecursiveAction()
+      {
+        @Override
+        protected void compute()
+        {
+          invokeAll(taskList);
+        }
+      });
+    }
+    finally
+    {
+      pool.shutdown();
+    }
+
+    if (undecided.get())
+    {
+      return null;
+    }
+
+    // The changes of tracked files come before the untracked files just like
+    // in the output of git.
+    result = new StatusResult(file);
+    for (Map.Entry<String, StatusResult.Status> e : statusMap.entrySet())
+    {
+      result.addEntry(e.getKey().substring(workingPrefix.length()),
+                      e.getValue());
+    }
+    for (Map.Entry<String, StatusResult.Status> e : untrackedMap.entrySet())
+    {
+      name = e.getKey().substring(workingPrefix.length());
+      // git shows an untracked working directory as "./".
+      result.addEntry(name.isEmpty() ? "./" : name,
+                      e.getValue());
+    }
+
+    return result;
+  }
+
+  private void invoke(ForkJoinPool pool, RecursiveAction task)
+      throws IOException
+  {
+    try
+    {
+      pool.invoke(task);
+    }
+    catch (UncheckedIOException ex)
+    {
+      throw ex.getCause();
+    }
+  }
+
+  /**
+   * @return the ignore files of the parent directories of the path or null if
+   *         a parent directory is ignored.
+   */
+  private GitIgnore getIgnore(String path)
+      throws IOException
+  {
+    GitIgnore ignore;
+    String excludesFile;
+    String[] names;
+    String parent;
+
+    excludesFile = getConfig("core.excludesfile");
+    ignore = GitIgnore.read(GitIgnore.EMPTY, "", excludesFile != null ? expandHome(excludesFile) : getXdgFile("ignore"),
+                            ignoreCase);
+    ignore = GitIgnore.read(ignore, "", new File(reader.getCommonDirectory(), "info/exclude"), ignoreCase);
+    ignore = GitIgnore.read(ignore, "", new File(rootDirectory, ".gitignore"), ignoreCase);
+    if (path.isEmpty())
+    {
+      return ignore;
+    }
+
+    names = path.split("/");
+    parent = "";
+    for (int i = 0; i < names.length - 1; i++)
+    {
+      parent = parent.isEmpty() ? names[i] : parent + "/" + names[i];
+      if (ignore.isIgnored(parent, names[i], true))
+      {
+        return null;
+      }
+      ignore = GitIgnore.read(ignore, parent, new File(rootDirectory, parent + "/.gitignore"), ignoreCase);
+    }
+
+    return ignore;
+  }
+
+  /**
+   * Compare the index entries with the HEAD tree and the working tree.
+   */
+  private class CompareTask
+      extends RecursiveAction
+  {
+    private static final long serialVersionUID = 1L;
+
+    private final List<GitIndex.Entry> entryList;
+    private final int start;
+    private final int end;
+    private final Map<String, byte[]> headFiles;
+
+    CompareTask(List<GitIndex.Entry> entryList, int start, int end, Map<String, byte[]> headFiles)
+    {
+      this.entryList = entryList;
+      this.start = start;
+      this.end = end;
+      this.headFiles = headFiles;
+    }
+
+    @Override
+    protected void compute()
+    {
+      int middle;
+
+      if (end - start > SPLIT_SIZE)
+      {
+        middle = (start + end) >>> 1;
+        invokeAll(new CompareTask(entryList, start, middle, headFiles),
+                  new CompareTask(entryList, middle, end, headFiles));
+        return;
+      }
+
+      try
+      {
+        for (int i = start; i < end && !undecided.get(); i++)
+        {
+          compare(entryList.get(i));
+        }
+      }
+      catch (IOException ex)
+      {
+        throw new UncheckedIOException(ex);
+      }
+    }
+
+    private void compare(GitIndex.Entry entry)
+        throws IOException
+    {
+      byte[] headId;
+      StatusResult.Status status;
+
+      // A change in the index wins over a change in the working tree just
+      // like the first column of 'git status -s'.
+      headId = headFiles.get(entry.getPath());
+      if (entry.isIntentToAdd())
+      {
+        status = StatusResult.Status.added;
+      }
+      else if (headId == null && isUnchanged(entry.getPath()))
+      {
+        status = getWorktreeStatus(entry);
+      }
+      else if (headId == null)
+      {
+        status = StatusResult.Status.added;
+      }
+      else if (!Arrays.equals(headId, entry.getId()))
+      {
+        status = StatusResult.Status.modified;
+      }
+      else
+      {
+        status = getWorktreeStatus(entry);
+      }
+
+      if (status != null)
+      {
+        statusMap.put(entry.getPath(), status);
+      }
+    }
+  }
+
+  /**
+   * @return the status of the file in the working tree compared with the
+   *         index or null if it is clean.
+   */
+  private StatusResult.Status getWorktreeStatus(GitIndex.Entry entry)
+      throws IOException
+  {
+    Path file;
+    BasicFileAttributes attributes;
+    int type;
+    boolean executable;
+
+    // A submodule is not examined.
+    type = entry.getMode() & MODE_TYPE_MASK;
+    if (entry.isSkipWorktree() || type == MODE_GITLINK)
+    {
+      return null;
+    }
+
+    file = rootPath.resolve(entry.getPath());
+    try
+    {
+      if (trustFileMode && type == MODE_FILE && isPosix())
+      {
+        attributes = Files.readAttributes(file, PosixFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        executable = ((PosixFileAttributes) attributes).permissions().contains(PosixFilePermission.OWNER_EXECUTE);
+        if (attributes.isRegularFile() && executable != ((entry.getMode() & MODE_EXECUTABLE) != 0))
+        {
+          return StatusResult.Status.modified;
+        }
+      }
+      else
+      {
+        attributes = Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+      }
+    }
+    catch (NoSuchFileException ex)
+    {
+      return StatusResult.Status.removed;
+    }
+
+    if (attributes.isDirectory())
+    {
+      return StatusResult.Status.removed;
+    }
+
+    if (type == MODE_SYMLINK ? !attributes.isSymbolicLink() : !attributes.isRegularFile())
+    {
+      return StatusResult.Status.modified;
+    }
+
+    if ((int) attributes.size() != entry.getSize())
+    {
+      return StatusResult.Status.modified;
+    }
+
+    if (isStatClean(entry, attributes))
+    {
+      return null;
+    }
+
+    // The stat data changed; the content decides.
+    if (Arrays.equals(hash(file, type == MODE_SYMLINK, attributes.size()), entry.getId()))
+    {
+      return null;
+    }
+
+    if (conversionPossible && type != MODE_SYMLINK)
+    {
+      undecided.set(true);
+    }
+
+    return StatusResult.Status.modified;
+  }
+
+  private boolean isStatClean(GitIndex.Entry entry, BasicFileAttributes attributes)
+  {
+    long nanos;
+    long seconds;
+    long unit;
+
+    nanos = attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+    seconds = Math.floorDiv(nanos, 1000000000L);
+    if ((seconds & 0xffffffffL) != entry.getMtimeSeconds())
+    {
+      return false;
+    }
+
+    // Java can know the time in less detail than git (f.e. in
+    // microseconds). Then only that detail is compared.
+    nanos = Math.floorMod(nanos, 1000000000L);
+    unit = 1;
+    while (unit < 1000000000L && nanos % (unit * 1000) == 0)
+    {
+      unit *= 1000;
+    }
+    if (nanos / unit != entry.getMtimeNanos() / unit)
+    {
+      return false;
+    }
+
+    // A file that was modified while the index was written can have changed
+    // after git looked at it.
+    return seconds * 1000 + entry.getMtimeNanos() / 1000000 < indexLastModified;
+  }
+
+  /**
+   * @return the id git gives the content of the file.
+   */
+  private byte[] hash(Path file, boolean symlink, long size)
+      throws IOException
+  {
+    MessageDigest digest;
+    byte[] data;
+    int count;
+
+    try
+    {
+      digest = MessageDigest.getInstance("SHA-1");
+    }
+    catch (NoSuchAlgorithmException ex)
+    {
+      throw new IOException(ex);
+    }
+
+    // The content of a symbolic link is its target.
+    if (symlink)
+    {
+      data = Files.readSymbolicLink(file).toString().replace(File.separatorChar, '/').getBytes(StandardCharsets.UTF_8);
+      digest.update(("blob " + data.length + "\0").getBytes(StandardCharsets.US_ASCII));
+      digest.update(data);
+      return digest.digest();
+    }
+
+    digest.update(("blob " + size + "\0").getBytes(StandardCharsets.US_ASCII));
+    data = new byte[64 * 1024];
+    try (InputStream is = Files.newInputStream(file))
+    {
+      while ((count = is.read(data)) != -1)
+      {
+        digest.update(data, 0, count);
+      }
+    }
+
+    return digest.digest();
+  }
+
+  /**
+   * Look for untracked files in a directory. A directory without tracked
+   * files is 1 entry if it contains an untracked file.
+   */
+  private class UntrackedTask
+      extends RecursiveAction
+  {
+    private static final long serialVersionUID = 1L;
+
+    private final File directory;
+    private final String path;
+    private final GitIgnore ignore;
+
+    UntrackedTask(File directory, String path, GitIgnore ignore)
+    {
+      this.directory = directory;
+      this.path = path;
+      this.ignore = ignore;
+    }
+
+    @Override
+    protected void compute()
+    {
+      List<UntrackedTask> taskList;
+
+      try
+      {
+        if (!directory.isDirectory())
+        {
+          if (Files.exists(directory.toPath(), LinkOption.NOFOLLOW_LINKS) && !trackedFiles.contains(path) && !ignore.isIgnored(path, directory.getName(), false))
+          {
+            untrackedMap.put(path, StatusResult.Status.unversioned);
+          }
+          return;
+        }
+
+        // The files in an ignored directory are ignored even if the
+        // directory has tracked files.
+        if (!path.isEmpty() && ignore.isIgnored(path, directory.getName(), true))
+        {
+          return;
+        }
+
+        // Only the start directory can be a directory without tracked files.
+        if (!path.isEmpty() && !trackedDirectories.contains(path))
+        {
+          if (containsUntracked(directory, path, ignore))
+          {
+            untrackedMap.put(path + "/", StatusResult.Status.unversioned);
+          }
+          return;
+        }
+
+        taskList = new ArrayList<>();
+        walk(taskList);
+        invokeAll(taskList);
+      }
+      catch (IOException ex)
+      {
+        throw new UncheckedIOException(ex);
+      }
+    }
+
+    private void walk(List<UntrackedTask> taskList)
+        throws IOException
+    {
+      String[] names;
+      GitIgnore directoryIgnore;
+      String childPath;
+      File child;
+      boolean isDirectory;
+
+      names = directory.list();
+      if (names == null)
+      {
+        return;
+      }
+
+      directoryIgnore = path.isEmpty() ? ignore : GitIgnore.read(ignore, path, new File(directory, ".gitignore"),
+                                                                 ignoreCase);
+      for (String name : names)
+      {
+        if (name.equals(".git"))
+        {
+          continue;
+        }
+
+        childPath = path.isEmpty() ? name : path + "/" + name;
+        if (trackedFiles.contains(childPath))
+        {
+          continue;
+        }
+
+        child = new File(directory, name);
+        isDirectory = isDirectory(child);
+        if (directoryIgnore.isIgnored(childPath, name, isDirectory))
+        {
+          continue;
+        }
+
+        if (isDirectory && trackedDirectories.contains(childPath))
+        {
+          taskList.add(new UntrackedTask(child, childPath, directoryIgnore));
+        }
+        else if (!isDirectory)
+        {
+          untrackedMap.put(childPath, StatusResult.Status.unversioned);
+        }
+        else if (new File(child, ".git").exists() || containsUntracked(child, childPath, directoryIgnore))
+        {
+          untrackedMap.put(childPath + "/", StatusResult.Status.unversioned);
+        }
+      }
+    }
+  }
+
+  /**
+   * @return true if the directory (that has no tracked files) contains a
+   *         file that is not ignored.
+   */
+  private boolean containsUntracked(File directory, String path, GitIgnore ignore)
+      throws IOException
+  {
+    String[] names;
+    GitIgnore directoryIgnore;
+    String childPath;
+    File child;
+    boolean isDirectory;
+
+    names = directory.list();
+    if (names == null)
+    {
+      return false;
+    }
+
+    directoryIgnore = GitIgnore.read(ignore, path, new File(directory, ".gitignore"), ignoreCase);
+    for (String name : names)
+    {
+      if (name.equals(".git"))
+      {
+        continue;
+      }
+
+      childPath = path + "/" + name;
+      child = new File(directory, name);
+      isDirectory = isDirectory(child);
+      if (directoryIgnore.isIgnored(childPath, name, isDirectory))
+      {
+        continue;
+      }
+
+      if (!isDirectory || new File(child, ".git").exists() || containsUntracked(child, childPath, directoryIgnore))
+      {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  private static boolean isDirectory(File file)
+  {
+    return Files.isDirectory(file.toPath(), LinkOption.NOFOLLOW_LINKS);
+  }
+
+  /**
+   * @return true if the path is in a directory whose index entries are the
+   *         same as in HEAD.
+   */
+  private boolean isUnchanged(String path)
+  {
+    int index;
+
+    if (unchangedDirectories.isEmpty())
+    {
+      return false;
+    }
+
+    if (unchangedDirectories.contains(""))
+    {
+      return true;
+    }
+
+    index = path.lastIndexOf('/');
+    while (index != -1)
+    {
+      path = path.substring(0, index);
+      if (unchangedDirectories.contains(path))
+      {
+        return true;
+      }
+      index = path.lastIndexOf('/');
+    }
+
+    return false;
+  }
+
+  private void addParents(String path)
+  {
+    int index;
+
+    index = path.lastIndexOf('/');
+    while (index != -1)
+    {
+      path = path.substring(0, index);
+      if (!trackedDirectories.add(path))
+      {
+        return;
+      }
+      index = path.lastIndexOf('/');
+    }
+  }
+
+  /**
+   * @return true if the path is the directory or the file or is below it.
+   */
+  private static boolean isBelow(String path, String directory)
+  {
+    return directory.isEmpty() || path.equals(directory)
+           || (path.startsWith(directory) && path.charAt(directory.length()) == '/');
+  }
+
+  /**
+   * @return the path relative to the root directory with '/' as separator or
+   *         null if the file is not below the root directory.
+   */
+  private String getPath(File file)
+  {
+    String path;
+
+    path = rootDirectory.toPath().relativize(file.toPath().normalize()).toString();
+    if (path.startsWith(".."))
+    {
+      return null;
+    }
+
+    return path.replace(File.separatorChar, '/');
+  }
+
+  private static boolean isPosix()
+  {
+    return File.separatorChar == '/';
+  }
+
+  /**
+   * Git converts files on checkout and add if line endings are converted or
+   * if .gitattributes files exist. On Windows the system config usually
+   * converts line endings.
+   */
+  private boolean isConversionPossible(GitIndex index)
+  {
+    String autocrlf;
+
+    if (!isPosix())
+    {
+      return true;
+    }
+
+    autocrlf = getConfig("core.autocrlf");
+    if (autocrlf != null && !autocrlf.equalsIgnoreCase("false"))
+    {
+      return true;
+    }
+
+    if (new File(reader.getCommonDirectory(), "info/attributes").isFile()
+        || getConfig("core.attributesfile") != null || getXdgFile("attributes").isFile()
+        || new File(rootDirectory, ".gitattributes").exists())
+    {
+      return true;
+    }
+
+    for (GitIndex.Entry entry : index.getEntryList())
+    {
+      if (entry.getPath().equals(".gitattributes") || entry.getPath().endsWith("/.gitattributes"))
+      {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * @return the value in the config of the repository or else in the config
+   *         of the user.
+   */
+  private String getConfig(String key)
+  {
+    String value;
+
+    value = reader.getConfig(key);
+    return value != null ? value : userConfig.get(key);
+  }
+
+  private static Map<String, String> readUserConfig()
+      throws IOException
+  {
+    Map<String, String> config;
+
+    config = GitObjectReader.readConfig(getXdgFile("config"));
+    config.putAll(GitObjectReader.readConfig(new File(System.getProperty("user.home"), ".gitconfig")));
+
+    return config;
+  }
+
+  /**
+   * @return the file in the git directory of $XDG_CONFIG_HOME.
+   */
+  private static File getXdgFile(String name)
+  {
+    String xdgConfigHome;
+
+    xdgConfigHome = System.getenv("XDG_CONFIG_HOME");
+    if (xdgConfigHome == null || xdgConfigHome.isEmpty())
+    {
+      xdgConfigHome = System.getProperty("user.home") + File.separator + ".config";
+    }
+
+    return new File(xdgConfigHome, "git" + File.separator + name);
+  }
+
+  private static File expandHome(String path)
+  {
+    if (path.startsWith("~/"))
+    {
+      return new File(System.getProperty("user.home"), path.substring(2));
+    }
+
+    return new File(path);
+  }
+}
@@ -0,0 +1,967 @@
+package org.jmeld.vc.git;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.zip.InflaterInputStream;
+import org.jmeld.vc.BaseFile;
+
+/**
+ * Reads the HEAD version of files directly from the object database of a git
+ * repository. <br>
+ * HEAD is resolved with the loose and packed references. The trees of the
+ * HEAD commit are walked to the file. Objects are read from the pack files
+ * (found with their .idx) or from loose object files; both are inflated with
+ * zlib. Nothing is written and no process is started. <br>
+ * Repositories that use a format this reader does not know (f.e. sha256
+ * object ids or the reftable reference storage) are refused with an
+ * IOException so the caller can ask git itself.
+ */
+class GitObjectReader
+{
+  // Class variables:
+  private static final Map<File, GitObjectReader> instances = new HashMap<>();
+  private static final int ID_LENGTH = 20;
+  // The maximum number of trees in the cache.
+  private static final int CACHE_SIZE = 1000;
+  private static final int MODE_TYPE_MASK = 0170000;
+  private static final int MODE_TREE = 0040000;
+  private static final int MODE_FILE = 0100000;
+  private static final int MODE_SYMLINK = 0120000;
+
+  // Instance variables:
+  private final File rootDirectory;
+  private final File gitDirectory;
+  private final File commonDirectory;
+  private final List<File> objectDirectories;
+  private final Map<String, String> config;
+  private volatile List<GitPackFile> packFiles = Collections.emptyList();
+  private final Map<String, Map<String, TreeEntry>> treeCache = new LinkedHashMap<String, Map<String, TreeEntry>>(16,
+      0.75f, true)
+  {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Map<String, TreeEntry>> eldest)
+    {
+      return size() > CACHE_SIZE;
+    }
+  };
+  private Map<String, String> packedRefs = Collections.emptyMap();
+  private long packedRefsModified = -1;
+  private long packedRefsLength = -1;
+
+  private GitObjectReader(File rootDirectory)
+      throws IOException
+  {
+    this.rootDirectory = rootDirectory;
+
+    gitDirectory = findGitDirectory(rootDirectory);
+    commonDirectory = findCommonDirectory(gitDirectory);
+    config = readConfig(new File(commonDirectory, "config"));
+    checkConfig();
+
+    objectDirectories = new ArrayList<>();
+    addObjectDirectory(new File(commonDirectory, "objects"), 0);
+
+    scanPackFiles();
+  }
+
+  /**
+   * @return the reader of the repository with this root directory.
+   * @throws IOException
+   *           if the repository cannot be read by this reader.
+   */
+  static GitObjectReader getInstance(File rootDirectory)
+      throws IOException
+  {
+    GitObjectReader reader;
+
+    synchronized (instances)
+    {
+      reader = instances.get(rootDirectory);
+      if (reader == null)
+      {
+        reader = new GitObjectReader(rootDirectory);
+        instances.put(rootDirectory, reader);
+      }
+    }
+
+    return reader;
+  }
+
+  /**
+   * @return the HEAD version of the file or null if it is not in HEAD.
+   */
+  BaseFile getBaseFile(File file)
+      throws IOException
+  {
+    String[] names;
+    byte[] id;
+    TreeEntry entry;
+    GitObject object;
+
+    names = getPath(file);
+    if (names == null)
+    {
+      return null;
+    }
+
+    id = getHeadTree();
+    if (id == null)
+    {
+      return null;
+    }
+
+    entry = null;
+    for (String name : names)
+    {
+      if (entry != null && !entry.isTree())
+      {
+        return null;
+      }
+
+      entry = getTree(id).get(name);
+      if (entry == null)
+      {
+        return null;
+      }
+      id = entry.id;
+    }
+
+    // A submodule is a commit and not a file.
+    if (!entry.isBlob())
+    {
+      return null;
+    }
+
+    object = readObject(entry.id);
+    if (object == null)
+    {
+      throw new IOException("Missing object " + toHex(entry.id));
+    }
+
+    return new BaseFile(object.getData());
+  }
+
+  File getRootDirectory()
+  {
+    return rootDirectory;
+  }
+
+  /**
+   * @return the directory with the index and HEAD of this working tree.
+   */
+  File getGitDirectory()
+  {
+    return gitDirectory;
+  }
+
+  /**
+   * @return the directory with the objects, the branches and the config.
+   */
+  File getCommonDirectory()
+  {
+    return commonDirectory;
+  }
+
+  /**
+   * @param key
+   *          'section.key' in lower case.
+   * @return the value in the config of the repository or null.
+   */
+  String getConfig(String key)
+  {
+    return config.get(key);
+  }
+
+  /**
+   * @param path
+   *          a path relative to the root directory with '/' as separator or
+   *          "" for the root directory.
+   * @param knownTrees
+   *          tree ids by directory. A directory of HEAD with the same tree id
+   *          is not read; it is added to unchangedDirectories.
+   * @return the ids of the files in HEAD below the path (or the file itself)
+   *         by their path relative to the root directory.
+   */
+  Map<String, byte[]> getHeadFiles(String path, Map<String, byte[]> knownTrees, Set<String> unchangedDirectories)
+      throws IOException
+  {
+    Map<String, byte[]> files;
+    byte[] id;
+    TreeEntry entry;
+
+    files = new HashMap<>();
+    id = getHeadTree();
+    if (id == null)
+    {
+      return files;
+    }
+
+    if (path.isEmpty())
+    {
+      addHeadFiles(files, "", id, knownTrees, unchangedDirectories);
+      return files;
+    }
+
+    entry = null;
+    for (String name : path.split("/"))
+    {
+      if (entry != null && !entry.isTree())
+      {
+        return files;
+      }
+
+      entry = getTree(id).get(name);
+      if (entry == null)
+      {
+        return files;
+      }
+      id = entry.id;
+    }
+
+    if (entry.isTree())
+    {
+      addHeadFiles(files, path, id, knownTrees, unchangedDirectories);
+    }
+    else
+    {
+      files.put(path, id);
+    }
+
+    return files;
+  }
+
+  private void addHeadFiles(Map<String, byte[]> files, String directory, byte[] treeId,
+      Map<String, byte[]> knownTrees, Set<String> unchangedDirectories)
+      throws IOException
+  {
+    String prefix;
+
+    if (Arrays.equals(treeId, knownTrees.get(directory)))
+    {
+      unchangedDirectories.add(directory);
+      return;
+    }
+
+    prefix = directory.isEmpty() ? "" : directory + "/";
+    for (Map.Entry<String, TreeEntry> e : getTree(treeId).entrySet())
+    {
+      if (e.getValue().isTree())
+      {
+        addHeadFiles(files, prefix + e.getKey(), e.getValue().id, knownTrees, unchangedDirectories);
+      }
+      else
+      {
+        files.put(prefix + e.getKey(), e.getValue().id);
+      }
+    }
+  }
+
+  /**
+   * @return the path relative to the root directory in tokens or null if the
+   *         file is not below the root directory.
+   */
+  private String[] getPath(File file)
+  {
+    String path;
+
+    path = rootDirectory.toPath().relativize(file.getAbsoluteFile().toPath().normalize()).toString();
+    if (path.isEmpty() || path.startsWith(".."))
+    {
+      return null;
+    }
+
+    return path.split(Pattern.quote(File.separator));
+  }
+
+  /**
+   * @return the id of the tree of the HEAD commit or null if there is no
+   *         commit yet.
+   */
+  private byte[] getHeadTree()
+      throws IOException
+  {
+    byte[] id;
+    GitObject object;
+    String text;
+
+    id = resolve("HEAD");
+    if (id == null)
+    {
+      return null;
+    }
+
+    object = readObject(id);
+    if (object == null || object.getType() != GitPackFile.OBJ_COMMIT)
+    {
+      throw new IOException("HEAD is not a commit: " + toHex(id));
+    }
+
+    // A commit starts with 'tree <id>'.
+    text = new String(object.getData(), 0, Math.min(object.getData().length, 5 + ID_LENGTH * 2),
+        StandardCharsets.US_ASCII);
+    if (!text.startsWith("tree "))
+    {
+      throw new IOException("Corrupt commit " + toHex(id));
+    }
+
+    return parseId(text.substring(5));
+  }
+
+  /**
+   * @return the tree entries by name.
+   */
+  private Map<String, TreeEntry> getTree(byte[] id)
+      throws IOException
+  {
+    String key;
+    Map<String, TreeEntry> tree;
+    GitObject object;
+    byte[] data;
+    int position;
+    int nameStart;
+    int nameEnd;
+    int mode;
+    TreeEntry entry;
+
+    key = toHex(id);
+    synchronized (treeCache)
+    {
+      tree = treeCache.get(key);
+    }
+    if (tree != null)
+    {
+      return tree;
+    }
+
+    object = readObject(id);
+    if (object == null || object.getType() != GitPackFile.OBJ_TREE)
+    {
+      throw new IOException("Missing tree " + key);
+    }
+
+    // An entry is '<octal mode> <name>\0<20 byte id>'.
+    data = object.getData();
+    tree = new HashMap<>();
+    position = 0;
+    try
+    {
+      while (position < data.length)
+      {
+        mode = 0;
+        while (data[position] != ' ')
+        {
+          mode = (mode << 3) + (data[position++] - '0');
+        }
+        nameStart = ++position;
+        while (data[position] != 0)
+        {
+          position++;
+        }
+        nameEnd = position++;
+
+        entry = new TreeEntry(mode, new byte[ID_LENGTH]);
+        System.arraycopy(data, position, entry.id, 0, ID_LENGTH);
+        position += ID_LENGTH;
+
+        tree.put(new String(data, nameStart, nameEnd - nameStart, StandardCharsets.UTF_8), entry);
+      }
+    }
+    catch (IndexOutOfBoundsException ex)
+    {
+      throw new IOException("Corrupt tree " + key, ex);
+    }
+
+    synchronized (treeCache)
+    {
+      treeCache.put(key, tree);
+    }
+
+    return tree;
+  }
+
+  /**
+   * @return the object or null if the repository does not contain it.
+   */
+  GitObject readObject(byte[] id)
+      throws IOException
+  {
+    GitObject object;
+
+    object = readPackedObject(id);
+    if (object != null)
+    {
+      return object;
+    }
+
+    object = readLooseObject(id);
+    if (object != null)
+    {
+      return object;
+    }
+
+    // The object may have been packed after the pack files were scanned.
+    if (scanPackFiles())
+    {
+      return readPackedObject(id);
+    }
+
+    return null;
+  }
+
+  private GitObject readPackedObject(byte[] id)
+      throws IOException
+  {
+    GitObject object;
+
+    for (GitPackFile packFile : packFiles)
+    {
+      object = packFile.read(id);
+      if (object != null)
+      {
+        return object;
+      }
+    }
+
+    return null;
+  }
+
+  private GitObject readLooseObject(byte[] id)
+      throws IOException
+  {
+    String hex;
+    File file;
+    byte[] data;
+    int headerEnd;
+    String[] header;
+    int type;
+
+    hex = toHex(id);
+    for (File directory : objectDirectories)
+    {
+      file = new File(directory, hex.substring(0, 2) + File.separator + hex.substring(2));
+      try
+      {
+        data = inflate(file);
+      }
+      catch (FileNotFoundException ex)
+      {
+        continue;
+      }
+
+      // The data starts with '<type> <size>\0'.
+      headerEnd = 0;
+      while (headerEnd < data.length && data[headerEnd] != 0)
+      {
+        headerEnd++;
+      }
+      header = new String(data, 0, headerEnd, StandardCharsets.US_ASCII).split(" ");
+      if (headerEnd == data.length || header.length != 2
+          || Long.parseLong(header[1]) != data.length - headerEnd - 1)
+      {
+        throw new IOException("Corrupt object " + file);
+      }
+
+      switch (header[0])
+      {
+        case "commit":
+          type = GitPackFile.OBJ_COMMIT;
+          break;
+        case "tree":
+          type = GitPackFile.OBJ_TREE;
+          break;
+        case "blob":
+          type = GitPackFile.OBJ_BLOB;
+          break;
+        case "tag":
+          type = GitPackFile.OBJ_TAG;
+          break;
+        default:
+          throw new IOException("Unknown object type " + header[0] + " in " + file);
+      }
+
+      return new GitObject(type, copyOfRange(data, headerEnd + 1, data.length));
+    }
+
+    return null;
+  }
+
+  private byte[] inflate(File file)
+      throws IOException
+  {
+    ByteArrayOutputStream baos;
+    byte[] buffer;
+    int count;
+
+    baos = new ByteArrayOutputStream((int) Math.min(file.length() * 4, 64 * 1024 * 1024));
+    buffer = new byte[8192];
+    try (InputStream is = new InflaterInputStream(new FileInputStream(file)))
+    {
+      while ((count = is.read(buffer)) != -1)
+      {
+        baos.write(buffer, 0, count);
+      }
+    }
+
+    return baos.toByteArray();
+  }
+
+  private static byte[] copyOfRange(byte[] data, int from, int to)
+  {
+    byte[] result;
+
+    result = new byte[to - from];
+    System.arraycopy(data, from, result, 0, result.length);
+
+    return result;
+  }
+
+  /**
+   * Open the pack files that are new and close the ones that are gone.
+   *
+   * @return true if the pack files changed.
+   */
+  private synchronized boolean scanPackFiles()
+      throws IOException
+  {
+    Map<String, GitPackFile> current;
+    List<GitPackFile> list;
+    File[] files;
+    boolean changed;
+    GitPackFile packFile;
+
+    current = new HashMap<>();
+    for (GitPackFile pf : packFiles)
+    {
+      current.put(pf.getFile().getPath(), pf);
+    }
+
+    list = new ArrayList<>();
+    changed = false;
+    for (File directory : objectDirectories)
+    {
+      files = new File(directory, "pack").listFiles((dir, name) -> name.endsWith(".idx"));
+      if (files == null)
+      {
+        continue;
+      }
+
+      for (File idxFile : files)
+      {
+        packFile = current.remove(new File(idxFile.getParentFile(), idxFile.getName().replaceAll("\\.idx$", ".pack"))
+            .getPath());
+        if (packFile == null)
+        {
+          packFile = new GitPackFile(this, idxFile);
+          changed = true;
+        }
+        list.add(packFile);
+      }
+    }
+
+    for (GitPackFile pf : current.values())
+    {
+      pf.close();
+      changed = true;
+    }
+
+    packFiles = Collections.unmodifiableList(list);
+
+    return changed;
+  }
+
+  /**
+   * @return the commit id of the reference or null if it does not exist.
+   */
+  private byte[] resolve(String ref)
+      throws IOException
+  {
+    String value;
+
+    for (int depth = 0; depth < 10; depth++)
+    {
+      value = readRef(ref);
+      if (value == null)
+      {
+        return null;
+      }
+
+      if (!value.startsWith("ref:"))
+      {
+        return parseId(value);
+      }
+
+      ref = value.substring(4).trim();
+    }
+
+    throw new IOException("Too many symbolic references: " + ref);
+  }
+
+  private String readRef(String ref)
+      throws IOException
+  {
+    File file;
+
+    // A worktree has its own HEAD; the branches are shared.
+    for (File directory : new File[] { gitDirectory, commonDirectory })
+    {
+      file = new File(directory, ref);
+      if (file.isFile())
+      {
+        return readFirstLine(file);
+      }
+    }
+
+    return getPackedRefs().get(ref);
+  }
+
+  private synchronized Map<String, String> getPackedRefs()
+      throws IOException
+  {
+    File file;
+    Map<String, String> refs;
+    String line;
+    int index;
+
+    file = new File(commonDirectory, "packed-refs");
+    if (file.lastModified() == packedRefsModified && file.length() == packedRefsLength)
+    {
+      return packedRefs;
+    }
+
+    // A line is '<id> <ref>'. Lines that start with '^' are the commits of
+    // the tag above them.
+    refs = new HashMap<>();
+    if (file.isFile())
+    {
+      try (BufferedReader br = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8))
+      {
+        while ((line = br.readLine()) != null)
+        {
+          if (line.startsWith("#") || line.startsWith("^"))
+          {
+            continue;
+          }
+
+          index = line.indexOf(' ');
+          if (index != -1)
+          {
+            refs.put(line.substring(index + 1), line.substring(0, index));
+          }
+        }
+      }
+    }
+
+    packedRefs = refs;
+    packedRefsModified = file.lastModified();
+    packedRefsLength = file.length();
+
+    return packedRefs;
+  }
+
+  /**
+   * @return the directory with the repository. This is '.git' or the
+   *         directory that the file '.git' refers to (a worktree or a
+   *         submodule).
+   */
+  private static File findGitDirectory(File rootDirectory)
+      throws IOException
+  {
+    File file;
+    String line;
+
+    file = new File(rootDirectory, ".git");
+    if (file.isDirectory())
+    {
+      return file;
+    }
+
+    if (file.isFile())
+    {
+      line = readFirstLine(file);
+      if (line != null && line.startsWith("gitdir:"))
+      {
+        return resolvePath(rootDirectory, line.substring(7).trim());
+      }
+    }
+
+    throw new IOException("No git repository in " + rootDirectory);
+  }
+
+  /**
+   * @return the directory with the objects and the branches. A worktree
+   *         shares them with the main repository.
+   */
+  private static File findCommonDirectory(File gitDirectory)
+      throws IOException
+  {
+    File file;
+    String line;
+
+    file = new File(gitDirectory, "commondir");
+    if (file.isFile())
+    {
+      line = readFirstLine(file);
+      if (line != null)
+      {
+        return resolvePath(gitDirectory, line.trim());
+      }
+    }
+
+    return gitDirectory;
+  }
+
+  /**
+   * Refuse repositories with extensions that change how objects or
+   * references are stored.
+   */
+  private void checkConfig()
+      throws IOException
+  {
+    String value;
+
+    value = config.get("extensions.objectformat");
+    if (value != null && !value.equalsIgnoreCase("sha1"))
+    {
+      throw new IOException("Unsupported repository format objectformat=" + value + " in " + commonDirectory);
+    }
+
+    value = config.get("extensions.refstorage");
+    if (value != null && !value.equalsIgnoreCase("files"))
+    {
+      throw new IOException("Unsupported repository format refstorage=" + value + " in " + commonDirectory);
+    }
+  }
+
+  /**
+   * Read the variables of a git config file. Subsections are part of the
+   * section ('[remote "origin"]' becomes 'remote.origin'). A variable without
+   * a value is 'true'. Includes are not followed.
+   *
+   * @return the values by 'section.key' in lower case. The last value of a
+   *         key wins.
+   */
+  static Map<String, String> readConfig(File file)
+      throws IOException
+  {
+    Map<String, String> result;
+    String line;
+    String section;
+    int index;
+    String key;
+    String value;
+
+    result = new HashMap<>();
+    if (!file.isFile())
+    {
+      return result;
+    }
+
+    section = "";
+    try (BufferedReader br = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8))
+    {
+      while ((line = br.readLine()) != null)
+      {
+        line = line.trim();
+        if (line.isEmpty() || line.startsWith("#") || line.startsWith(";"))
+        {
+          continue;
+        }
+
+        if (line.startsWith("["))
+        {
+          section = line.substring(1, Math.max(1, line.indexOf(']'))).trim();
+          index = section.indexOf(' ');
+          if (index != -1)
+          {
+            section = section.substring(0, index) + "." + section.substring(index + 1).trim().replace("\"", "");
+          }
+          section = section.toLowerCase();
+          continue;
+        }
+
+        index = line.indexOf('=');
+        if (index == -1)
+        {
+          key = line;
+          value = "true";
+        }
+        else
+        {
+          key = line.substring(0, index).trim();
+          value = line.substring(index + 1).trim();
+          if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\""))
+          {
+            value = value.substring(1, value.length() - 1);
+          }
+        }
+
+        result.put(section + "." + key.toLowerCase(), value);
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Add a directory with objects and the directories it borrows objects
+   * from (objects/info/alternates).
+   */
+  private void addObjectDirectory(File directory, int depth)
+      throws IOException
+  {
+    File alternates;
+    String line;
+
+    directory = directory.getCanonicalFile();
+    if (objectDirectories.contains(directory))
+    {
+      return;
+    }
+    objectDirectories.add(directory);
+
+    alternates = new File(directory, "info" + File.separator + "alternates");
+    if (depth > 5 || !alternates.isFile())
+    {
+      return;
+    }
+
+    try (BufferedReader br = Files.newBufferedReader(alternates.toPath(), StandardCharsets.UTF_8))
+    {
+      while ((line = br.readLine()) != null)
+      {
+        line = line.trim();
+        if (!line.isEmpty() && !line.startsWith("#"))
+        {
+          addObjectDirectory(resolvePath(directory, line), depth + 1);
+        }
+      }
+    }
+  }
+
+  private static File resolvePath(File directory, String path)
+  {
+    File file;
+
+    file = new File(path);
+    if (!file.isAbsolute())
+    {
+      file = new File(directory, path);
+    }
+
+    return file.toPath().normalize().toFile();
+  }
+
+  private static String readFirstLine(File file)
+      throws IOException
+  {
+    try (BufferedReader br = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8))
+    {
+      return br.readLine();
+    }
+  }
+
+  static byte[] parseId(String text)
+      throws IOException
+  {
+    byte[] id;
+    int high;
+    int low;
+
+    text = text.trim();
+    if (text.length() < ID_LENGTH * 2)
+    {
+      throw new IOException("Invalid object id " + text);
+    }
+
+    id = new byte[ID_LENGTH];
+    for (int i = 0; i < ID_LENGTH; i++)
+    {
+      high = Character.digit(text.charAt(i * 2), 16);
+      low = Character.digit(text.charAt(i * 2 + 1), 16);
+      if (high == -1 || low == -1)
+      {
+        throw new IOException("Invalid object id " + text);
+      }
+      id[i] = (byte) ((high << 4) + low);
+    }
+
+    return id;
+  }
+
+  static String toHex(byte[] id)
+  {
+    StringBuilder sb;
+
+    sb = new StringBuilder(id.length * 2);
+    for (byte b : id)
+    {
+      sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+      sb.append(Character.forDigit(b & 0xf, 16));
+    }
+
+    return sb.toString();
+  }
+
+  /**
+   * An object of the repository with its type and its inflated content.
+   */
+  static class GitObject
+  {
+    private final int type;
+    private final byte[] data;
+
+    GitObject(int type, byte[] data)
+    {
+      this.type = type;
+      this.data = data;
+    }
+
+    int getType()
+    {
+      return type;
+    }
+
+    byte[] getData()
+    {
+      return data;
+    }
+  }
+
+  private static class TreeEntry
+  {
+    private final int mode;
+    private final byte[] id;
+
+    TreeEntry(int mode, byte[] id)
+    {
+      this.mode = mode;
+      this.id = id;
+    }
+
+    boolean isTree()
+    {
+      return (mode & MODE_TYPE_MASK) == MODE_TREE;
+    }
+
+    boolean isBlob()
+    {
+      return (mode & MODE_TYPE_MASK) == MODE_FILE || (mode & MODE_TYPE_MASK) == MODE_SYMLINK;
+    }
+  }
+}
@@ -0,0 +1,528 @@
+package org.jmeld.vc.git;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * A pack file of a git repository with its index (.idx). <br>
+ * The index is mapped in memory. An object is found with the fanout table
+ * and a binary search. Objects that are stored as a delta are rebuilt from
+ * their base object; the base objects that were used last are kept in a
+ * small cache because many deltas share a base.
+ */
+class GitPackFile
+{
+  // Class variables:
+  static final int OBJ_COMMIT = 1;
+  static final int OBJ_TREE = 2;
+  static final int OBJ_BLOB = 3;
+  static final int OBJ_TAG = 4;
+  private static final int OBJ_OFS_DELTA = 6;
+  private static final int OBJ_REF_DELTA = 7;
+  private static final int ID_LENGTH = 20;
+  private static final int FANOUT_SIZE = 256 * 4;
+  // The maximum size of an object in the cache of base objects.
+  private static final int MAX_CACHED_SIZE = 1024 * 1024;
+  private static final int CACHE_SIZE = 256;
+
+  // Instance variables:
+  private final GitObjectReader reader;
+  private final File packFile;
+  private final FileChannel packChannel;
+  private final MappedByteBuffer idx;
+  private final int version;
+  private final int count;
+  private final Map<Long, GitObjectReader.GitObject> cache;
+
+  GitPackFile(GitObjectReader reader, File idxFile)
+      throws IOException
+  {
+    String name;
+
+    this.reader = reader;
+
+    try (FileChannel idxChannel = FileChannel.open(idxFile.toPath(), StandardOpenOption.READ))
+    {
+      idx = idxChannel.map(FileChannel.MapMode.READ_ONLY, 0, idxChannel.size());
+    }
+
+    // Version 2 starts with '\377tOc'. Version 1 starts with the fanout.
+    if (idx.getInt(0) == 0xff744f63)
+    {
+      version = idx.getInt(4);
+      if (version != 2)
+      {
+        throw new IOException("Unsupported pack index version " + version + ": " + idxFile);
+      }
+    }
+    else
+    {
+      version = 1;
+    }
+    count = idx.getInt(getFanoutStart() + 255 * 4);
+
+    name = idxFile.getName();
+    packFile = new File(idxFile.getParentFile(), name.substring(0, name.length() - ".idx".length()) + ".pack");
+    packChannel = FileChannel.open(packFile.toPath(), StandardOpenOption.READ);
+
+    cache = new LinkedHashMap<Long, GitObjectReader.GitObject>(16, 0.75f, true)
+    {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Long, GitObjectReader.GitObject> eldest)
+      {
+        return size() > CACHE_SIZE;
+      }
+    };
+  }
+
+  File getFile()
+  {
+    return packFile;
+  }
+
+  void close()
+  {
+    try
+    {
+      packChannel.close();
+    }
+    catch (IOException ex)
+    {
+      // The pack file is not used anymore.
+    }
+  }
+
+  /**
+   * @return the object or null if this pack does not contain it.
+   */
+  GitObjectReader.GitObject read(byte[] id)
+      throws IOException
+  {
+    long offset;
+
+    offset = findOffset(id);
+    if (offset == -1)
+    {
+      return null;
+    }
+
+    try
+    {
+      return read(offset);
+    }
+    catch (BufferUnderflowException ex)
+    {
+      throw new IOException("Corrupt object at " + offset + " in " + packFile, ex);
+    }
+  }
+
+  /**
+   * @return the offset of the object in the pack or -1.
+   */
+  private long findOffset(byte[] id)
+  {
+    int first;
+    int low;
+    int high;
+    int middle;
+    int compare;
+
+    first = id[0] & 0xff;
+    low = first == 0 ? 0 : idx.getInt(getFanoutStart() + (first - 1) * 4);
+    high = idx.getInt(getFanoutStart() + first * 4);
+    while (low < high)
+    {
+      middle = (low + high) >>> 1;
+      compare = compareId(middle, id);
+      if (compare == 0)
+      {
+        return getOffset(middle);
+      }
+
+      if (compare < 0)
+      {
+        low = middle + 1;
+      }
+      else
+      {
+        high = middle;
+      }
+    }
+
+    return -1;
+  }
+
+  private int getFanoutStart()
+  {
+    return version == 1 ? 0 : 8;
+  }
+
+  private int getIdPosition(int index)
+  {
+    if (version == 1)
+    {
+      return FANOUT_SIZE + index * (4 + ID_LENGTH) + 4;
+    }
+
+    return 8 + FANOUT_SIZE + index * ID_LENGTH;
+  }
+
+  private int compareId(int index, byte[] id)
+  {
+    int position;
+    int compare;
+
+    position = getIdPosition(index);
+    for (int i = 0; i < ID_LENGTH; i++)
+    {
+      compare = (idx.get(position + i) & 0xff) - (id[i] & 0xff);
+      if (compare != 0)
+      {
+        return compare;
+      }
+    }
+
+    return 0;
+  }
+
+  private long getOffset(int index)
+  {
+    int offsetsStart;
+    int offset;
+
+    if (version == 1)
+    {
+      return idx.getInt(FANOUT_SIZE + index * (4 + ID_LENGTH)) & 0xffffffffL;
+    }
+
+    // After the ids and the crc's are the 32 bit offsets. An offset with the
+    // highest bit set is an index in the table of 64 bit offsets.
+    offsetsStart = 8 + FANOUT_SIZE + count * (ID_LENGTH + 4);
+    offset = idx.getInt(offsetsStart + index * 4);
+    if (offset >= 0)
+    {
+      return offset;
+    }
+
+    return idx.getLong(offsetsStart + count * 4 + (offset & 0x7fffffff) * 8);
+  }
+
+  private GitObjectReader.GitObject read(long offset)
+      throws IOException
+  {
+    GitObjectReader.GitObject object;
+    ByteBuffer header;
+    int c;
+    int type;
+    long size;
+    int shift;
+    long baseOffset;
+    byte[] baseId;
+    GitObjectReader.GitObject base;
+    long dataOffset;
+
+    synchronized (cache)
+    {
+      object = cache.get(offset);
+    }
+    if (object != null)
+    {
+      return object;
+    }
+
+    // The header is at most 10 bytes for the type and size and 20 bytes
+    // for the base of a delta.
+    header = ByteBuffer.allocate(32);
+    readFully(header, offset);
+
+    c = header.get() & 0xff;
+    type = (c >> 4) & 7;
+    size = c & 15;
+    shift = 4;
+    while ((c & 0x80) != 0)
+    {
+      c = header.get() & 0xff;
+      size |= (long) (c & 0x7f) << shift;
+      shift += 7;
+    }
+
+    switch (type)
+    {
+      case OBJ_COMMIT:
+      case OBJ_TREE:
+      case OBJ_BLOB:
+      case OBJ_TAG:
+        object = new GitObjectReader.GitObject(type, inflate(offset + header.position(), size));
+        break;
+
+      case OBJ_OFS_DELTA:
+        c = header.get() & 0xff;
+        baseOffset = c & 0x7f;
+        while ((c & 0x80) != 0)
+        {
+          c = header.get() & 0xff;
+          baseOffset = ((baseOffset + 1) << 7) | (c & 0x7f);
+        }
+        dataOffset = offset + header.position();
+        base = read(offset - baseOffset);
+        object = new GitObjectReader.GitObject(base.getType(), applyDelta(base.getData(), inflate(dataOffset, size)));
+        break;
+
+      case OBJ_REF_DELTA:
+        baseId = new byte[ID_LENGTH];
+        header.get(baseId);
+        dataOffset = offset + header.position();
+        base = reader.readObject(baseId);
+        if (base == null)
+        {
+          throw new IOException("Missing base object " + GitObjectReader.toHex(baseId) + " in " + packFile);
+        }
+        object = new GitObjectReader.GitObject(base.getType(), applyDelta(base.getData(), inflate(dataOffset, size)));
+        break;
+
+      default:
+        throw new IOException("Unknown object type " + type + " at " + offset + " in " + packFile);
+    }
+
+    if (object.getData().length <= MAX_CACHED_SIZE)
+    {
+      synchronized (cache)
+      {
+        cache.put(offset, object);
+      }
+    }
+
+    return object;
+  }
+
+  /**
+   * Read as many bytes as fit in the buffer (less at the end of the file).
+   * The buffer is ready to be read from the start.
+   */
+  private void readFully(ByteBuffer buffer, long position)
+      throws IOException
+  {
+    int n;
+
+    while (buffer.hasRemaining())
+    {
+      n = packChannel.read(buffer, position + buffer.position());
+      if (n == -1)
+      {
+        break;
+      }
+    }
+    buffer.flip();
+  }
+
+  /**
+   * Inflate the zlib stream at the offset.
+   *
+   * @param size
+   *          the size of the inflated data.
+   */
+  private byte[] inflate(long offset, long size)
+      throws IOException
+  {
+    Inflater inflater;
+    ByteBuffer input;
+    byte[] data;
+    byte[] rest;
+    int length;
+    int n;
+    long position;
+
+    if (size > Integer.MAX_VALUE - 8)
+    {
+      throw new IOException("Object at " + offset + " in " + packFile + " is too large");
+    }
+
+    data = new byte[(int) size];
+    rest = new byte[1];
+    input = ByteBuffer.allocate((int) Math.min(64 * 1024, size + 64));
+    inflater = new Inflater();
+    try
+    {
+      position = offset;
+      length = 0;
+      while (!inflater.finished())
+      {
+        if (inflater.needsInput())
+        {
+          input.clear();
+          readFully(input, position);
+          if (!input.hasRemaining())
+          {
+            throw new EOFException("Unexpected end of " + packFile);
+          }
+          position += input.remaining();
+          inflater.setInput(input.array(), 0, input.remaining());
+        }
+
+        if (length < data.length)
+        {
+          n = inflater.inflate(data, length, data.length - length);
+          length += n;
+        }
+        else
+        {
+          // Only the end of the stream is left. It must not contain data.
+          n = inflater.inflate(rest);
+          if (n > 0)
+          {
+            throw new IOException("Corrupt object at " + offset + " in " + packFile);
+          }
+        }
+
+        if (n == 0 && !inflater.finished() && !inflater.needsInput())
+        {
+          throw new IOException("Corrupt object at " + offset + " in " + packFile);
+        }
+      }
+
+      if (length != data.length)
+      {
+        throw new IOException("Corrupt object at " + offset + " in " + packFile);
+      }
+    }
+    catch (DataFormatException ex)
+    {
+      throw new IOException("Corrupt object at " + offset + " in " + packFile, ex);
+    }
+    finally
+    {
+      inflater.end();
+    }
+
+    return data;
+  }
+
+  /**
+   * Build an object from its base and a delta. <br>
+   * The delta starts with the size of the base and the size of the result.
+   * Then there are instructions to copy a part of the base or to insert the
+   * bytes that follow the instruction.
+   */
+  static byte[] applyDelta(byte[] base, byte[] delta)
+      throws IOException
+  {
+    try
+    {
+      return applyDelta2(base, delta);
+    }
+    catch (IndexOutOfBoundsException ex)
+    {
+      throw new IOException("Corrupt delta", ex);
+    }
+  }
+
+  private static byte[] applyDelta2(byte[] base, byte[] delta)
+      throws IOException
+  {
+    int[] position;
+    long baseSize;
+    long resultSize;
+    byte[] result;
+    int resultPosition;
+    int c;
+    int copyOffset;
+    int copySize;
+
+    position = new int[1];
+    baseSize = readVarInt(delta, position);
+    resultSize = readVarInt(delta, position);
+    if (baseSize != base.length || resultSize > Integer.MAX_VALUE - 8)
+    {
+      throw new IOException("Corrupt delta");
+    }
+
+    result = new byte[(int) resultSize];
+    resultPosition = 0;
+    while (position[0] < delta.length)
+    {
+      c = delta[position[0]++] & 0xff;
+      if ((c & 0x80) != 0)
+      {
+        // Copy: the bits 0-3 select the bytes of the offset, the bits 4-6
+        // the bytes of the size.
+        copyOffset = 0;
+        copySize = 0;
+        for (int i = 0; i < 4; i++)
+        {
+          if ((c & (1 << i)) != 0)
+          {
+            copyOffset |= (delta[position[0]++] & 0xff) << (i * 8);
+          }
+        }
+        for (int i = 0; i < 3; i++)
+        {
+          if ((c & (1 << (4 + i))) != 0)
+          {
+            copySize |= (delta[position[0]++] & 0xff) << (i * 8);
+          }
+        }
+        if (copySize == 0)
+        {
+          copySize = 0x10000;
+        }
+        if (copyOffset < 0 || copyOffset + copySize > base.length || resultPosition + copySize > result.length)
+        {
+          throw new IOException("Corrupt delta");
+        }
+        System.arraycopy(base, copyOffset, result, resultPosition, copySize);
+        resultPosition += copySize;
+      }
+      else if (c != 0)
+      {
+        // Insert the next c bytes.
+        if (position[0] + c > delta.length || resultPosition + c > result.length)
+        {
+          throw new IOException("Corrupt delta");
+        }
+        System.arraycopy(delta, position[0], result, resultPosition, c);
+        position[0] += c;
+        resultPosition += c;
+      }
+      else
+      {
+        throw new IOException("Corrupt delta");
+      }
+    }
+
+    if (resultPosition != result.length)
+    {
+      throw new IOException("Corrupt delta");
+    }
+
+    return result;
+  }
+
+  private static long readVarInt(byte[] data, int[] position)
+  {
+    long value;
+    int shift;
+    int c;
+
+    value = 0;
+    shift = 0;
+    do
+    {
+      c = data[position[0]++] & 0xff;
+      value |= (long) (c & 0x7f) << shift;
+      shift += 7;
+    }
+    while ((c & 0x80) != 0);
+
+    return value;
+  }
+}
@@ -1,16 +1,20 @@
 package org.jmeld.vc.git;
 
 import java.io.File;
+import java.io.IOException;
 import org.jmeld.vc.BaseFile;
 import org.jmeld.vc.BlameIF;
 import org.jmeld.vc.DiffIF;
 import org.jmeld.vc.StatusResult;
 import org.jmeld.vc.VersionControlIF;
+import org.jmeld.vc.VersionControlUtil;
 import org.jmeld.vc.svn.BlameCmd;
 
 public class GitVersionControl
     implements VersionControlIF
 {
+  static private boolean debug = false;
+
   private Boolean installed;
 
   @Override
@@ -19,6 +23,15 @@ public class GitVersionControl
     return "git";
   }
 
+  @Override
+  public String[] getAdministrativeDirectoryNames()
+  {
+    return new String[]
+    {
+      ".git"
+    };
+  }
+
   @Override
   public boolean isInstalled()
   {
@@ -37,12 +50,8 @@ public class GitVersionControl
   @Override
   public boolean isEnabled(File file)
   {
-    ActiveCmd cmd;
-
-    cmd = new ActiveCmd(file);
-    cmd.execute();
-
-    return cmd.getResult().isTrue();
+    return VersionControlUtil.getRootDirectory(this,
+                                               file) != null;
   }
 
   public BlameIF executeBlame(File file)
@@ -68,8 +77,29 @@ public class GitVersionControl
   @Override
   public StatusResult executeStatus(File file)
   {
+    File rootDirectory;
+    StatusResult result;
     StatusCmd cmd;
 
+    // The index is compared with the working tree without starting git.
+    rootDirectory = VersionControlUtil.getRootDirectory(this,
+                                                        file);
+    if (rootDirectory != null)
+    {
+      try
+      {
+        result = new GitIndexStatus(GitObjectReader.getInstance(rootDirectory)).execute(file);
+        if (result != null)
+        {
+          return result;
+        }
+      }
+      catch (IOException ex)
+      {
+        debug("git index cannot be read directly: " + ex.getMessage());
+      }
+    }
+
     cmd = new StatusCmd(file);
     cmd.execute();
     return cmd.getResultData();
@@ -78,13 +108,49 @@ public class GitVersionControl
   @Override
   public BaseFile getBaseFile(File file)
   {
+    File rootDirectory;
     CatCmd cmd;
 
+    rootDirectory = VersionControlUtil.getRootDirectory(this,
+                                                        file);
+    if (rootDirectory != null)
+    {
+      // The objects are read directly from the repository if its format is
+      // known.
+      try
+      {
+        return GitObjectReader.getInstance(rootDirectory).getBaseFile(file);
+      }
+      catch (IOException ex)
+      {
+        debug("git objects cannot be read directly: " + ex.getMessage());
+      }
+
+      // The batch of the repository reads the file without starting a
+      // process per file.
+      try
+      {
+        return CatFileBatch.getInstance(rootDirectory).getBaseFile(file);
+      }
+      catch (IOException ex)
+      {
+        ex.printStackTrace();
+      }
+    }
+
     cmd = new CatCmd(file);
     cmd.execute();
     return cmd.getResultData();
   }
 
+  private void debug(String text)
+  {
+    if (debug)
+    {
+      System.out.println(text);
+    }
+  }
+
   @Override
   public String toString()
   {
@@ -1,9 +1,9 @@
 package org.jmeld.vc.git;
 
 import java.io.BufferedReader;
-import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import org.jmeld.util.Result;
 import org.jmeld.vc.StatusResult;
@@ -32,7 +32,8 @@ public class StatusCmd
   }
 
   @Override
-  protected void build(byte[] data)
+  protected void build(InputStream is)
+      throws IOException
   {
     StatusResult statusResult;
     StatusResult.Status status;
@@ -41,48 +42,41 @@ public class StatusCmd
 
     statusResult = new StatusResult(file);
 
-    reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(data)));
-    try
+    reader = new BufferedReader(new InputStreamReader(is));
+    while ((text = reader.readLine()) != null)
     {
-      while ((text = reader.readLine()) != null)
+      text = text.trim();
+      if (text.length() < 3)
       {
-        text = text.trim();
-        if (text.length() < 3)
-        {
-          continue;
-        }
-
-        status = null;
-        switch (text.charAt(0))
-        {
-          case 'M':
-          case 'R':
-            status = StatusResult.Status.modified;
-            break;
-          case 'A':
-            status = StatusResult.Status.added;
-            break;
-          case 'D':
-            status = StatusResult.Status.removed;
-            break;
-          case '!':
-            status = StatusResult.Status.ignored;
-            break;
-          case '?':
-            status = StatusResult.Status.unversioned;
-            break;
-          case ' ':
-            status = StatusResult.Status.clean;
-            break;
-        }
+        continue;
+      }
 
-        statusResult.addEntry(text.substring(2),
-                              status);
+      status = null;
+      switch (text.charAt(0))
+      {
+        case 'M':
+        case 'R':
+          status = StatusResult.Status.modified;
+          break;
+        case 'A':
+          status = StatusResult.Status.added;
+          break;
+        case 'D':
+          status = StatusResult.Status.removed;
+          break;
+        case '!':
+          status = StatusResult.Status.ignored;
+          break;
+        case '?':
+          status = StatusResult.Status.unversioned;
+          break;
+        case ' ':
+          status = StatusResult.Status.clean;
+          break;
       }
-    }
-    catch (IOException ex)
-    {
-      // This cannot happen! We are reading from a byte array.
+
+      statusResult.addEntry(text.substring(2),
+                            status);
     }
 
     setResultData(statusResult);
@@ -1,9 +1,9 @@
 package org.jmeld.vc.hg;
 
 import java.io.BufferedReader;
-import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import org.jmeld.util.Result;
 import org.jmeld.vc.StatusResult;
@@ -37,7 +37,9 @@ public class StatusCmd
     return getResult();
   }
 
-  protected void build(byte[] data)
+  @Override
+  protected void build(InputStream is)
+      throws IOException
   {
     StatusResult statusResult;
     StatusResult.Status status;
@@ -46,52 +48,45 @@ public class StatusCmd
 
     statusResult = new StatusResult(file);
 
-    reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(data)));
-    try
+    reader = new BufferedReader(new InputStreamReader(is));
+    while ((text = reader.readLine()) != null)
     {
-      while ((text = reader.readLine()) != null)
+      if (text.length() < 3)
       {
-        if (text.length() < 3)
-        {
-          continue;
-        }
-
-        status = null;
-        switch (text.charAt(0))
-        {
-          case 'M':
-            status = StatusResult.Status.modified;
-            break;
-          case 'A':
-            status = StatusResult.Status.added;
-            break;
-          case 'R':
-            status = StatusResult.Status.removed;
-            break;
-          case 'C':
-            status = StatusResult.Status.clean;
-            break;
-          case '!':
-            status = StatusResult.Status.missing;
-            break;
-          case '?':
-            status = StatusResult.Status.unversioned;
-            break;
-          case 'I':
-            status = StatusResult.Status.ignored;
-            break;
-          case ' ':
-            status = StatusResult.Status.clean;
-            break;
-        }
+        continue;
+      }
 
-        statusResult.addEntry(text.substring(2),
-                              status);
+      status = null;
+      switch (text.charAt(0))
+      {
+        case 'M':
+          status = StatusResult.Status.modified;
+          break;
+        case 'A':
+          status = StatusResult.Status.added;
+          break;
+        case 'R':
+          status = StatusResult.Status.removed;
+          break;
+        case 'C':
+          status = StatusResult.Status.clean;
+          break;
+        case '!':
+          status = StatusResult.Status.missing;
+          break;
+        case '?':
+          status = StatusResult.Status.unversioned;
+          break;
+        case 'I':
+          status = StatusResult.Status.ignored;
+          break;
+        case ' ':
+          status = StatusResult.Status.clean;
+          break;
       }
-    }
-    catch (IOException ex)
-    {
-      // This cannot happen! We are reading from a byte array.
+
+      statusResult.addEntry(text.substring(2),
+                            status);
     }
 
     setResultData(statusResult);
@@ -6,6 +6,7 @@ import org.jmeld.vc.BlameIF;
 import org.jmeld.vc.DiffIF;
 import org.jmeld.vc.StatusResult;
 import org.jmeld.vc.VersionControlIF;
+import org.jmeld.vc.VersionControlUtil;
 
 public class SubversionVersionControl
     implements VersionControlIF
@@ -17,6 +18,16 @@ public class SubversionVersionControl
     return "subversion";
   }
 
+  public String[] getAdministrativeDirectoryNames()
+  {
+    return new String[]
+    {
+      ".svn",
+      // Used when SVN_ASP_DOT_NET_HACK is set.
+      "_svn"
+    };
+  }
+
   public boolean isInstalled()
   {
     InstalledCmd cmd;
@@ -33,12 +44,8 @@ public class SubversionVersionControl
 
   public boolean isEnabled(File file)
   {
-    ActiveCmd cmd;
-
-    cmd = new ActiveCmd(file);
-    cmd.execute();
-
-    return cmd.getResult().isTrue();
+    return VersionControlUtil.getRootDirectory(this,
+                                               file) != null;
     /*
     StatusCmd cmd;
     StatusResult statusResult;
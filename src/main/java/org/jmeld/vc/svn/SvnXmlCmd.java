@@ -1,5 +1,6 @@
 package org.jmeld.vc.svn;
 
+import java.io.InputStream;
 import org.jmeld.util.Result;
 import org.jmeld.util.XmlPersister;
 import org.jmeld.vc.util.VcCmd;
@@ -15,12 +16,12 @@ public class SvnXmlCmd<T>
   }
 
   @Override
-  public void build(byte[] data)
+  protected void build(InputStream is)
   {
     try
     {
       setResultData(XmlPersister.getInstance().read(clazz,
-                                                    data));
+                                                    is));
       setResult(Result.TRUE());
     }
     catch (Exception ex)
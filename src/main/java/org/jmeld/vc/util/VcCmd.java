@@ -4,20 +4,46 @@ import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import org.jmeld.util.Result;
 
+/**
+ * Executes a command of a version control system. <br>
+ * The output is handed to build() while the command runs. The error output
+ * is read at the same time on another thread so a command can never block
+ * on a full pipe. A command that runs longer than the timeout, or that is
+ * cancelled, is destroyed.
+ */
 public abstract class VcCmd<T>
 {
   // Class variables:
   static private boolean debug = true;
+  private static final long DEFAULT_TIMEOUT = TimeUnit.MINUTES.toMillis(10);
+  // The maximum number of characters of the error output that are kept.
+  private static final int MAX_ERROR_LENGTH = 64 * 1024;
+  private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+    Thread thread;
+
+    thread = new Thread(runnable, "JMeld vc timeout");
+    thread.setDaemon(true);
+    return thread;
+  });
 
   // Instance variables:
   private Result result;
   private T resultData;
   private File workingDirectory;
+  private long timeout = DEFAULT_TIMEOUT;
+  private volatile Process process;
+  private volatile boolean cancelled;
+  private volatile boolean timedOut;
 
   public void initWorkingDirectory(File file)
   {
@@ -38,6 +64,43 @@ public abstract class VcCmd<T>
     }
   }
 
+  /**
+   * @param timeout
+   *          the maximum time in milliseconds a command may run. 0 means
+   *          there is no maximum.
+   */
+  public void setTimeout(long timeout)
+  {
+    this.timeout = timeout;
+  }
+
+  public long getTimeout()
+  {
+    return timeout;
+  }
+
+  /**
+   * Destroy the running command. A command that is executed after this
+   * method has been called is not started.
+   */
+  public void cancel()
+  {
+    Process p;
+
+    cancelled = true;
+
+    p = process;
+    if (p != null)
+    {
+      p.destroy();
+    }
+  }
+
+  public boolean isCancelled()
+  {
+    return cancelled;
+  }
+
   public void execute(String... command)
   {
     setResult(_execute(command));
@@ -47,13 +110,16 @@ public abstract class VcCmd<T>
   {
     ProcessBuilder pb;
     Process p;
-    BufferedReader br;
     InputStream is;
-    int count;
-    ByteArrayOutputStream baos;
-    String text;
-    StringBuilder errorText;
-    byte[] data;
+    ErrorReader errorReader;
+    ScheduledFuture<?> timeoutTask;
+    boolean expired;
+    T previousResultData;
+
+    p = null;
+    timeoutTask = null;
+    previousResultData = resultData;
+    timedOut = false;
 
     try
     {
@@ -61,59 +127,174 @@ public abstract class VcCmd<T>
       if (workingDirectory != null)
       {
         pb = pb.directory(workingDirectory);
-        System.out.println("wd=" + workingDirectory);
+        debug("wd=" + workingDirectory);
+      }
+
+      if (cancelled)
+      {
+        return Result.FALSE("Cancelled");
       }
 
-      System.out.println("wd2=" + pb.directory());
       p = pb.start();
+      process = p;
+      if (cancelled)
+      {
+        // cancel() was called before the process was known.
+        p.destroy();
+      }
 
       debug("execute: " + Arrays.asList(command));
 
-      data = new byte[4096];
+      // The commands never read input.
+      p.getOutputStream().close();
 
-      baos = new ByteArrayOutputStream();
-      is = new BufferedInputStream(p.getInputStream());
-      while ((count = is.read(data,
-                              0,
-                              data.length)) != -1)
+      errorReader = new ErrorReader(p.getErrorStream());
+      errorReader.start();
+
+      if (timeout > 0)
       {
-        baos.write(data,
-                   0,
-                   count);
+        timeoutTask = timer.schedule(this::timeout, timeout, TimeUnit.MILLISECONDS);
+      }
+
+      is = new BufferedInputStream(p.getInputStream(), 64 * 1024);
+      try
+      {
+        build(is);
+      }
+      finally
+      {
+        is.close();
       }
-      is.close();
 
       p.waitFor();
 
+      // A command that exited normally was finished before the timer could
+      // destroy it.
+      expired = isTimedOut(timeoutTask) && p.exitValue() != 0;
+      errorReader.join();
+
       debug("  exitValue = " + p.exitValue());
-      if (p.exitValue() != 0)
+      if (expired)
       {
-        errorText = new StringBuilder();
-        br = new BufferedReader(new InputStreamReader(p.getErrorStream()));
-        while ((text = br.readLine()) != null)
-        {
-          errorText.append(text);
-        }
-        br.close();
-        return Result.FALSE(errorText.toString() + " (exitvalue=" + p.exitValue() + ")");
+        resultData = previousResultData;
+        return getTimeoutResult(command);
+      }
+
+      if (cancelled)
+      {
+        resultData = previousResultData;
+        return Result.FALSE("Cancelled");
       }
 
-      build(baos.toByteArray());
-      baos.close();
-      baos = null;
+      if (p.exitValue() != 0)
+      {
+        resultData = previousResultData;
+        return Result.FALSE(errorReader.getText() + " (exitvalue=" + p.exitValue() + ")");
+      }
     }
     catch (Exception ex)
     {
+      resultData = previousResultData;
+
+      // Destroying the command closes its streams.
+      if (isTimedOut(timeoutTask))
+      {
+        return getTimeoutResult(command);
+      }
+      if (cancelled)
+      {
+        return Result.FALSE("Cancelled");
+      }
+
       result = Result.FALSE(ex.getMessage(),
                             ex);
-      baos = null;
       return result;
     }
+    finally
+    {
+      if (timeoutTask != null)
+      {
+        timeoutTask.cancel(false);
+      }
+
+      if (p != null && p.isAlive())
+      {
+        p.destroy();
+      }
+      process = null;
+    }
 
     return Result.TRUE();
   }
 
-  protected abstract void build(byte[] data);
+  /**
+   * Cancel the timer. This method and timeout() are synchronized, so a timer
+   * that already started has either destroyed the command before, or it
+   * finds the command finished after waitFor().
+   *
+   * @return true if the timer destroyed the command.
+   */
+  private synchronized boolean isTimedOut(ScheduledFuture<?> timeoutTask)
+  {
+    if (timeoutTask != null)
+    {
+      timeoutTask.cancel(false);
+    }
+
+    return timedOut;
+  }
+
+  private Result getTimeoutResult(String... command)
+  {
+    return Result.FALSE("Timeout after " + timeout + " msec. (" + Arrays.asList(command) + ")");
+  }
+
+  private synchronized void timeout()
+  {
+    Process p;
+
+    // A command that already finished did not time out.
+    p = process;
+    if (p != null && p.isAlive())
+    {
+      timedOut = true;
+      p.destroy();
+    }
+  }
+
+  /**
+   * Build the result data from the output of the command. The output is read
+   * while the command runs. <br>
+   * The default implementation reads all output and calls build(byte[]).
+   * Commands with a lot of output should parse the stream instead.
+   */
+  protected void build(InputStream is)
+      throws IOException
+  {
+    ByteArrayOutputStream baos;
+    byte[] data;
+    int count;
+
+    data = new byte[4096];
+    baos = new ByteArrayOutputStream();
+    while ((count = is.read(data,
+                            0,
+                            data.length)) != -1)
+    {
+      baos.write(data,
+                 0,
+                 count);
+    }
+
+    build(baos.toByteArray());
+  }
+
+  /**
+   * Build the result data from all output of the command.
+   */
+  protected void build(byte[] data)
+  {
+  }
 
   public void printError()
   {
@@ -151,4 +332,58 @@ public abstract class VcCmd<T>
       System.out.println(text);
     }
   }
+
+  /**
+   * Reads the error output of a command while the command runs.
+   */
+  private static class ErrorReader
+      extends Thread
+  {
+    private final InputStream is;
+    private final StringBuilder errorText = new StringBuilder();
+
+    ErrorReader(InputStream is)
+    {
+      super("JMeld vc error output");
+
+      this.is = is;
+      setDaemon(true);
+    }
+
+    @Override
+    public void run()
+    {
+      BufferedReader br;
+      String text;
+
+      try
+      {
+        br = new BufferedReader(new InputStreamReader(is));
+        try
+        {
+          while ((text = br.readLine()) != null)
+          {
+            // Everything is read but only the start is kept.
+            if (errorText.length() < MAX_ERROR_LENGTH)
+            {
+              errorText.append(text);
+            }
+          }
+        }
+        finally
+        {
+          br.close();
+        }
+      }
+      catch (IOException ex)
+      {
+        // The process was destroyed.
+      }
+    }
+
+    String getText()
+    {
+      return errorText.toString();
+    }
+  }
 }